@@ -0,0 +1,87 @@
+/**
+ * AgentArguments
+ *
+ * Helper for reading agent start-up arguments. Arguments are passed
+ * to JADE agents as strings in "key=value" form, for example:
+ * connector:agentControlSystem.TCPClientAgent(maxFrameSize=65536)
+ *
+ * Arguments without '=' sign or with unknown keys are ignored.
+ */
+
+package agentControlSystem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+public class AgentArguments {
+	private static final Logger LOGGER = Logger.getLogger(AgentArguments.class.getName());
+	
+	private final Map<String, String> argMap;
+
+	public AgentArguments(Object[] args) {
+		argMap = new HashMap<String, String>();
+		if (args != null) {
+			for (Object arg : args) {
+				if (arg == null) {
+					continue;
+				}
+				String keyAndValue[] = arg.toString().split("=", 2);
+				if (keyAndValue.length == 2) {
+					argMap.put(keyAndValue[0].trim(), keyAndValue[1].trim());
+				}
+			}
+		}
+	}
+
+	public boolean contains(final String key) {
+		return argMap.containsKey(key);
+	}
+
+	public String getString(final String key, final String defaultValue) {
+		String value = argMap.get(key);
+		return value != null ? value : defaultValue;
+	}
+
+	public int getInt(final String key, int defaultValue) {
+		try {
+			return argMap.containsKey(key) ? Integer.parseInt(argMap.get(key)) : defaultValue;
+		} catch (NumberFormatException e) {
+			LOGGER.warning("Incorrect value of argument " + key + ", using default " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public long getLong(final String key, long defaultValue) {
+		try {
+			return argMap.containsKey(key) ? Long.parseLong(argMap.get(key)) : defaultValue;
+		} catch (NumberFormatException e) {
+			LOGGER.warning("Incorrect value of argument " + key + ", using default " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public double getDouble(final String key, double defaultValue) {
+		try {
+			return argMap.containsKey(key) ? Double.parseDouble(argMap.get(key)) : defaultValue;
+		} catch (NumberFormatException e) {
+			LOGGER.warning("Incorrect value of argument " + key + ", using default " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns all arguments which keys start with given prefix, prefix is removed from returned keys.
+	 * @param prefix - prefix of keys, e.g. "deadband."
+	 * @return map of matching arguments
+	 */
+	public Map<String, String> getWithPrefix(final String prefix) {
+		Map<String, String> result = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : argMap.entrySet()) {
+			if (entry.getKey().startsWith(prefix) && entry.getKey().length() > prefix.length()) {
+				result.put(entry.getKey().substring(prefix.length()), entry.getValue());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * BinaryPayloadDecoder
+ *
+ * Decodes binary content of INFORM sent by connector agent (see
+ * BinaryPayloadEncoder) and passes every received variable to sink by its
+ * index in dictionary received in AGREE. Frames of batch are passed in
+ * order, each after its time. Decoding does not allocate any objects, so
+ * it adds no garbage however many values are received.
+ */
+
+package agentControlSystem;
+
+public class BinaryPayloadDecoder {
+
+	/**
+	 * Receives decoded values, e.g. GUI presenting them.
+	 */
+	public interface ValueSink {
+		/**
+		 * Called before values of every frame.
+		 * @param frameTime - time of frame (ms), 0 if update does not carry it
+		 */
+		void startFrame(long frameTime);
+
+		/**
+		 * @param index - index of variable in dictionary
+		 * @param value - new value
+		 */
+		void updateValue(int index, double value);
+
+		/**
+		 * @param index - index of variable in dictionary
+		 * @param last - new value
+		 * @param min - minimum since previous update
+		 * @param max - maximum since previous update
+		 */
+		void updateAggregate(int index, double last, double min, double max);
+	}
+
+	/**
+	 * Decodes update message content.
+	 * @param content - byte sequence content of INFORM message
+	 * @param withMinMax - true if values are aggregated as last, minimum and maximum
+	 * @param sink - receiver of decoded values
+	 * @return number of decoded variables, -1 if content has unknown version or is truncated
+	 */
+	public static int decode(byte[] content, boolean withMinMax, ValueSink sink) {
+		if (content == null || content.length == 0) {
+			return -1;
+		}
+		if (content[0] == BinaryPayloadEncoder.VERSION) {
+			sink.startFrame(0);
+			return decodeValues(content, 1, -1, withMinMax, sink);
+		}
+		if (content[0] != BinaryPayloadEncoder.BATCH_VERSION) {
+			return -1;
+		}
+		int position = 1;
+		int count = 0;
+		while (position < content.length) {
+			if (position + 8 > content.length) {
+				return -1;
+			}
+			sink.startFrame(readLong(content, position));
+			long frameCount = readVarint(content, position + 8);
+			if (frameCount < 0 || (int) frameCount < 0) {
+				return -1;
+			}
+			position = decodeValues(content, (int) (frameCount >>> 32), (int) frameCount, withMinMax, sink);
+			if (position < 0) {
+				return -1;
+			}
+			count += (int) frameCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes variables of one frame.
+	 * @param position - position of the first variable
+	 * @param count - number of variables, -1 for all variables up to the end of content
+	 * @return position after decoded variables, for all variables their count, -1 if content is truncated
+	 */
+	private static int decodeValues(byte[] content, int position, int count, boolean withMinMax, ValueSink sink) {
+		int valueSize = withMinMax ? 3 * 8 : 8;
+		int decoded = 0;
+		while (count < 0 ? position < content.length : decoded < count) {
+			long index = readVarint(content, position);
+			if (index < 0) {
+				return -1;
+			}
+			position = (int) (index >>> 32);
+			if (position + valueSize > content.length) {
+				return -1;
+			}
+			if (withMinMax) {
+				sink.updateAggregate((int) index, readDouble(content, position), readDouble(content, position + 8),
+						readDouble(content, position + 16));
+			} else {
+				sink.updateValue((int) index, readDouble(content, position));
+			}
+			position += valueSize;
+			decoded++;
+		}
+		return count < 0 ? decoded : position;
+	}
+
+	/**
+	 * Reads varint of at most 5 bytes.
+	 * @return value in lower 32 bits and position after varint in upper 32 bits, -1 if content is truncated
+	 */
+	private static long readVarint(byte[] content, int position) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (position >= content.length || shift > 28) {
+				return -1;
+			}
+			b = content[position++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return ((long) position << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	private static double readDouble(byte[] content, int position) {
+		return Double.longBitsToDouble(readLong(content, position));
+	}
+
+	private static long readLong(byte[] content, int position) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (content[position + i] & 0xFF);
+		}
+		return value;
+	}
+}
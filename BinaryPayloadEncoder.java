@@ -0,0 +1,185 @@
+/**
+ * BinaryPayloadEncoder
+ *
+ * Builds binary content of subscription messages (see
+ * ACLMessage.setByteSequenceContent) for subscribers which negotiated
+ * "encoding=binary". Names of variables are sent once, in AGREE to the
+ * subscription, as dictionary "name0;name1;..." and every update carries
+ * only indexes of that dictionary:
+ *
+ * version byte (1), then for every variable its index as unsigned varint
+ * (7 bits per byte, lowest first) followed by its value as big-endian
+ * IEEE-754 double, or by last, minimum and maximum when values are
+ * aggregated.
+ *
+ * Batch of frames (see FrameBatch) starts with version byte 2 and every
+ * frame has its time (ms) as big-endian long and number of its variables
+ * as unsigned varint, followed by variables as above.
+ *
+ * Encoder reuses its buffer, so single instance should be used by one
+ * thread only.
+ */
+
+package agentControlSystem;
+
+import java.util.Arrays;
+
+public class BinaryPayloadEncoder {
+	public static final String ENCODING = "encoding";
+	public static final String ENCODING_TEXT = "text";
+	public static final String ENCODING_BINARY = "binary";
+
+	/**
+	 * Parameter of AGREE with number of decimal places values should be shown with.
+	 */
+	public static final String PRECISION = "precision";
+
+	public static final byte VERSION = 1;
+	public static final byte BATCH_VERSION = 2;
+
+	private byte[] buffer;
+	private int length;
+
+	public BinaryPayloadEncoder() {
+		buffer = new byte[256];
+		reset();
+	}
+
+	/**
+	 * Creates dictionary sent in AGREE, position of name in dictionary is its index in updates.
+	 * @param varNames - names of variables ordered by slot
+	 * @param slots - ascending slots of selected variables, null for all variables
+	 */
+	public static String createDictionary(String[] varNames, int[] slots) {
+		StringBuilder dictionary = new StringBuilder();
+		int count = slots != null ? slots.length : varNames.length;
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				dictionary.append(';');
+			}
+			dictionary.append(varNames[slots != null ? slots[i] : i]);
+		}
+		return dictionary.toString();
+	}
+
+	/**
+	 * Encodes selected variables, index of variable is its position in selection.
+	 * @param values - values of variables ordered by slot
+	 * @param slots - ascending slots of variables to encode, null for all variables
+	 * @param changes - detector with variables changed in current frame, null to encode every selected variable
+	 * @return encoded content, null if no variable was encoded
+	 */
+	public byte[] encode(double[] values, int[] slots, ChangeDetector changes) {
+		reset();
+		int count = slots != null ? slots.length : values.length;
+		for (int i = 0; i < count; i++) {
+			int slot = slots != null ? slots[i] : i;
+			if (changes == null || changes.isChanged(slot)) {
+				add(i, values[slot]);
+			}
+		}
+		return isEmpty() ? null : toByteArray();
+	}
+
+	/**
+	 * Starts new content.
+	 */
+	public void reset() {
+		buffer[0] = VERSION;
+		length = 1;
+	}
+
+	/**
+	 * Starts new batch content, frames are added by addFrame().
+	 */
+	public void resetBatch() {
+		buffer[0] = BATCH_VERSION;
+		length = 1;
+	}
+
+	/**
+	 * Adds frame to batch content, index of variable is its position in selection.
+	 * @param frameTime - time of frame (ms)
+	 * @param values - values of variables ordered by slot
+	 * @param slots - ascending slots of variables to encode, null for all variables
+	 * @param changes - detector with variables changed in current frame, null to encode every selected variable
+	 * @return true if frame was added, false if it has no variable to encode
+	 */
+	public boolean addFrame(long frameTime, double[] values, int[] slots, ChangeDetector changes) {
+		int count = slots != null ? slots.length : values.length;
+		int encoded = count;
+		if (changes != null) {
+			encoded = 0;
+			for (int i = 0; i < count; i++) {
+				if (changes.isChanged(slots != null ? slots[i] : i)) {
+					encoded++;
+				}
+			}
+		}
+		if (encoded == 0) {
+			return false;
+		}
+		ensureCapacity(8 + 5);
+		writeLong(frameTime);
+		writeVarint(encoded);
+		for (int i = 0; i < count; i++) {
+			int slot = slots != null ? slots[i] : i;
+			if (changes == null || changes.isChanged(slot)) {
+				add(i, values[slot]);
+			}
+		}
+		return true;
+	}
+
+	public void add(int index, double value) {
+		ensureCapacity(5 + 8);
+		writeVarint(index);
+		writeDouble(value);
+	}
+
+	/**
+	 * Adds aggregated value, content must be decoded with minimum and maximum.
+	 */
+	public void add(int index, double last, double min, double max) {
+		ensureCapacity(5 + 3 * 8);
+		writeVarint(index);
+		writeDouble(last);
+		writeDouble(min);
+		writeDouble(max);
+	}
+
+	public boolean isEmpty() {
+		return length <= 1;
+	}
+
+	/**
+	 * @return copy of content, message keeps the array so buffer cannot be passed
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private void ensureCapacity(int needed) {
+		if (length + needed > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+		}
+	}
+
+	private void writeVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[length++] = (byte) value;
+	}
+
+	private void writeDouble(double value) {
+		writeLong(Double.doubleToRawLongBits(value));
+	}
+
+	private void writeLong(long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer[length++] = (byte) (value >>> shift);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * ChangeDetector
+ *
+ * Decides which variables should be sent to subscribers in delta
+ * publishing mode. Variable is sent only when its value moved past
+ * deadband since it was last sent. Deadband is either absolute
+ * (e.g. "0.5") or relative to last sent value (e.g. "2%").
+ *
+ * Every keyframePeriod milliseconds full frame (keyframe) is produced
+ * so late joiners and lossy consumers can resynchronize.
+ */
+
+package agentControlSystem;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+public class ChangeDetector {
+	private static final Logger LOGGER = Logger.getLogger(ChangeDetector.class.getName());
+
+	public static final String FRAME_TYPE = "frame-type";
+	public static final String KEYFRAME = "key";
+	public static final String DELTA_FRAME = "delta";
+
+	private final double[] absoluteBands;
+	private final double[] percentBands;
+	private final double[] lastPublished;
+	private final boolean[] changed;
+	private final long keyframePeriod;
+	private long lastKeyframeTime;
+	private int changedCount;
+
+	/**
+	 * @param varNames - names of variables ordered by slot
+	 * @param defaultDeadband - deadband used for variables without own deadband
+	 * @param varDeadbands - deadbands of particular variables, keyed by variable name
+	 * @param keyframePeriod - time between keyframes (ms)
+	 */
+	public ChangeDetector(String[] varNames, final String defaultDeadband, Map<String, String> varDeadbands,
+			long keyframePeriod) {
+		int size = varNames.length;
+		absoluteBands = new double[size];
+		percentBands = new double[size];
+		lastPublished = new double[size];
+		changed = new boolean[size];
+		this.keyframePeriod = keyframePeriod;
+		lastKeyframeTime = Long.MIN_VALUE;
+		for (int slot = 0; slot < size; slot++) {
+			String deadband = varDeadbands.get(varNames[slot]);
+			setDeadband(slot, deadband != null ? deadband : defaultDeadband);
+		}
+	}
+
+	private void setDeadband(int slot, final String deadband) {
+		try {
+			String band = deadband.trim();
+			if (band.endsWith("%")) {
+				percentBands[slot] = Math.abs(Double.parseDouble(band.substring(0, band.length() - 1))) / 100.0;
+			} else {
+				absoluteBands[slot] = Math.abs(Double.parseDouble(band));
+			}
+		} catch (NumberFormatException e) {
+			LOGGER.warning("Incorrect deadband " + deadband + ", every change will be sent");
+		}
+	}
+
+	/**
+	 * Marks variables which changed since they were last sent, called once per frame.
+	 * @param values - current values ordered by slot
+	 * @param frameTime - time of frame (ms)
+	 * @return true if this frame is a keyframe (all variables are marked as changed)
+	 */
+	public boolean detectChanges(double[] values, long frameTime) {
+		boolean keyframe = lastKeyframeTime == Long.MIN_VALUE || frameTime - lastKeyframeTime >= keyframePeriod;
+		if (keyframe) {
+			lastKeyframeTime = frameTime;
+		}
+		changedCount = 0;
+		for (int slot = 0; slot < changed.length; slot++) {
+			double value = values[slot];
+			double difference = Math.abs(value - lastPublished[slot]);
+			double band = absoluteBands[slot] + percentBands[slot] * Math.abs(lastPublished[slot]);
+			// Comparison with last sent value (not last received) prevents slow drift from being hidden.
+			// Change to or from NaN is always sent (difference is NaN then).
+			changed[slot] = keyframe || (Double.compare(value, lastPublished[slot]) != 0 && !(difference <= band));
+			if (changed[slot]) {
+				lastPublished[slot] = value;
+				changedCount++;
+			}
+		}
+		return keyframe;
+	}
+
+	public boolean isChanged(int slot) {
+		return changed[slot];
+	}
+
+	/**
+	 * @return number of variables marked by last detectChanges() call
+	 */
+	public int getChangedCount() {
+		return changedCount;
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * ClusterFrameParser
+ *
+ * Streaming parser for data frames sent by plant. Plant sends consecutive
+ * LabView "Flatten to XML" documents (each with <Cluster> as root element)
+ * through one TCP stream. XML parser cannot read consecutive documents from
+ * one stream, so stream is prefixed with synthetic root element and every
+ * <Cluster> is read as its child. Thanks to that one cursor reader is used
+ * for whole connection and no intermediate String or byte[] is created per frame.
+ *
+ * Size of a single frame is limited, so plant that never sends </Cluster>
+ * cannot make agent grow memory without bound.
+ *
+ * Frames already delimited in a buffer (e.g. by non-blocking PlantConnector)
+ * can be parsed with parseFrame() method.
+ */
+
+package agentControlSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+public class ClusterFrameParser {
+	private static final Logger LOGGER = Logger.getLogger(ClusterFrameParser.class.getName());
+
+	/**
+	 * Receives values parsed from frames.
+	 */
+	public interface FrameHandler {
+		/**
+		 * Called for every variable found in frame, in order in which plant sent them.
+		 * @param varName - variable name
+		 * @param varVal - variable value
+		 */
+		void onValue(final String varName, double varVal);
+
+		/**
+		 * Called when </Cluster> closing whole frame is parsed.
+		 */
+		void onFrameEnd();
+	}
+
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+	private static final String STREAM_ROOT = "<PlantStream>";
+	private static final String CLUSTER = "Cluster";
+	private static final String NAME = "Name";
+	private static final String VAL = "Val";
+
+	private final FrameLimitInputStream frameInput;
+	private final XMLStreamReader xmlReader;
+
+	/**
+	 * @param plantInput - stream received from plant
+	 * @param maxFrameSize - maximum number of bytes single frame may take
+	 * @throws XMLStreamException when XML reader cannot be created
+	 */
+	public ClusterFrameParser(InputStream plantInput, int maxFrameSize) throws XMLStreamException {
+		frameInput = new FrameLimitInputStream(plantInput, maxFrameSize);
+		InputStream rootInput = new ByteArrayInputStream(STREAM_ROOT.getBytes(StandardCharsets.UTF_8));
+		xmlReader = createReaderFactory().createXMLStreamReader(new SequenceInputStream(rootInput, frameInput), "UTF-8");
+	}
+	
+	/**
+	 * Creates factory for XML readers used to parse plant data. Factories are not guaranteed
+	 * to be thread safe, every thread parsing frames should use its own factory.
+	 * @return new XML reader factory
+	 */
+	public static XMLInputFactory createReaderFactory() {
+		XMLInputFactory xmlReaderFactory = XMLInputFactory.newInstance();
+		// Plant data is not trusted, external entities are never resolved.
+		xmlReaderFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlReaderFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return xmlReaderFactory;
+	}
+	
+	/**
+	 * Parses single frame (whole <Cluster> element) stored in buffer.
+	 * @param xmlReaderFactory - factory created by createReaderFactory()
+	 * @param frameBuffer - buffer containing frame
+	 * @param offset - position of frame in buffer
+	 * @param length - length of frame
+	 * @param handler - handler receiving parsed values
+	 * @throws XMLStreamException when frame is malformed
+	 */
+	public static void parseFrame(XMLInputFactory xmlReaderFactory, byte[] frameBuffer, int offset, int length,
+			FrameHandler handler) throws XMLStreamException {
+		XMLStreamReader frameReader = xmlReaderFactory.createXMLStreamReader(
+				new ByteArrayInputStream(frameBuffer, offset, length), "UTF-8");
+		try {
+			if (!parseCluster(frameReader, handler)) {
+				throw new XMLStreamException("Frame is not closed with </Cluster>");
+			}
+		} finally {
+			frameReader.close();
+		}
+	}
+
+	/**
+	 * Reads next whole frame from stream. Method blocks until frame is read.
+	 * Data is received in following pattern: first is Name element with variable name and next comes Val element.
+	 * @param handler - handler receiving parsed values
+	 * @return true if frame was read, false if plant closed the stream
+	 * @throws XMLStreamException when frame is malformed or exceeds maximum size
+	 * @throws IOException when reading from plant failed
+	 */
+	public boolean readFrame(FrameHandler handler) throws XMLStreamException, IOException {
+		try {
+			if (parseCluster(xmlReader, handler)) {
+				// Whole frame parsed, its size no longer counts to the limit.
+				frameInput.startNextFrame();
+				return true;
+			}
+		} catch (XMLStreamException e) {
+			// XML reader wraps all stream problems, they need to be distinguished from malformed data.
+			if (frameInput.isLimitExceeded()) {
+				throw new XMLStreamException("Frame exceeded maximum size of " + frameInput.getMaxFrameSize() + " bytes");
+			} else if (e.getNestedException() instanceof IOException) {
+				throw (IOException) e.getNestedException();
+			} else if (frameInput.isEndOfStream()) {
+				return false;
+			}
+			throw e;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads events until outermost </Cluster> is found.
+	 * @return true if whole cluster was read, false if reader ran out of events
+	 */
+	private static boolean parseCluster(XMLStreamReader reader, FrameHandler handler) throws XMLStreamException {
+		String varName = "";
+		int clusterDepth = 0;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String elementName = reader.getLocalName();
+				if (elementName.equals(CLUSTER)) {
+					clusterDepth++;
+				} else if (elementName.equals(NAME)) {
+					varName = reader.getElementText();
+				} else if (elementName.equals(VAL)) {
+					String varVal = reader.getElementText();
+					if (!varName.isEmpty()) {
+						try {
+							handler.onValue(varName, Double.parseDouble(varVal));
+							varName = ""; //just to force correct pattern
+						} catch (NumberFormatException e) {
+							LOGGER.warning("Problems occured during double conversion");
+						}
+					}
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(CLUSTER)) {
+				clusterDepth--;
+				if (clusterDepth == 0) {
+					handler.onFrameEnd();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Closes XML reader, underlying plant stream is not closed.
+	 */
+	public void close() {
+		try {
+			xmlReader.close();
+		} catch (XMLStreamException e) {}
+	}
+	
+	/**
+	 * @return number of bytes read from plant stream, reader buffers ahead so bytes of next frame may be counted
+	 */
+	public long getBytesRead() {
+		return frameInput.getBytesRead();
+	}
+
+	/**
+	 * Stream counting bytes read since the end of last frame.
+	 */
+	private static class FrameLimitInputStream extends FilterInputStream {
+		private final int maxFrameSize;
+		private int frameSize;
+		private long bytesRead;
+		private boolean limitExceeded;
+		private boolean endOfStream;
+
+		FrameLimitInputStream(InputStream in, int maxFrameSize) {
+			super(in);
+			this.maxFrameSize = maxFrameSize;
+		}
+
+		public int read() throws IOException {
+			int b = super.read();
+			count(b < 0 ? -1 : 1);
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			count(n);
+			return n;
+		}
+
+		private void count(int n) throws IOException {
+			if (n < 0) {
+				endOfStream = true;
+				return;
+			}
+			frameSize += n;
+			bytesRead += n;
+			if (frameSize > maxFrameSize) {
+				limitExceeded = true;
+				throw new IOException("Frame size limit exceeded");
+			}
+		}
+
+		// Reader buffers ahead, so bytes already read may partially belong to the next frame,
+		// limit is a safety bound, not an exact frame length.
+		void startNextFrame() { frameSize = 0; }
+		boolean isLimitExceeded() { return limitExceeded; }
+		boolean isEndOfStream() { return endOfStream; }
+		int getMaxFrameSize() { return maxFrameSize; }
+		long getBytesRead() { return bytesRead; }
+	}
+}
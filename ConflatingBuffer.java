@@ -0,0 +1,176 @@
+/**
+ * ConflatingBuffer
+ *
+ * Collects values of frames between two deliveries to rate-limited
+ * subscriber. Only the latest value of every variable is kept, optionally
+ * together with minimum and maximum seen since the last delivery.
+ *
+ * Frames are added by connector's dispatcher thread and buffer is drained
+ * by timer-driven publisher running on agent thread, both operations are
+ * short and synchronized.
+ * Delivery is traced by the newest frame merged since the last delivery.
+ */
+
+package agentControlSystem;
+
+import jade.lang.acl.ACLMessage;
+
+public class ConflatingBuffer {
+
+	public static final String AGGREGATE = "aggregate";
+	public static final String AGGREGATE_LAST = "last";
+	public static final String AGGREGATE_MIN_MAX_LAST = "minmaxlast";
+
+	private final int[] slots;
+	private final boolean withMinMax;
+	private final double[] last;
+	private final double[] min;
+	private final double[] max;
+	private final boolean[] dirty;
+	private int dirtyCount;
+	private boolean keyframeMerged;
+
+	// Trace of the newest merged frame and of the newest frame of last drain, -1 sequence if not traced.
+	private long sequence = -1;
+	private long ingestTime;
+	private long ingestClock;
+	private long drainedSequence = -1;
+	private long drainedIngestTime;
+	private long drainedIngestClock;
+
+	/**
+	 * @param slots - ascending slots of selected variables, null for all variables
+	 * @param varCount - number of plant variables
+	 * @param withMinMax - true if minimum and maximum over interval should be sent with last value
+	 */
+	public ConflatingBuffer(int[] slots, int varCount, boolean withMinMax) {
+		this.slots = slots;
+		this.withMinMax = withMinMax;
+		int size = slots != null ? slots.length : varCount;
+		last = new double[size];
+		min = new double[size];
+		max = new double[size];
+		dirty = new boolean[size];
+	}
+
+	/**
+	 * Merges frame into buffer.
+	 * @param values - values of frame ordered by slot
+	 * @param changes - variables changed in delta frame, null if every variable should be merged
+	 * @param keyframe - true if frame is a keyframe
+	 */
+	public synchronized void add(double[] values, ChangeDetector changes, boolean keyframe) {
+		add(values, changes, keyframe, -1, 0, 0);
+	}
+
+	/**
+	 * Merges traced frame into buffer.
+	 * @param values - values of frame ordered by slot
+	 * @param changes - variables changed in delta frame, null if every variable should be merged
+	 * @param keyframe - true if frame is a keyframe
+	 * @param sequence - number of frame, -1 if frame is not traced
+	 * @param ingestTime - System.nanoTime() when reading of frame started
+	 * @param ingestClock - time of frame (ms)
+	 */
+	public synchronized void add(double[] values, ChangeDetector changes, boolean keyframe, long sequence,
+			long ingestTime, long ingestClock) {
+		this.sequence = sequence;
+		this.ingestTime = ingestTime;
+		this.ingestClock = ingestClock;
+		keyframeMerged |= keyframe;
+		for (int i = 0; i < dirty.length; i++) {
+			int slot = slots != null ? slots[i] : i;
+			if (changes == null || changes.isChanged(slot)) {
+				double value = values[slot];
+				if (!dirty[i]) {
+					dirty[i] = true;
+					dirtyCount++;
+					min[i] = value;
+					max[i] = value;
+				} else {
+					min[i] = Math.min(min[i], value);
+					max[i] = Math.max(max[i], value);
+				}
+				last[i] = value;
+			}
+		}
+	}
+
+	/**
+	 * Encodes variables collected since last drain and clears buffer. Value is written as "last"
+	 * or, with min/max aggregation, as "last,min,max".
+	 * @param varNames - names of variables ordered by slot
+	 * @param precision - number of decimal places
+	 * @param content - builder for message content, it is cleared first
+	 * @return ChangeDetector.KEYFRAME if keyframe was merged since last drain, ChangeDetector.DELTA_FRAME
+	 * otherwise, null if nothing was collected
+	 */
+	public synchronized String drain(String[] varNames, int precision, StringBuilder content) {
+		content.setLength(0);
+		if (dirtyCount == 0) {
+			return null;
+		}
+		for (int i = 0; i < dirty.length; i++) {
+			if (dirty[i]) {
+				dirty[i] = false;
+				content.append(varNames[slots != null ? slots[i] : i]).append(':');
+				PlantValueStore.appendFormatted(content, last[i], precision);
+				if (withMinMax) {
+					content.append(',');
+					PlantValueStore.appendFormatted(content, min[i], precision);
+					content.append(',');
+					PlantValueStore.appendFormatted(content, max[i], precision);
+				}
+				content.append(';');
+			}
+		}
+		content.setLength(content.length() - 1);
+		dirtyCount = 0;
+		drainedSequence = sequence;
+		drainedIngestTime = ingestTime;
+		drainedIngestClock = ingestClock;
+		String frameType = keyframeMerged ? ChangeDetector.KEYFRAME : ChangeDetector.DELTA_FRAME;
+		keyframeMerged = false;
+		return frameType;
+	}
+
+	/**
+	 * Encodes variables collected since last drain as binary content and clears buffer. Index of
+	 * variable is its position in selection, as in dictionary of subscriber.
+	 * @param encoder - encoder for content, it is reset first
+	 * @return ChangeDetector.KEYFRAME if keyframe was merged since last drain, ChangeDetector.DELTA_FRAME
+	 * otherwise, null if nothing was collected
+	 */
+	public synchronized String drain(BinaryPayloadEncoder encoder) {
+		encoder.reset();
+		if (dirtyCount == 0) {
+			return null;
+		}
+		for (int i = 0; i < dirty.length; i++) {
+			if (dirty[i]) {
+				dirty[i] = false;
+				if (withMinMax) {
+					encoder.add(i, last[i], min[i], max[i]);
+				} else {
+					encoder.add(i, last[i]);
+				}
+			}
+		}
+		dirtyCount = 0;
+		drainedSequence = sequence;
+		drainedIngestTime = ingestTime;
+		drainedIngestClock = ingestClock;
+		String frameType = keyframeMerged ? ChangeDetector.KEYFRAME : ChangeDetector.DELTA_FRAME;
+		keyframeMerged = false;
+		return frameType;
+	}
+
+	/**
+	 * Adds trace of the newest frame of last drain to message, called by thread draining buffer.
+	 */
+	public synchronized void addTrace(ACLMessage message) {
+		if (drainedSequence >= 0) {
+			LatencyTrace.stamp(message, drainedSequence, drainedIngestTime, drainedIngestClock);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * ConnectorLoad
+ *
+ * Load of connector agent sent in PROPOSE content, so that agent calling
+ * for proposals can choose the least loaded connector. Content is list of
+ * parameters separated by ';' which starts with "connected" (connector
+ * already serves the plant) or "ready", e.g.
+ * "ready;sessions=3;maxSessions=100;subscribers=7;framesPerSecond=30.0;
+ * dispatchQueueDepth=0;cpuLoad=0.12;container=Main-Container".
+ *
+ * Proposals of connectors which send only "connected" or "ready" are
+ * treated as unloaded.
+ */
+
+package agentControlSystem;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+public class ConnectorLoad {
+	public static final String CONNECTED = "connected";
+	public static final String READY = "ready";
+
+	private final String status;
+	private final int sessions;
+	private final int maxSessions;
+	private final int subscribers;
+	private final double framesPerSecond;
+	private final int dispatchQueueDepth;
+	private final double cpuLoad;
+	private final String container;
+
+	/**
+	 * @param status - CONNECTED or READY
+	 * @param sessions - number of plants served by connector
+	 * @param maxSessions - maximum number of plants connector can serve
+	 * @param subscribers - number of subscriptions of all plants
+	 * @param framesPerSecond - frames received from all plants per second
+	 * @param dispatchQueueDepth - frames waiting for dispatcher
+	 * @param cpuLoad - CPU load of connector's JVM (0 to 1), negative if unknown
+	 * @param container - name of connector's container, null if unknown
+	 */
+	public ConnectorLoad(final String status, int sessions, int maxSessions, int subscribers, double framesPerSecond,
+			int dispatchQueueDepth, double cpuLoad, final String container) {
+		this.status = status;
+		this.sessions = sessions;
+		this.maxSessions = maxSessions;
+		this.subscribers = subscribers;
+		this.framesPerSecond = framesPerSecond;
+		this.dispatchQueueDepth = dispatchQueueDepth;
+		this.cpuLoad = cpuLoad;
+		this.container = container;
+	}
+
+	/**
+	 * @param content - content of PROPOSE message
+	 * @return load of proposing connector, status is null if content is not proposal of connector
+	 */
+	public static ConnectorLoad parse(final String content) {
+		String parameters[] = content != null ? content.split(";") : new String[] {""};
+		String status = parameters[0].trim();
+		if (!status.equals(CONNECTED) && !status.equals(READY)) {
+			status = null;
+		}
+		AgentArguments metrics = new AgentArguments(parameters);
+		return new ConnectorLoad(status, metrics.getInt("sessions", 0), metrics.getInt("maxSessions", 0),
+				metrics.getInt("subscribers", 0), metrics.getDouble("framesPerSecond", 0),
+				metrics.getInt("dispatchQueueDepth", 0), metrics.getDouble("cpuLoad", -1),
+				metrics.getString("container", null));
+	}
+
+	/**
+	 * @return content of PROPOSE message
+	 */
+	public String toContent() {
+		StringBuilder content = new StringBuilder(status);
+		content.append(";sessions=").append(sessions);
+		content.append(";maxSessions=").append(maxSessions);
+		content.append(";subscribers=").append(subscribers);
+		content.append(";framesPerSecond=").append(Math.round(framesPerSecond * 10) / 10.0);
+		content.append(";dispatchQueueDepth=").append(dispatchQueueDepth);
+		content.append(";cpuLoad=").append(cpuLoad >= 0 ? Math.round(cpuLoad * 100) / 100.0 : -1);
+		if (container != null) {
+			content.append(";container=").append(container);
+		}
+		return content.toString();
+	}
+
+	/**
+	 * @return CPU load of this JVM (0 to 1), negative if it is not available
+	 */
+	public static double currentCpuLoad() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+		}
+		return -1;
+	}
+
+	public boolean isConnected() { return CONNECTED.equals(status); }
+	public boolean isReady() { return READY.equals(status); }
+	public String getStatus() { return status; }
+	public int getSessions() { return sessions; }
+	public int getMaxSessions() { return maxSessions; }
+	public int getSubscribers() { return subscribers; }
+	public double getFramesPerSecond() { return framesPerSecond; }
+	public int getDispatchQueueDepth() { return dispatchQueueDepth; }
+	public double getCpuLoad() { return cpuLoad; }
+	public String getContainer() { return container; }
+
+	/**
+	 * @return part of connector's capacity in use (0 to 1), 0 if unknown
+	 */
+	public double getUtilization() {
+		return maxSessions > 0 ? (double) sessions / maxSessions : 0;
+	}
+
+	public String toString() {
+		return toContent();
+	}
+}
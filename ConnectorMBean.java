@@ -0,0 +1,41 @@
+/**
+ * ConnectorMBean
+ *
+ * Management interface of connector agent, registered as
+ * "agentControlSystem:type=Connector,name=<agent name>". Plants served by
+ * connector are registered separately (see PlantSessionMBean).
+ */
+
+package agentControlSystem;
+
+public interface ConnectorMBean {
+
+	int getSessions();
+
+	int getMaxSessions();
+
+	/**
+	 * @return number of subscriptions of all plants
+	 */
+	int getSubscribers();
+
+	/**
+	 * @return frames received from all plants per second
+	 */
+	double getFramesPerSecond();
+
+	/**
+	 * @return bytes received from all plants per second
+	 */
+	double getBytesPerSecond();
+
+	/**
+	 * @return frames of all plants waiting for dispatcher
+	 */
+	int getDispatchQueueDepth();
+
+	/**
+	 * @return frames of current plants dropped because dispatcher could not keep up
+	 */
+	long getDroppedFrames();
+}
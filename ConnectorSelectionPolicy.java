@@ -0,0 +1,141 @@
+/**
+ * ConnectorSelectionPolicy
+ *
+ * Chooses connector agent which proposal is accepted. Connector already
+ * connected to the plant is always chosen, so plant is never connected
+ * twice. Otherwise policy chooses one of ready connectors:
+ *
+ * first - the first ready connector (previous behaviour),
+ * least-loaded - connector with the lowest utilization of sessions, then
+ *   shortest dispatch queue, fewest frames per second, subscribers and
+ *   lowest CPU load of its JVM,
+ *   equally loaded connectors are chosen randomly, so agents calling at
+ *   the same moment do not all choose the same one,
+ * local - least loaded connector in the same container as caller if it has
+ *   free sessions, otherwise least loaded connector in any container.
+ */
+
+package agentControlSystem;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public interface ConnectorSelectionPolicy {
+
+	String FIRST = "first";
+	String LEAST_LOADED = "least-loaded";
+	String LOCAL = "local";
+
+	/**
+	 * @param offers - loads of proposing connectors
+	 * @return index of chosen offer, -1 if no connector can be chosen
+	 */
+	int select(ConnectorLoad[] offers);
+
+	/**
+	 * @param name - name of policy, unknown names select least-loaded
+	 * @param localContainer - container of agent calling for proposals
+	 */
+	static ConnectorSelectionPolicy forName(final String name, final String localContainer) {
+		if (name.equals(FIRST)) {
+			return new FirstReady();
+		} else if (name.equals(LOCAL)) {
+			return new LocalityAware(localContainer);
+		}
+		return new LeastLoaded();
+	}
+
+	/**
+	 * @return index of connector already connected to plant, -1 if there is none
+	 */
+	static int findConnected(ConnectorLoad[] offers) {
+		for (int i = 0; i < offers.length; i++) {
+			if (offers[i].isConnected()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	class FirstReady implements ConnectorSelectionPolicy {
+		public int select(ConnectorLoad[] offers) {
+			int connected = findConnected(offers);
+			if (connected >= 0) {
+				return connected;
+			}
+			for (int i = 0; i < offers.length; i++) {
+				if (offers[i].isReady()) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	class LeastLoaded implements ConnectorSelectionPolicy {
+		public int select(ConnectorLoad[] offers) {
+			int connected = findConnected(offers);
+			return connected >= 0 ? connected : selectLeastLoaded(offers, null);
+		}
+
+		/**
+		 * @param container - only connectors in that container are considered, null for all
+		 */
+		static int selectLeastLoaded(ConnectorLoad[] offers, final String container) {
+			int best = -1;
+			int ties = 0;
+			for (int i = 0; i < offers.length; i++) {
+				if (!offers[i].isReady() || (container != null && !container.equals(offers[i].getContainer()))) {
+					continue;
+				}
+				int order = best < 0 ? -1 : compareLoad(offers[i], offers[best]);
+				if (order < 0) {
+					best = i;
+					ties = 1;
+				} else if (order == 0 && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+					// Every equally loaded connector is chosen with the same probability.
+					best = i;
+				}
+			}
+			return best;
+		}
+
+		static int compareLoad(ConnectorLoad load, ConnectorLoad other) {
+			int order = Double.compare(load.getUtilization(), other.getUtilization());
+			if (order == 0) {
+				order = Integer.compare(load.getDispatchQueueDepth(), other.getDispatchQueueDepth());
+			}
+			if (order == 0) {
+				order = Double.compare(load.getFramesPerSecond(), other.getFramesPerSecond());
+			}
+			if (order == 0) {
+				order = Integer.compare(load.getSubscribers(), other.getSubscribers());
+			}
+			if (order == 0 && load.getCpuLoad() >= 0 && other.getCpuLoad() >= 0) {
+				order = Double.compare(load.getCpuLoad(), other.getCpuLoad());
+			}
+			return order;
+		}
+	}
+
+	class LocalityAware implements ConnectorSelectionPolicy {
+		private final String localContainer;
+
+		LocalityAware(final String localContainer) {
+			this.localContainer = localContainer;
+		}
+
+		public int select(ConnectorLoad[] offers) {
+			int connected = findConnected(offers);
+			if (connected >= 0) {
+				return connected;
+			}
+			if (localContainer != null) {
+				int local = LeastLoaded.selectLeastLoaded(offers, localContainer);
+				if (local >= 0 && offers[local].getUtilization() < 1) {
+					return local;
+				}
+			}
+			return LeastLoaded.selectLeastLoaded(offers, null);
+		}
+	}
+}
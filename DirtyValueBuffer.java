@@ -0,0 +1,118 @@
+/**
+ * DirtyValueBuffer
+ *
+ * Latest values of variables waiting to be shown, passed from agent's
+ * thread (single writer) to Swing event dispatch thread (single reader)
+ * without locks. Writer stores value in slot of variable and queues the
+ * slot if it is not queued already, reader applies only queued slots, so
+ * variable updated many times between refreshes is shown once with its
+ * latest value.
+ *
+ * Numeric values (last, minimum and maximum) are stored without creating
+ * any objects and formatted by reader only when they are shown. Reader
+ * may see value partially written by writer, the slot is then queued
+ * again and its complete value is applied by next drain.
+ */
+
+package agentControlSystem;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class DirtyValueBuffer {
+
+	/**
+	 * Receives changed values, called by reader.
+	 */
+	public interface Consumer {
+		void apply(int slot, final String value);
+
+		/**
+		 * @param min - minimum since previous value, NaN if value is not aggregated
+		 * @param max - maximum since previous value, NaN if value is not aggregated
+		 */
+		void apply(int slot, double last, double min, double max);
+	}
+
+	private final AtomicReferenceArray<String> values;    // null when slot holds numeric value
+	private final AtomicLongArray numbers;                // last, min and max of every slot
+	private final AtomicIntegerArray queued;
+	private final int[] dirtySlots;
+	private final int mask;
+	private final AtomicLong head;    // next slot to be applied
+	private final AtomicLong tail;    // next free place for slot
+
+	/**
+	 * @param size - number of variables
+	 */
+	public DirtyValueBuffer(int size) {
+		values = new AtomicReferenceArray<String>(size);
+		numbers = new AtomicLongArray(3 * size);
+		queued = new AtomicIntegerArray(size);
+		// Slot is queued at most once, but it may be queued again while reader applies it.
+		int capacity = Integer.highestOneBit(Math.max(2, 2 * size) - 1) << 1;
+		dirtySlots = new int[capacity];
+		mask = capacity - 1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+
+	/**
+	 * Stores new value of variable, called by writer.
+	 */
+	public void put(int slot, final String value) {
+		values.set(slot, value);
+		queue(slot);
+	}
+
+	/**
+	 * Stores new numeric value of variable, called by writer.
+	 * @param min - minimum since previous value, NaN if value is not aggregated
+	 * @param max - maximum since previous value, NaN if value is not aggregated
+	 */
+	public void put(int slot, double last, double min, double max) {
+		numbers.lazySet(3 * slot, Double.doubleToRawLongBits(last));
+		numbers.lazySet(3 * slot + 1, Double.doubleToRawLongBits(min));
+		numbers.lazySet(3 * slot + 2, Double.doubleToRawLongBits(max));
+		values.set(slot, null);
+		queue(slot);
+	}
+
+	private void queue(int slot) {
+		if (queued.compareAndSet(slot, 0, 1)) {
+			long position = tail.get();
+			dirtySlots[(int) (position & mask)] = slot;
+			tail.lazySet(position + 1);
+		}
+	}
+
+	/**
+	 * Passes all values changed since previous call to consumer, called by reader.
+	 * @return number of applied values
+	 */
+	public int drain(Consumer consumer) {
+		long position = head.get();
+		long end = tail.get();
+		for (; position < end; position++) {
+			int slot = dirtySlots[(int) (position & mask)];
+			// Flag is cleared before value is read, so value written meanwhile is queued again and not lost.
+			queued.set(slot, 0);
+			String value = values.get(slot);
+			if (value != null) {
+				consumer.apply(slot, value);
+			} else {
+				consumer.apply(slot, Double.longBitsToDouble(numbers.get(3 * slot)),
+						Double.longBitsToDouble(numbers.get(3 * slot + 1)), Double.longBitsToDouble(numbers.get(3 * slot + 2)));
+			}
+		}
+		int count = (int) (end - head.get());
+		head.lazySet(end);
+		return count;
+	}
+
+	public int size() {
+		return values.length();
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * FrameBatch
+ *
+ * Consecutive frames collected for one subscriber and sent in one INFORM,
+ * so that per-message cost of JADE (envelope, transport, serialization) is
+ * paid once per batch instead of once per frame. Unlike conflation no
+ * frame is lost, every one is sent with its time.
+ *
+ * Batch is sent when it has maxFrames frames or when its first frame waited
+ * linger milliseconds. With linger 0 batch is sent as soon as dispatcher has
+ * no more queued frames of plant, so frames are batched only when they come
+ * faster than they can be sent one by one and batching adds no delay.
+ *
+ * Text batch has content of frames separated by '\n' and their times in
+ * "batch-times" parameter, binary batch is described in BinaryPayloadEncoder.
+ * Batch is traced by its newest frame and "batch-frames" parameter holds
+ * number of frames in it.
+ *
+ * Batch is used by dispatcher thread only.
+ */
+
+package agentControlSystem;
+
+import jade.lang.acl.ACLMessage;
+
+public class FrameBatch {
+	/**
+	 * Parameters of SUBSCRIBE message, maximum number of frames in batch and time (ms) batch may wait for more frames.
+	 */
+	public static final String BATCH = "batch";
+	public static final String LINGER = "linger";
+
+	/**
+	 * Parameters of INFORM with batch.
+	 */
+	public static final String BATCH_FRAMES = "batch-frames";
+	public static final String BATCH_TIMES = "batch-times";
+
+	public static final char FRAME_SEPARATOR = '\n';
+	public static final int MAX_FRAMES = 1000;
+
+	private final int maxFrames;
+	private final long linger;
+	private final StringBuilder content;
+	private final StringBuilder times;
+	private final BinaryPayloadEncoder binaryEncoder;
+
+	private int frames;
+	private boolean keyframe;
+	private long firstAddTime;
+
+	// Trace of the newest frame, -1 sequence if not traced.
+	private long sequence = -1;
+	private long ingestTime;
+	private long ingestClock;
+
+	/**
+	 * @param maxFrames - maximum number of frames in batch
+	 * @param linger - time (ms) the first frame of batch may wait for more frames
+	 * @param binary - true if batch has binary content
+	 */
+	public FrameBatch(int maxFrames, long linger, boolean binary) {
+		this.maxFrames = Math.max(1, Math.min(maxFrames, MAX_FRAMES));
+		this.linger = Math.max(0, linger) * 1000000;
+		if (binary) {
+			content = null;
+			times = null;
+			binaryEncoder = new BinaryPayloadEncoder();
+			binaryEncoder.resetBatch();
+		} else {
+			content = new StringBuilder();
+			times = new StringBuilder();
+			binaryEncoder = null;
+		}
+	}
+
+	public boolean isBinary() {
+		return binaryEncoder != null;
+	}
+
+	/**
+	 * Adds text frame to batch.
+	 * @param frameContent - encoded values of frame, frame is not added if it is empty
+	 * @param frameTime - time of frame (ms)
+	 * @param keyframe - true if frame is a keyframe
+	 * @param sequence - number of frame, -1 if frame is not traced
+	 * @param ingestTime - System.nanoTime() when reading of frame started
+	 */
+	public void add(final String frameContent, long frameTime, boolean keyframe, long sequence, long ingestTime) {
+		if (frameContent.isEmpty()) {
+			return;
+		}
+		if (frames > 0) {
+			content.append(FRAME_SEPARATOR);
+			times.append(',');
+		}
+		content.append(frameContent);
+		times.append(frameTime);
+		added(frameTime, keyframe, sequence, ingestTime);
+	}
+
+	/**
+	 * Adds frame to binary batch, index of variable is its position in selection.
+	 * @param values - values of frame ordered by slot
+	 * @param slots - ascending slots of selected variables, null for all variables
+	 * @param changes - variables changed in delta frame, null if every variable should be sent
+	 * @param frameTime - time of frame (ms)
+	 * @param keyframe - true if frame is a keyframe
+	 * @param sequence - number of frame, -1 if frame is not traced
+	 * @param ingestTime - System.nanoTime() when reading of frame started
+	 */
+	public void add(double[] values, int[] slots, ChangeDetector changes, long frameTime, boolean keyframe,
+			long sequence, long ingestTime) {
+		if (binaryEncoder.addFrame(frameTime, values, slots, changes)) {
+			added(frameTime, keyframe, sequence, ingestTime);
+		}
+	}
+
+	private void added(long frameTime, boolean keyframe, long sequence, long ingestTime) {
+		if (frames == 0) {
+			firstAddTime = System.nanoTime();
+		}
+		frames++;
+		this.keyframe |= keyframe;
+		this.sequence = sequence;
+		this.ingestTime = ingestTime;
+		this.ingestClock = frameTime;
+	}
+
+	public boolean isEmpty() {
+		return frames == 0;
+	}
+
+	public boolean isFull() {
+		return frames >= maxFrames;
+	}
+
+	/**
+	 * @return System.nanoTime() when batch should be sent at the latest, meaningful only if batch is not empty
+	 */
+	public long getDeadline() {
+		return firstAddTime + linger;
+	}
+
+	/**
+	 * Creates INFORM with collected frames and clears batch.
+	 * @return message, null if batch is empty
+	 */
+	public ACLMessage flush() {
+		if (frames == 0) {
+			return null;
+		}
+		ACLMessage batchMessage = new ACLMessage(ACLMessage.INFORM);
+		if (binaryEncoder != null) {
+			batchMessage.setByteSequenceContent(binaryEncoder.toByteArray());
+			binaryEncoder.resetBatch();
+		} else {
+			batchMessage.setContent(content.toString());
+			batchMessage.addUserDefinedParameter(BATCH_TIMES, times.toString());
+			content.setLength(0);
+			times.setLength(0);
+		}
+		batchMessage.addUserDefinedParameter(ChangeDetector.FRAME_TYPE,
+				keyframe ? ChangeDetector.KEYFRAME : ChangeDetector.DELTA_FRAME);
+		batchMessage.addUserDefinedParameter(BATCH_FRAMES, String.valueOf(frames));
+		if (sequence >= 0) {
+			LatencyTrace.stamp(batchMessage, sequence, ingestTime, ingestClock);
+		}
+		frames = 0;
+		keyframe = false;
+		sequence = -1;
+		return batchMessage;
+	}
+}
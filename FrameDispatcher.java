@@ -0,0 +1,253 @@
+/**
+ * FrameDispatcher
+ *
+ * Sends frame of plant values to subscribers. Change detection and
+ * encoding are done once per frame: subscribers of all variables share
+ * one message, subscribers with own selection get their own content and
+ * rate-limited subscribers only collect frame in their conflating buffer.
+ * Subscribers which negotiated binary encoding get binary content instead
+ * of text. Frames for batched subscribers are added to their FrameBatch,
+ * which is sent when full or by flushBatches().
+ * Traced frame is sent with its LatencyTrace.
+ * In delta publishing mode subscriber which requested keyframe gets all
+ * its values with the next dispatched frame (or from the last dispatched
+ * frame, see sendRequestedKeyframes()), so it never gets keyframe older
+ * than deltas sent before.
+ *
+ * Dispatcher reuses its buffers, so single instance should be used by one
+ * thread only.
+ */
+
+package agentControlSystem;
+
+import jade.lang.acl.ACLMessage;
+
+public class FrameDispatcher {
+	private final String[] varNames;
+	private final TextPayloadEncoder encoder;
+	private final BinaryPayloadEncoder binaryEncoder;
+	private final ChangeDetector changeDetector;
+
+	// Values of the last dispatched frame, kept in delta publishing mode only.
+	private final double[] lastValues;
+	private long lastFrameTime;
+	private boolean frameDispatched;
+
+	/**
+	 * @param varNames - names of variables ordered by slot
+	 * @param precision - number of decimal places of values
+	 * @param changeDetector - detector used in delta publishing mode, null if every frame is sent as keyframe
+	 */
+	public FrameDispatcher(String[] varNames, int precision, ChangeDetector changeDetector) {
+		this.varNames = varNames;
+		this.encoder = new TextPayloadEncoder(precision);
+		this.binaryEncoder = new BinaryPayloadEncoder();
+		this.changeDetector = changeDetector;
+		this.lastValues = changeDetector != null ? new double[varNames.length] : null;
+	}
+
+	/**
+	 * Sends frame to subscribers.
+	 * @param values - values of frame ordered by slot
+	 * @param frameTime - time of frame (ms)
+	 * @param subscribers - current subscribers
+	 */
+	public void dispatch(double[] values, long frameTime, Iterable<PlantSubscriber> subscribers) {
+		dispatch(values, frameTime, -1, 0, subscribers);
+	}
+
+	/**
+	 * Sends traced frame to subscribers.
+	 * @param values - values of frame ordered by slot
+	 * @param frameTime - time of frame (ms)
+	 * @param sequence - number of frame, -1 if frame is not traced
+	 * @param ingestTime - System.nanoTime() when reading of frame started
+	 * @param subscribers - current subscribers
+	 */
+	public void dispatch(double[] values, long frameTime, long sequence, long ingestTime,
+			Iterable<PlantSubscriber> subscribers) {
+		boolean keyframe = true;
+		if (changeDetector != null) {
+			keyframe = changeDetector.detectChanges(values, frameTime);
+			System.arraycopy(values, 0, lastValues, 0, lastValues.length);
+			lastFrameTime = frameTime;
+			frameDispatched = true;
+			if (changeDetector.getChangedCount() == 0) {
+				// Nothing moved past deadband, only requested keyframes are sent.
+				sendRequestedKeyframes(subscribers);
+				return;
+			}
+		}
+		String frameType = keyframe ? ChangeDetector.KEYFRAME : ChangeDetector.DELTA_FRAME;
+		ChangeDetector changes = keyframe ? null : changeDetector;
+
+		// Content for subscribers of all variables is the same so it is encoded once.
+		String fullContent = null;
+		ACLMessage fullMessage = null;
+		ACLMessage fullBinaryMessage = null;
+		for (PlantSubscriber subscriber : subscribers) {
+			if (subscriber.takeKeyframeRequest() && !keyframe) {
+				sendKeyframe(subscriber, values, frameTime, sequence, ingestTime);
+				continue;
+			}
+			ConflatingBuffer conflatingBuffer = subscriber.getConflatingBuffer();
+			if (conflatingBuffer != null) {
+				// Rate-limited subscriber, frame is only collected here and sent by its publisher.
+				conflatingBuffer.add(values, changes, keyframe, sequence, ingestTime, frameTime);
+				continue;
+			}
+			FrameBatch frameBatch = subscriber.getFrameBatch();
+			if (frameBatch != null) {
+				if (frameBatch.isBinary()) {
+					frameBatch.add(values, subscriber.getSlots(), changes, frameTime, keyframe, sequence, ingestTime);
+				} else if (subscriber.selectsAll()) {
+					if (fullContent == null) {
+						fullContent = encoder.encode(varNames, values, null, changes);
+					}
+					frameBatch.add(fullContent, frameTime, keyframe, sequence, ingestTime);
+				} else {
+					frameBatch.add(encoder.encode(varNames, values, subscriber.getSlots(), changes), frameTime, keyframe,
+							sequence, ingestTime);
+				}
+				if (frameBatch.isFull()) {
+					subscriber.notify(frameBatch.flush());
+				}
+				continue;
+			}
+			ACLMessage subscriptionMessage;
+			if (subscriber.isBinaryEncoding()) {
+				if (subscriber.selectsAll()) {
+					if (fullBinaryMessage == null) {
+						fullBinaryMessage = createUpdateMessage(binaryEncoder.encode(values, null, changes), frameType);
+					}
+					subscriptionMessage = fullBinaryMessage;
+				} else {
+					subscriptionMessage = createUpdateMessage(
+							binaryEncoder.encode(values, subscriber.getSlots(), changes), frameType);
+				}
+			} else if (subscriber.selectsAll()) {
+				if (fullMessage == null) {
+					if (fullContent == null) {
+						fullContent = encoder.encode(varNames, values, null, changes);
+					}
+					fullMessage = createUpdateMessage(fullContent, frameType);
+				}
+				subscriptionMessage = fullMessage;
+			} else {
+				subscriptionMessage = createUpdateMessage(
+						encoder.encode(varNames, values, subscriber.getSlots(), changes), frameType);
+			}
+			if (subscriptionMessage != null) {
+				if (sequence >= 0 && subscriptionMessage.getUserDefinedParameter(LatencyTrace.SEQUENCE) == null) {
+					LatencyTrace.stamp(subscriptionMessage, sequence, ingestTime, frameTime);
+				}
+				subscriber.notify(subscriptionMessage);
+			}
+		}
+	}
+
+	/**
+	 * Sends keyframe with values of the last dispatched frame to subscribers which requested it.
+	 * @param subscribers - current subscribers
+	 * @return false if no frame was dispatched yet, requests are then left for the first frame
+	 */
+	public boolean sendRequestedKeyframes(Iterable<PlantSubscriber> subscribers) {
+		if (!frameDispatched) {
+			return false;
+		}
+		for (PlantSubscriber subscriber : subscribers) {
+			if (subscriber.takeKeyframeRequest()) {
+				sendKeyframe(subscriber, lastValues, lastFrameTime, -1, 0);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends all values selected by subscriber the same way as its regular updates.
+	 */
+	private void sendKeyframe(PlantSubscriber subscriber, double[] values, long frameTime, long sequence,
+			long ingestTime) {
+		ConflatingBuffer conflatingBuffer = subscriber.getConflatingBuffer();
+		if (conflatingBuffer != null) {
+			conflatingBuffer.add(values, null, true, sequence, ingestTime, frameTime);
+			return;
+		}
+		FrameBatch frameBatch = subscriber.getFrameBatch();
+		if (frameBatch != null) {
+			if (frameBatch.isBinary()) {
+				frameBatch.add(values, subscriber.getSlots(), null, frameTime, true, sequence, ingestTime);
+			} else {
+				frameBatch.add(encoder.encode(varNames, values, subscriber.getSlots(), null), frameTime, true, sequence,
+						ingestTime);
+			}
+			if (frameBatch.isFull()) {
+				subscriber.notify(frameBatch.flush());
+			}
+			return;
+		}
+		ACLMessage keyframeMessage;
+		if (subscriber.isBinaryEncoding()) {
+			keyframeMessage = createUpdateMessage(binaryEncoder.encode(values, subscriber.getSlots(), null),
+					ChangeDetector.KEYFRAME);
+		} else {
+			keyframeMessage = createUpdateMessage(encoder.encode(varNames, values, subscriber.getSlots(), null),
+					ChangeDetector.KEYFRAME);
+		}
+		if (keyframeMessage != null) {
+			if (sequence >= 0) {
+				LatencyTrace.stamp(keyframeMessage, sequence, ingestTime, frameTime);
+			}
+			subscriber.notify(keyframeMessage);
+		}
+	}
+
+	/**
+	 * Sends batches of subscribers which should not wait any longer.
+	 * @param subscribers - current subscribers
+	 * @param now - current System.nanoTime()
+	 * @return System.nanoTime() when the next of remaining batches should be sent, -1 if no batch is waiting
+	 */
+	public long flushBatches(Iterable<PlantSubscriber> subscribers, long now) {
+		long nextDeadline = -1;
+		for (PlantSubscriber subscriber : subscribers) {
+			FrameBatch frameBatch = subscriber.getFrameBatch();
+			if (frameBatch == null || frameBatch.isEmpty()) {
+				continue;
+			}
+			long deadline = frameBatch.getDeadline();
+			if (deadline - now <= 0) {
+				subscriber.notify(frameBatch.flush());
+			} else if (nextDeadline == -1 || deadline - nextDeadline < 0) {
+				nextDeadline = deadline;
+			}
+		}
+		return nextDeadline;
+	}
+
+	/**
+	 * Creates INFORM with values update, null if there are no values to send.
+	 */
+	private static ACLMessage createUpdateMessage(final String content, final String frameType) {
+		if (content.isEmpty()) {
+			return null;
+		}
+		ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.INFORM);
+		subscriptionMessage.setContent(content);
+		subscriptionMessage.addUserDefinedParameter(ChangeDetector.FRAME_TYPE, frameType);
+		return subscriptionMessage;
+	}
+
+	/**
+	 * Creates INFORM with binary values update, null if there are no values to send.
+	 */
+	private static ACLMessage createUpdateMessage(byte[] content, final String frameType) {
+		if (content == null) {
+			return null;
+		}
+		ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.INFORM);
+		subscriptionMessage.setByteSequenceContent(content);
+		subscriptionMessage.addUserDefinedParameter(ChangeDetector.FRAME_TYPE, frameType);
+		return subscriptionMessage;
+	}
+}
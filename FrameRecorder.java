@@ -0,0 +1,291 @@
+/**
+ * FrameRecorder
+ *
+ * Append-only recording of plant frames in memory-mapped segment files.
+ * Segment is a file of fixed size named <name>-<number>.rec, starting
+ * with header holding variable names, followed by fixed-size records
+ * (timestamp and value of every variable). When segment is full, next one
+ * is created and oldest segments above maxSegments are deleted.
+ *
+ * Segment layout (big-endian):
+ *   int magic, int version, int headerSize, int varCount,
+ *   long recordCount, long creationTime,
+ *   varCount times: short length + UTF-8 name,
+ *   padding to 8 bytes,
+ *   records: long timestamp, varCount doubles.
+ * recordCount is updated after every record, so it always points past the
+ * last complete record, also after crash of agent.
+ *
+ * Existing segments are indexed from their headers when recorder is
+ * created, so restarted agent continues numbering and keeps retention.
+ */
+
+package agentControlSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+public class FrameRecorder {
+	private static final Logger LOGGER = Logger.getLogger(FrameRecorder.class.getName());
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public static final int DEFAULT_MAX_SEGMENTS = 16;
+	public static final String SEGMENT_EXTENSION = ".rec";
+
+	private static final int MAGIC = 0x41435352; // "ACSR"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE_OFFSET = 8;
+	private static final int VAR_COUNT_OFFSET = 12;
+	private static final int RECORD_COUNT_OFFSET = 16;
+	private static final int CREATION_TIME_OFFSET = 24;
+	private static final int NAMES_OFFSET = 32;
+
+	private final File directory;
+	private final String name;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final List<Segment> segments;
+
+	// Segment being written.
+	private MappedByteBuffer segmentBuffer;
+	private String[] segmentNames;
+	private int headerSize;
+	private int recordSize;
+	private long recordCapacity;
+	private long recordCount;
+
+	/**
+	 * Description of segment file read from its header.
+	 */
+	public static class Segment {
+		private final File file;
+		private final long number;
+		private final String[] names;
+		private final int headerSize;
+		private long recordCount;
+		private long firstTimestamp;
+		private long lastTimestamp;
+
+		Segment(File file, long number, String[] names, int headerSize) {
+			this.file = file;
+			this.number = number;
+			this.names = names;
+			this.headerSize = headerSize;
+		}
+
+		public File getFile() { return file; }
+		public long getNumber() { return number; }
+		public String[] getNames() { return names; }
+		public int getHeaderSize() { return headerSize; }
+		public int getRecordSize() { return 8 * (names.length + 1); }
+		public long getRecordCount() { return recordCount; }
+		public long getFirstTimestamp() { return firstTimestamp; }
+		public long getLastTimestamp() { return lastTimestamp; }
+	}
+
+	/**
+	 * Creates recorder and indexes segments already present in directory.
+	 * @param directory - directory of segment files, created if it does not exist
+	 * @param name - name of recording (e.g. agent's name), prefix of segment files
+	 * @param segmentSize - size of segment file (bytes)
+	 * @param maxSegments - number of segments kept, older ones are deleted
+	 * @throws IOException when directory cannot be created
+	 */
+	public FrameRecorder(File directory, final String name, int segmentSize, int maxSegments) throws IOException {
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		this.maxSegments = Math.max(1, maxSegments);
+		Files.createDirectories(directory.toPath());
+		segments = new ArrayList<Segment>(indexSegments(directory, name));
+	}
+
+	/**
+	 * Reads headers of all segments of recording, segments which cannot be read are skipped.
+	 * @param directory - directory of segment files
+	 * @param name - name of recording
+	 * @return segments ordered by number (and so by time)
+	 */
+	public static List<Segment> indexSegments(File directory, final String name) {
+		List<Segment> result = new ArrayList<Segment>();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return result;
+		}
+		for (File file : files) {
+			String fileName = file.getName();
+			if (!fileName.startsWith(name + "-") || !fileName.endsWith(SEGMENT_EXTENSION)) {
+				continue;
+			}
+			try {
+				long number = Long.parseLong(fileName.substring(name.length() + 1,
+						fileName.length() - SEGMENT_EXTENSION.length()));
+				result.add(readSegment(file, number));
+			} catch (NumberFormatException e) {
+				// Other recording with name starting with this one.
+			} catch (IOException | RuntimeException e) {
+				// Header of segment may be cut off by crash, restart must not fail because of it.
+				LOGGER.warning("Recording segment " + file + " cannot be read, it is skipped");
+			}
+		}
+		Collections.sort(result, new Comparator<Segment>() {
+			public int compare(Segment s1, Segment s2) {
+				return Long.compare(s1.number, s2.number);
+			}
+		});
+		return result;
+	}
+
+	private static Segment readSegment(File file, long number) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer fixedHeader = ByteBuffer.allocate(NAMES_OFFSET);
+			channel.read(fixedHeader, 0);
+			if (fixedHeader.getInt(0) != MAGIC || fixedHeader.getInt(4) != VERSION) {
+				throw new IOException("Not a recording segment");
+			}
+			int headerSize = fixedHeader.getInt(HEADER_SIZE_OFFSET);
+			int varCount = fixedHeader.getInt(VAR_COUNT_OFFSET);
+			// Sizes are checked before anything is allocated, header may be incomplete after crash.
+			if (headerSize < NAMES_OFFSET || headerSize > channel.size()) {
+				throw new IOException("Incorrect header size " + headerSize);
+			}
+			if (varCount < 0 || varCount > (headerSize - NAMES_OFFSET) / 2) {
+				throw new IOException("Incorrect number of variables " + varCount);
+			}
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			channel.read(header, 0);
+			header.position(NAMES_OFFSET);
+			String[] names = new String[varCount];
+			for (int i = 0; i < varCount; i++) {
+				int nameLength = header.getShort();
+				if (nameLength < 0 || nameLength > header.remaining()) {
+					throw new IOException("Incorrect length of variable name " + nameLength);
+				}
+				byte[] nameBytes = new byte[nameLength];
+				header.get(nameBytes);
+				names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+			}
+			Segment segment = new Segment(file, number, names, headerSize);
+			// Records above file size were never written completely.
+			long recordCount = Math.max(0, Math.min(fixedHeader.getLong(RECORD_COUNT_OFFSET),
+					(channel.size() - headerSize) / segment.getRecordSize()));
+			if (recordCount > 0) {
+				ByteBuffer timestamp = ByteBuffer.allocate(8);
+				channel.read(timestamp, headerSize);
+				segment.firstTimestamp = timestamp.getLong(0);
+				timestamp.clear();
+				channel.read(timestamp, headerSize + (recordCount - 1) * segment.getRecordSize());
+				segment.lastTimestamp = timestamp.getLong(0);
+			}
+			segment.recordCount = recordCount;
+			return segment;
+		}
+	}
+
+	/**
+	 * Appends frame to recording, called by single recording thread.
+	 * @param names - names of variables ordered by slot, new segment is started when they change
+	 * @param values - values ordered by slot
+	 * @param timestamp - time of frame (ms)
+	 * @throws IOException when segment cannot be created
+	 */
+	public void append(String[] names, double[] values, long timestamp) throws IOException {
+		if (segmentBuffer == null || recordCount == recordCapacity
+				|| (names != segmentNames && !Arrays.equals(names, segmentNames))) {
+			startSegment(names);
+		}
+		int position = headerSize + (int) (recordCount * recordSize);
+		segmentBuffer.putLong(position, timestamp);
+		for (int i = 0; i < values.length; i++) {
+			segmentBuffer.putDouble(position + 8 * (i + 1), values[i]);
+		}
+		recordCount++;
+		segmentBuffer.putLong(RECORD_COUNT_OFFSET, recordCount);
+
+		Segment current = segments.get(segments.size() - 1);
+		if (current.recordCount == 0) {
+			current.firstTimestamp = timestamp;
+		}
+		current.lastTimestamp = timestamp;
+		current.recordCount = recordCount;
+	}
+
+	private void startSegment(String[] names) throws IOException {
+		long number = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).number + 1;
+		File file = new File(directory, String.format("%s-%012d%s", name, number, SEGMENT_EXTENSION));
+		while (file.exists()) {
+			// Segment skipped by indexing (e.g. damaged by crash) is not overwritten.
+			number++;
+			file = new File(directory, String.format("%s-%012d%s", name, number, SEGMENT_EXTENSION));
+		}
+
+		int namesSize = 0;
+		byte[][] nameBytes = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			namesSize += 2 + nameBytes[i].length;
+		}
+		headerSize = (NAMES_OFFSET + namesSize + 7) & ~7;
+		recordSize = 8 * (names.length + 1);
+		// Segment holds at least a few records, even if segmentSize is too small for them.
+		long fileSize = Math.max(segmentSize, headerSize + 16L * recordSize);
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IOException("Record of " + names.length + " variables does not fit in segment");
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			segmentBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+		}
+		segmentBuffer.putInt(0, MAGIC);
+		segmentBuffer.putInt(4, VERSION);
+		segmentBuffer.putInt(HEADER_SIZE_OFFSET, headerSize);
+		segmentBuffer.putInt(VAR_COUNT_OFFSET, names.length);
+		segmentBuffer.putLong(RECORD_COUNT_OFFSET, 0);
+		segmentBuffer.putLong(CREATION_TIME_OFFSET, System.currentTimeMillis());
+		segmentBuffer.position(NAMES_OFFSET);
+		for (byte[] bytes : nameBytes) {
+			segmentBuffer.putShort((short) bytes.length);
+			segmentBuffer.put(bytes);
+		}
+		segmentNames = names;
+		recordCapacity = (fileSize - headerSize) / recordSize;
+		recordCount = 0;
+		segments.add(new Segment(file, number, segmentNames, headerSize));
+
+		while (segments.size() > maxSegments) {
+			Segment oldest = segments.remove(0);
+			if (!oldest.file.delete()) {
+				LOGGER.warning("Recording segment " + oldest.file + " cannot be deleted");
+			}
+		}
+	}
+
+	/**
+	 * @return segments of recording, including the one being written; called by recording thread only
+	 */
+	public List<Segment> getSegments() {
+		return Collections.unmodifiableList(segments);
+	}
+
+	/**
+	 * Writes segment being written to disk and stops using it.
+	 */
+	public void close() {
+		if (segmentBuffer != null) {
+			segmentBuffer.force();
+			segmentBuffer = null;
+		}
+	}
+}
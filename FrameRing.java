@@ -0,0 +1,176 @@
+/**
+ * FrameRing
+ *
+ * Bounded lock-free queue of frame snapshots passed from thread reading
+ * plant data (single producer) to dispatcher sending them to subscribers
+ * (single consumer). Slots are preallocated and reused, producer fills
+ * slot in place and never waits: when ring is full frame is dropped and
+ * counted, so socket reading never blocks on subscribers.
+ */
+
+package agentControlSystem;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class FrameRing {
+
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Snapshot of one frame. Producer must not modify frame after publish(),
+	 * consumer must not use it after release().
+	 */
+	public static class Frame {
+		private double[] values;
+		private long timestamp;
+		private long sequence;
+		private long ingestTime;
+
+		/**
+		 * @return values of frame ordered by slot
+		 */
+		public double[] getValues() { return values; }
+		public long getTimestamp() { return timestamp; }
+		public long getSequence() { return sequence; }
+
+		/**
+		 * @return System.nanoTime() when reading of frame started, see LatencyTrace
+		 */
+		public long getIngestTime() { return ingestTime; }
+	}
+
+	private final Frame[] frames;
+	private final int mask;
+	private final AtomicLong head;    // next frame to be consumed
+	private final AtomicLong tail;    // next frame to be published
+	private final AtomicLong droppedFrames;
+	private long nextSequence;        // producer only
+	private volatile Thread waitingConsumer;
+
+	/**
+	 * @param capacity - maximum number of queued frames, rounded up to power of two
+	 */
+	public FrameRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		frames = new Frame[size];
+		for (int i = 0; i < size; i++) {
+			frames[i] = new Frame();
+		}
+		mask = size - 1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+		droppedFrames = new AtomicLong();
+	}
+
+	/**
+	 * Claims slot for next frame, called by producer.
+	 * @param varCount - number of values in frame
+	 * @param timestamp - time of frame (ms)
+	 * @return frame to fill, null if ring is full and frame has to be dropped
+	 */
+	public Frame claim(int varCount, long timestamp) {
+		return claim(varCount, timestamp, 0);
+	}
+
+	/**
+	 * Claims slot for next frame, called by producer.
+	 * @param varCount - number of values in frame
+	 * @param timestamp - time of frame (ms)
+	 * @param ingestTime - System.nanoTime() when reading of frame started
+	 * @return frame to fill, null if ring is full and frame has to be dropped
+	 */
+	public Frame claim(int varCount, long timestamp, long ingestTime) {
+		long sequence = nextSequence++;
+		long position = tail.get();
+		if (position - head.get() > mask) {
+			droppedFrames.incrementAndGet();
+			return null;
+		}
+		Frame frame = frames[(int) (position & mask)];
+		if (frame.values == null || frame.values.length != varCount) {
+			frame.values = new double[varCount];
+		}
+		frame.timestamp = timestamp;
+		frame.sequence = sequence;
+		frame.ingestTime = ingestTime;
+		return frame;
+	}
+
+	/**
+	 * Makes claimed frame visible to consumer.
+	 */
+	public void publish() {
+		tail.set(tail.get() + 1);
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Waits for next frame, called by consumer.
+	 * @param timeout - maximum time to wait (ms)
+	 * @return oldest published frame, null if none arrived in time
+	 */
+	public Frame take(long timeout) {
+		long position = head.get();
+		if (position == tail.get()) {
+			waitingConsumer = Thread.currentThread();
+			// Checking again after announcing, so publish() between checks is not missed.
+			if (position == tail.get()) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeout));
+			}
+			waitingConsumer = null;
+			if (position == tail.get()) {
+				return null;
+			}
+		}
+		return frames[(int) (position & mask)];
+	}
+
+	/**
+	 * Returns next frame without waiting, called by consumer serving many rings.
+	 * @return oldest published frame, null if there is none
+	 */
+	public Frame poll() {
+		long position = head.get();
+		return position == tail.get() ? null : frames[(int) (position & mask)];
+	}
+
+	/**
+	 * Returns frame obtained by take() or poll() back to producer.
+	 */
+	public void release() {
+		head.lazySet(head.get() + 1);
+	}
+
+	/**
+	 * Wakes consumer waiting in take(), e.g. when it should stop.
+	 */
+	public void wakeConsumer() {
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * @return number of frames waiting for consumer
+	 */
+	public int getDepth() {
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * @return number of frames dropped because ring was full
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	public int getCapacity() {
+		return frames.length;
+	}
+}
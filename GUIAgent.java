@@ -2,6 +2,23 @@
  * GUIAgent
  * 
  * That agent presents data gathered by agent system through GUI
+ * 
+ * GUI cannot show more than a few updates per second, so by default
+ * connector is asked to deliver at most maxRate=10 updates per second
+ * (maxRate=0 disables limit, aggregate=minmaxlast shows also minimum
+ * and maximum since previous update). Without limit, batch=<frames> and
+ * linger=<ms> let connector send consecutive frames together in one
+ * message (see FrameBatch), all of them are added to trends. Values are
+ * redrawn at most refreshRate=30 times per second. Trend of selected
+ * variable keeps last trendHistory=36000 samples.
+ * 
+ * Connector agents are not searched in DF for every connection, agent
+ * subscribes to DF once and keeps list of available connectors current,
+ * connections waiting for connector continue as soon as one registers.
+ * 
+ * Connector proposals carry their load, connector is chosen by policy
+ * given by argument selectionPolicy=least-loaded (default), local or
+ * first (see ConnectorSelectionPolicy).
  */
 
 package agentControlSystem;
@@ -20,12 +37,24 @@ import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.proto.ContractNetInitiator;
 import jade.proto.SubscriptionInitiator;
 
+import javax.management.ObjectName;
+
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class GUIAgent extends Agent {
+	private static final Logger LOGGER = Logger.getLogger(GUIAgent.class.getName());
 	
 	// States of connection
 	private static final String STARTING_CONNECTION = "Starting_connection";
@@ -35,6 +64,7 @@ public class GUIAgent extends Agent {
 	private static final String PLANT_DISCONNECTED = "Plant_disconnected";
 	
 	private static final String SUBSCRIPTION_ID = "Subscription_id";
+	private static final String VARIABLE_SELECTION = "Variable_selection";
 	
 	// One GUI is used for establishing connections with plants, and another for showing results
 	private TCPClientConnectionGui connectionGui;
@@ -43,21 +73,99 @@ public class GUIAgent extends Agent {
 	private boolean resultsGuiActive;
 	
 	private HashMap<String, String> connectionStates;	
+	
+	// Connector agents registered in DF, kept current by DF subscription
+	private Set<AID> connectorDirectory;
 	private AID[] connectionAgents;
+	private UpdateConnectorDirectory directoryUpdater;
+	
+	// Connections waiting for connector agent to appear
+	private List<Behaviour> waitingForConnectors;
+	
+	// Delivery parameters requested from connector agents
+	private double maxRate;
+	private String aggregate;
+	private String encoding;
+	private int batch;
+	private long linger;
+	
+	// Choosing connector agent from proposals
+	private ConnectorSelectionPolicy selectionPolicy;
+	
+	// Names of agent's MBeans, null if they were not registered
+	private ObjectName guiName;
+	private ObjectName updateLatencyName;
+	private ObjectName deliveryLatencyName;
+	private ObjectName endToEndLatencyName;
+	
+	// Frames of traced updates that were not received (dropped, conflated or unchanged)
+	private LongAdder skippedFrames;
+	
+	// Alarm watching end-to-end latency, null if latency budget is not set
+	private LatencyBudgetAlarm latencyAlarm;
 	
 	/* Agent methods */
 	protected void setup() {
 		
 		connectionStates = new HashMap<String, String>();
+		connectorDirectory = new LinkedHashSet<AID>();
+		connectionAgents = new AID[0];
+		waitingForConnectors = new ArrayList<Behaviour>();
+		skippedFrames = new LongAdder();
+		AgentArguments arguments = new AgentArguments(getArguments());
+		maxRate = arguments.getDouble(PlantSubscriber.MAX_RATE, 10);
+		aggregate = arguments.getString(ConflatingBuffer.AGGREGATE, ConflatingBuffer.AGGREGATE_LAST);
+		// Connectors not supporting binary encoding ignore it and send text.
+		encoding = arguments.getString(BinaryPayloadEncoder.ENCODING, BinaryPayloadEncoder.ENCODING_BINARY);
+		batch = arguments.getInt(FrameBatch.BATCH, 1);
+		linger = arguments.getLong(FrameBatch.LINGER, 0);
+		selectionPolicy = ConnectorSelectionPolicy.forName(arguments.getString("selectionPolicy",
+				ConnectorSelectionPolicy.LEAST_LOADED), here().getName());
 		//only gui windows need to be created in setup
-		resultsGui = new ResultsGui(this);
+		resultsGui = new ResultsGui(this, arguments.getInt("refreshRate", 30),
+				arguments.getInt("trendHistory", TrendBuffer.DEFAULT_HISTORY_CAPACITY));
 		resultsGuiActive = false;
 		connectionGui = new TCPClientConnectionGui(this);
 		connectionGui.showGui();
 		connectionGuiActive = true;
+		
+		// DF sends current connector agents and then every change
+		DFAgentDescription template = new DFAgentDescription();
+		ServiceDescription sd = new ServiceDescription();
+		sd.setType("plant_connection");
+		template.addServices(sd);
+		directoryUpdater = new UpdateConnectorDirectory(this,
+				DFService.createSubscriptionMessage(this, getDefaultDF(), template, null));
+		addBehaviour(directoryUpdater);
+		
+		String name = "type=Gui,name=" + ObjectName.quote(getAID().getName());
+		guiName = ManagementSupport.register(name, new GuiStatistics(), GuiMBean.class);
+		updateLatencyName = ManagementSupport.register(name + ",histogram=updateLatency", resultsGui.getUpdateLatency(),
+				LatencyHistogramMBean.class);
+		deliveryLatencyName = ManagementSupport.register(name + ",histogram=deliveryLatency",
+				resultsGui.getDeliveryLatency(), LatencyHistogramMBean.class);
+		endToEndLatencyName = ManagementSupport.register(name + ",histogram=endToEndLatency",
+				resultsGui.getEndToEndLatency(), LatencyHistogramMBean.class);
+		
+		// Budget of p99 of end-to-end latency (ms), 0 disables alarm
+		long latencyBudget = arguments.getLong("latencyBudget", 0);
+		if (latencyBudget > 0) {
+			latencyAlarm = new LatencyBudgetAlarm(getLocalName() + " end-to-end latency", resultsGui.getEndToEndLatency(),
+					TimeUnit.MILLISECONDS.toNanos(latencyBudget));
+			addBehaviour(new TickerBehaviour(this, Math.max(100, arguments.getLong("latencyBudgetPeriod", 5000))) {
+				protected void onTick() {
+					latencyAlarm.check();
+				}
+			});
+		}
 	}
 	
 	protected void takeDown() {
+		ManagementSupport.unregister(guiName);
+		ManagementSupport.unregister(updateLatencyName);
+		ManagementSupport.unregister(deliveryLatencyName);
+		ManagementSupport.unregister(endToEndLatencyName);
+		directoryUpdater.cancel(getDefaultDF(), true);
 		resultsGui.dispose();
 		connectionGui.dispose();
 	}
@@ -68,8 +176,9 @@ public class GUIAgent extends Agent {
 	 * Method invoked by connection GUI to connect to server.
 	 * @param IP - server's IP
 	 * @param port - server's port
+	 * @param selection - variables that should be shown
 	 */
-	public void monitorPlant(final String IP, int port) {
+	public void monitorPlant(final String IP, int port, final VariableSelection selection) {
 		addBehaviour(new OneShotBehaviour(this) {
 			public void action() {
 				try {
@@ -78,7 +187,7 @@ public class GUIAgent extends Agent {
 					if (connectionStates.containsKey(convID) == false) {
 						connectionStates.put(convID, STARTING_CONNECTION);
 						// Creating behaviour that wii fetch data from selected plant.
-						myAgent.addBehaviour(new MonitorPlantBehaviour(myAgent, IP, port, convID));
+						myAgent.addBehaviour(new MonitorPlantBehaviour(myAgent, IP, port, convID, selection));
 					} else {
 						connectionGui.printConnectionError("Connection to that plant has already begun.");
 					}	
@@ -95,7 +204,7 @@ public class GUIAgent extends Agent {
 	public void handleConnectionGuiClosing() {
 		addBehaviour(new OneShotBehaviour(this) {
 			public void action() {
-				System.out.println(myAgent.getAID().getName() + " - Connection GUI closed");
+				LOGGER.info(myAgent.getAID().getName() + " - Connection GUI closed");
 				connectionGuiActive = false;
 				if (resultsGuiActive) {
 					resultsGui.showInfoDialog("Connection GUI closed, cannot establish new connections.");			
@@ -119,7 +228,7 @@ public class GUIAgent extends Agent {
 		// be active agent is going to be deleted.
 		addBehaviour(new OneShotBehaviour(this) {
 			public void action() {
-				System.out.println(myAgent.getAID().getName() + " - Result GUI closed");
+				LOGGER.info(myAgent.getAID().getName() + " - Result GUI closed");
 				resultsGuiActive = false;
 				if (!connectionStates.isEmpty()) {
 					for (Map.Entry<String, String> entry : connectionStates.entrySet()) {
@@ -141,7 +250,7 @@ public class GUIAgent extends Agent {
 		
 		addBehaviour(new OneShotBehaviour(this) {
 			public void action() {
-				System.out.println(myAgent.getAID().getName() + " - Stop command for monitoring " + connectionID + " detected");
+				LOGGER.info(myAgent.getAID().getName() + " - Stop command for monitoring " + connectionID + " detected");
 				connectionStates.replace(connectionID, CONNECTION_STOPPED_BY_USER);
 			}
 		});		
@@ -159,13 +268,15 @@ public class GUIAgent extends Agent {
 		private static final String HANDLE_CLOSING_CONNECTION = "Handle_closing_connection";
 		
 		
-		public MonitorPlantBehaviour (Agent a, final String IP, int port, final String sub_ID) {
+		public MonitorPlantBehaviour (Agent a, final String IP, int port, final String sub_ID,
+				final VariableSelection selection) {
 			super(a);
 			
 			DataStore ds = getDataStore();
 			ds.put(ConnectionInitiator.IP_NUM, IP);
 			ds.put(ConnectionInitiator.PORT_NUM, String.valueOf(port));
 			ds.put(SUBSCRIPTION_ID, sub_ID);
+			ds.put(VARIABLE_SELECTION, selection);
 			
 			// Registering all state transitions
 			registerTransition(CHECK_CONNECTION_AGENTS, REPEAT_CHECK_CONNECTION_AGENTS, 0);
@@ -205,34 +316,105 @@ public class GUIAgent extends Agent {
 		}
 	}
 	
-	private class ConnectionAgentsChecker extends OneShotBehaviour {
+	/**
+	 * Keeps list of connector agents current, DF notifies about every registered, modified
+	 * and deregistered connector. Connections waiting for connector are woken when one appears.
+	 */
+	private class UpdateConnectorDirectory extends SubscriptionInitiator {
 		
-		ConnectionAgentsChecker(Agent a) {
-			super(a);
+		UpdateConnectorDirectory(Agent a, ACLMessage subscription) {
+			super(a, subscription);
 		}
 		
-		public void action() {
-			// Calling yellow page agent for available connector agents
-			DFAgentDescription template = new DFAgentDescription();
-			ServiceDescription sd = new ServiceDescription();
-			sd.setType("plant_connection");
-			template.addServices(sd);
-			
+		protected void handleInform(ACLMessage inform) {
 			try {
-				DFAgentDescription[] result = DFService.search(myAgent, template); 
-				System.out.println(myAgent.getAID().getName() + " - found following connector agents:");
-				connectionAgents = new AID[result.length];
-				for (int i = 0; i < result.length; ++i) {
-					connectionAgents[i] = result[i].getName();
-					System.out.println(connectionAgents[i].getName());
+				DFAgentDescription[] results = DFService.decodeNotification(inform.getContent());
+				for (DFAgentDescription result : results) {
+					// Deregistered agent is notified without services.
+					if (providesPlantConnection(result)) {
+						connectorDirectory.add(result.getName());
+					} else {
+						connectorDirectory.remove(result.getName());
+					}
 				}
+				connectionAgents = connectorDirectory.toArray(new AID[connectorDirectory.size()]);
 			}
 			catch (FIPAException fe) {
-				fe.printStackTrace();
-				connectionAgents = new AID[0];
+				LOGGER.log(Level.WARNING, getAID().getName() + " - cannot decode DF notification", fe);
+				return;
+			}
+			if (connectionAgents.length > 0) {
+				for (Behaviour waiting : new ArrayList<Behaviour>(waitingForConnectors)) {
+					waiting.restart();
+				}
 			}
 		}
 		
+		private boolean providesPlantConnection(DFAgentDescription description) {
+			Iterator<?> services = description.getAllServices();
+			while (services.hasNext()) {
+				if ("plant_connection".equals(((ServiceDescription) services.next()).getType())) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Exposes statistics of results GUI as MBean, called by JMX threads.
+	 */
+	private class GuiStatistics implements GuiMBean {
+		public int getPlants() {
+			return resultsGui.getPlantsCount();
+		}
+		
+		public long getReceivedUpdates() {
+			return resultsGui.getReceivedUpdates();
+		}
+		
+		public long getShownValues() {
+			return resultsGui.getShownValues();
+		}
+		
+		public long getSkippedFrames() {
+			return skippedFrames.sum();
+		}
+		
+		public long getLatencyBudget() {
+			return latencyAlarm != null ? TimeUnit.NANOSECONDS.toMillis(latencyAlarm.getBudget()) : 0;
+		}
+		
+		public double getLatencyBudgetP99() {
+			return latencyAlarm != null ? latencyAlarm.getLastPercentile() / 1000000.0 : 0;
+		}
+		
+		public boolean isLatencyBudgetExceeded() {
+			return latencyAlarm != null && latencyAlarm.isExceeded();
+		}
+	}
+	
+	private void printConnectionAgents() {
+		if (LOGGER.isLoggable(Level.INFO)) {
+			StringBuilder names = new StringBuilder(getAID().getName() + " - found following connector agents:");
+			for (AID connectionAgent : connectionAgents) {
+				names.append(' ').append(connectionAgent.getName());
+			}
+			LOGGER.info(names.toString());
+		}
+	}
+	
+	private class ConnectionAgentsChecker extends OneShotBehaviour {
+		
+		ConnectionAgentsChecker(Agent a) {
+			super(a);
+		}
+		
+		public void action() {
+			// Connector agents are already known from DF subscription.
+			printConnectionAgents();
+		}
+		
 		public int onEnd() {
 			final String conState = connectionStates.get((String) this.getDataStore().get(SUBSCRIPTION_ID));
 			if (conState.equals(CONNECTION_STOPPED_BY_USER)) {
@@ -243,35 +425,45 @@ public class GUIAgent extends Agent {
 		}
 	}
 	
-	private class RepeatingConnectionAgentsChecker extends WakerBehaviour {
+	private class RepeatingConnectionAgentsChecker extends SimpleBehaviour {
+		// Waits until connector agent registers in DF (or timeout passes, so stop command is noticed).
+		private final long timeout;
+		private long wakeupTime;
+		private boolean finished;
 		
 		RepeatingConnectionAgentsChecker(Agent a, long timeout) {
-			super(a, timeout);
+			super(a);
+			this.timeout = timeout;
 		}
 		
-		public void onWake() {
-			// If there was no connector agents previously try to do it again.
-			DFAgentDescription template = new DFAgentDescription();
-			ServiceDescription sd = new ServiceDescription();
-			sd.setType("plant_connection");
-			template.addServices(sd);
-			
-			try {
-				DFAgentDescription[] result = DFService.search(myAgent, template); 
-				System.out.println(myAgent.getAID().getName() + " - found following connector agents:");
-				connectionAgents = new AID[result.length];
-				for (int i = 0; i < result.length; ++i) {
-					connectionAgents[i] = result[i].getName();
-					System.out.println(connectionAgents[i].getName());
-				}
+		public void action() {
+			if (wakeupTime == 0) {
+				wakeupTime = System.currentTimeMillis() + timeout;
+				waitingForConnectors.add(this);
 			}
-			catch (FIPAException fe) {
-				fe.printStackTrace();
-				connectionAgents = new AID[0];
+			long blockTime = wakeupTime - System.currentTimeMillis();
+			if (connectionAgents.length > 0 || blockTime <= 0) {
+				finished = true;
+			} else {
+				block(blockTime);
 			}
 		}
 		
+		public boolean done() {
+			return finished;
+		}
+		
+		public void reset() {
+			super.reset();
+			wakeupTime = 0;
+			finished = false;
+		}
+		
 		public int onEnd() {
+			waitingForConnectors.remove(this);
+			if (connectionAgents.length > 0) {
+				printConnectionAgents();
+			}
 			if (connectionStates.get((String) this.getDataStore().get(SUBSCRIPTION_ID)).equals(CONNECTION_STOPPED_BY_USER)) {
 				return -2;
 			} else {
@@ -290,7 +482,9 @@ public class GUIAgent extends Agent {
 		}
 		
 		protected java.util.Vector prepareCfps(ACLMessage cfp) {
-			System.out.println(myAgent.getAID().getName() + " - preparing CFPs to establish connection");
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(myAgent.getAID().getName() + " - preparing CFPs to establish connection");
+			}
 			cfp = new ACLMessage(ACLMessage.CFP);
 			cfp.setContent((String) this.getDataStore().get(IP_NUM) + ":" + (String)this.getDataStore().get(PORT_NUM));
 			cfp.setReplyByDate(new Date(System.currentTimeMillis() + 5000));
@@ -304,7 +498,9 @@ public class GUIAgent extends Agent {
 		
 		protected void handleAllResponses(Vector responses, Vector acceptances) {
 			// Checking is any requested agent is available to connect.
-			System.out.println(myAgent.getAID().getName() + " - handling responses");
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(myAgent.getAID().getName() + " - handling responses");
+			}
 			ACLMessage bestOffer = null;
 			Vector proposingResponses = new Vector();
 			
@@ -312,17 +508,21 @@ public class GUIAgent extends Agent {
 				ACLMessage rsp = (ACLMessage) responses.get(i);
 				if (rsp.getPerformative() == ACLMessage.PROPOSE) {
 					proposingResponses.add(rsp);
-					String response = rsp.getContent();
-					if (response.equals("connected")) {
-						bestOffer = rsp;
-					} else if (response.equals("ready") && bestOffer == null) {
-						bestOffer = rsp;
-					}
 				}
 			}
+			// Proposals carry load of connectors, policy chooses one of them.
+			ConnectorLoad[] offers = new ConnectorLoad[proposingResponses.size()];
+			for (int i = 0; i < offers.length; ++i) {
+				offers[i] = ConnectorLoad.parse(((ACLMessage) proposingResponses.get(i)).getContent());
+			}
+			int chosen = selectionPolicy.select(offers);
+			if (chosen >= 0) {
+				bestOffer = (ACLMessage) proposingResponses.get(chosen);
+			}
 			
 			if (bestOffer != null) {
-				System.out.println(myAgent.getAID().getName() + " - best offer found");
+				LOGGER.info(myAgent.getAID().getName() + " - best offer found " + bestOffer.getSender().getName()
+						+ " (" + offers[chosen] + ")");
 				for (int i = 0; i < proposingResponses.size(); ++i) {
 					ACLMessage propose = (ACLMessage) proposingResponses.get(i);
 					ACLMessage reply = propose.createReply();
@@ -339,7 +539,9 @@ public class GUIAgent extends Agent {
 		}
 		
 		protected void handleInform(ACLMessage inform) {
-			System.out.println(myAgent.getAID().getName() + " - getting informed about process variables");
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(myAgent.getAID().getName() + " - getting informed about process variables");
+			}
 			String informContent = inform.getContent();
 			informContent.trim();
 			if (informContent.length() > 0) {
@@ -354,14 +556,28 @@ public class GUIAgent extends Agent {
 				String variableNames[] = new String [count + 1];
 				variableNames = informContent.split(";");
 				
+				// Labels are created only for variables that will be received.
+				VariableSelection selection = (VariableSelection) this.getDataStore().get(VARIABLE_SELECTION);
+				if (!selection.selectsAll()) {
+					Vector<String> selectedNames = new Vector<String>();
+					for (String variableName : variableNames) {
+						if (selection.matches(variableName)) {
+							selectedNames.add(variableName);
+						}
+					}
+					variableNames = selectedNames.toArray(new String[selectedNames.size()]);
+				}
+				
 				String Subs_id = (String) this.getDataStore().get(SUBSCRIPTION_ID);
 				String connectionState = connectionStates.get(Subs_id);
 				if (!connectionState.equals(CONNECTION_STOPPED_BY_USER)) {
-					System.out.println(myAgent.getAID().getName() + " - creating plant labels");
+					if (LOGGER.isLoggable(Level.FINE)) {
+						LOGGER.fine(myAgent.getAID().getName() + " - creating plant labels");
+					}
 					String shortID = (String) this.getDataStore().get(IP_NUM) + ":" + (String)this.getDataStore().get(PORT_NUM) + "@" + inform.getSender().getLocalName();
 					resultsGui.createPlantLabels(Subs_id, shortID, variableNames);
 					if (resultsGuiActive == false) {
-						System.out.println(myAgent.getAID().getName() + " - showing results GUI");
+						LOGGER.info(myAgent.getAID().getName() + " - showing results GUI");
 						resultsGui.showGui();
 						resultsGuiActive = true;
 					}
@@ -395,24 +611,90 @@ public class GUIAgent extends Agent {
 		// subscription.
 		public static final String RECV_AID = "Receiver_aid";
 		
+		/**
+		 * True after connector reported lost plant connection, until values arrive again.
+		 */
+		private boolean plantStale = false;
+		
+		/**
+		 * Sequence of the last traced update, -1 before the first one.
+		 */
+		private long lastSequence = -1;
+		
+		/**
+		 * Receives values of binary updates, created when connector agreed to binary encoding.
+		 */
+		private BinaryPayloadDecoder.ValueSink binarySink;
+		
+		/**
+		 * Receives values of text updates, created with the first one.
+		 */
+		private PlantUpdateDecoder.SlotSink textSink;
+		
 		SubscribeToPlant(Agent a, DataStore ds) {
 			super(a, null, ds);
 		}
 		
+		public void reset() {
+			super.reset();
+			// Subscription to new connector writes into values created for it, not into the previous ones.
+			plantStale = false;
+			lastSequence = -1;
+			binarySink = null;
+			textSink = null;
+		}
+		
 		protected Vector prepareSubscriptions(ACLMessage subscription) {
-			System.out.println(myAgent.getAID().getName() + " - subscribing to plant");
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(myAgent.getAID().getName() + " - subscribing to plant");
+			}
 			Vector subsMessages = new Vector(1); // Only one subscription per behaviour is running
 			ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.SUBSCRIBE);
 			subscriptionMessage.setConversationId((String) this.getDataStore().get(SUBSCRIPTION_ID));
 			subscriptionMessage.setProtocol("subscription to plant");
 			subscriptionMessage.addReceiver((AID) this.getDataStore().get(RECV_AID));
 			subscriptionMessage.setReplyByDate(new Date(System.currentTimeMillis() + 2000));
-			/* TODO (?) choose variables to receive */
+			// Connector sends only chosen variables (empty selection means all of them)
+			// and not more often than GUI is able to show.
+			StringBuilder subscriptionContent = new StringBuilder(this.getDataStore().get(VARIABLE_SELECTION).toString());
+			if (maxRate > 0) {
+				if (subscriptionContent.length() > 0) {
+					subscriptionContent.append(";");
+				}
+				subscriptionContent.append(PlantSubscriber.MAX_RATE + "=" + maxRate);
+				subscriptionContent.append(";" + ConflatingBuffer.AGGREGATE + "=" + aggregate);
+			} else if (batch > 1) {
+				if (subscriptionContent.length() > 0) {
+					subscriptionContent.append(";");
+				}
+				subscriptionContent.append(FrameBatch.BATCH + "=" + batch);
+				subscriptionContent.append(";" + FrameBatch.LINGER + "=" + linger);
+			}
+			// Connector may serve many plants, so plant is named as in call for proposals.
+			if (subscriptionContent.length() > 0) {
+				subscriptionContent.append(";");
+			}
+			subscriptionContent.append(TCPClientAgent.PLANT + "=" + (String) this.getDataStore().get(ConnectionInitiator.IP_NUM)
+					+ ":" + (String) this.getDataStore().get(ConnectionInitiator.PORT_NUM));
+			subscriptionContent.append(";" + BinaryPayloadEncoder.ENCODING + "=" + encoding);
+			subscriptionMessage.setContent(subscriptionContent.toString());
 			
 			subsMessages.add(subscriptionMessage);
 			return subsMessages;
 		}
 		
+		protected void handleAgree(ACLMessage agree) {
+			// Connector agreeing to binary encoding sends dictionary of variable names.
+			if (BinaryPayloadEncoder.ENCODING_BINARY.equals(agree.getUserDefinedParameter(BinaryPayloadEncoder.ENCODING))) {
+				int precision = PlantValueStore.DEFAULT_PRECISION;
+				try {
+					precision = Integer.parseInt(agree.getUserDefinedParameter(BinaryPayloadEncoder.PRECISION));
+				} catch (NumberFormatException e) {}
+				binarySink = resultsGui.createBinarySink((String) this.getDataStore().get(SUBSCRIPTION_ID),
+						agree.getContent().split(";"), precision);
+			}
+		}
+		
 		protected void handleRefuse(ACLMessage refuse) {
 			// Any refusal is treated as plant disconnection
 			connectionStates.replace((String) this.getDataStore().get(SUBSCRIPTION_ID), PLANT_DISCONNECTED);
@@ -427,33 +709,117 @@ public class GUIAgent extends Agent {
 			// That method is called every time update of plant values is received
 			String connectionState = connectionStates.get((String) this.getDataStore().get(SUBSCRIPTION_ID));
 			if (connectionState.contentEquals(CONNECTION_RUNNING)) {
-				String messageContent = inform.getContent();
-				messageContent = messageContent.trim();
-				if (messageContent.length() > 0) {
-					int count = 0;
-					for (int i = 0; i < messageContent.length(); i++) {
-						if (messageContent.charAt(i) == ';') {
-							count++;
-						}
+				final String connectionID = (String) this.getDataStore().get(SUBSCRIPTION_ID);
+				if (inform.getUserDefinedParameter(TCPClientAgent.PLANT_STALE) != null) {
+					// Connector reconnects to plant by itself, subscription stays as it is.
+					plantStale = true;
+					resultsGui.setPlantStale(connectionID, true);
+					return;
+				}
+				if (plantStale) {
+					plantStale = false;
+					resultsGui.setPlantStale(connectionID, false);
+				}
+				boolean withMinMax = ConflatingBuffer.AGGREGATE_MIN_MAX_LAST.equals(
+						inform.getUserDefinedParameter(ConflatingBuffer.AGGREGATE));
+				long receivedTime = System.nanoTime();
+				// Batch is traced by its newest frame. Malformed batch is dropped before any of its values is shown.
+				String batchFrames = inform.getUserDefinedParameter(FrameBatch.BATCH_FRAMES);
+				int frames = 1;
+				String[] frameContents = null;
+				long[] frameTimes = null;
+				if (batchFrames != null) {
+					frames = parseBatchFrames(batchFrames);
+					if (frames > 0 && !inform.hasByteSequenceContent() && inform.getContent() != null) {
+						frameContents = inform.getContent().split(String.valueOf(FrameBatch.FRAME_SEPARATOR));
+						frameTimes = parseBatchTimes(inform.getUserDefinedParameter(FrameBatch.BATCH_TIMES), frames);
 					}
-					
-					String variablePairs[] = new String [count + 1];
-					variablePairs = messageContent.split(";");
-					
-					String singlePair[] = new String[2];
-					for (int i = 0; i < count + 1; i++) {
-						singlePair[1] = "";
-						singlePair = variablePairs[i].split(":", 2);
-						if(singlePair[1] != "" ) {
-							resultsGui.updateValue((String) this.getDataStore().get(SUBSCRIPTION_ID), singlePair[0], singlePair[1]);
-						}
+					if (frames <= 0 || !inform.hasByteSequenceContent()
+							&& (frameTimes == null || frameContents.length != frames)) {
+						LOGGER.warning(myAgent.getAID().getName() + " - malformed batch of plant values from "
+								+ inform.getSender().getName() + " dropped");
+						return;
 					}
 				}
+				long sequence = LatencyTrace.getSequence(inform);
+				if (sequence >= 0) {
+					if (lastSequence >= 0 && sequence > lastSequence + frames) {
+						skippedFrames.add(sequence - lastSequence - frames);
+					}
+					lastSequence = sequence;
+				}
+				resultsGui.updateReceived(connectionID, receivedTime, LatencyTrace.getElapsed(inform, receivedTime));
+				if (batchFrames != null) {
+					resultsGui.startBatch(connectionID, LatencyTrace.getClock(inform));
+				}
+				if (inform.hasByteSequenceContent()) {
+					if (binarySink != null
+							&& BinaryPayloadDecoder.decode(inform.getByteSequenceContent(), withMinMax, binarySink) < 0) {
+						LOGGER.warning(myAgent.getAID().getName() + " - malformed binary update from "
+								+ inform.getSender().getName() + ", values after error dropped");
+					}
+				} else if (frameContents != null) {
+					// Frames of batch are applied in order, each sampled in trends at its time.
+					for (int i = 0; i < frames; i++) {
+						resultsGui.startFrame(connectionID, frameTimes[i]);
+						decodeText(connectionID, frameContents[i], withMinMax);
+					}
+					resultsGui.startFrame(connectionID, 0);
+				} else {
+					decodeText(connectionID, inform.getContent(), withMinMax);
+				}
 			} else {
 				// Canceling subscription.
 				cancel((AID) this.getDataStore().get(RECV_AID), true);
-				System.out.println(myAgent.getAID().getName() + " - cancel subscription message sent to " + ((AID) this.getDataStore().get(RECV_AID)).getName());
+				if (LOGGER.isLoggable(Level.FINE)) {
+					LOGGER.fine(myAgent.getAID().getName() + " - cancel subscription message sent to " + ((AID) this.getDataStore().get(RECV_AID)).getName());
+				}
+			}
+		}
+		
+		private void decodeText(final String connectionID, final String content, boolean withMinMax) {
+			if (textSink == null) {
+				// Rows of plant exist before subscription, names are resolved to their slots by sink.
+				textSink = resultsGui.createTextSink(connectionID);
+				if (textSink == null) {
+					return;
+				}
+			}
+			PlantUpdateDecoder.decode(content, withMinMax, textSink);
+		}
+		
+		/**
+		 * @return number of frames in batch, -1 if parameter is not a positive number
+		 */
+		private int parseBatchFrames(final String batchFrames) {
+			try {
+				int frames = Integer.parseInt(batchFrames);
+				return frames > 0 ? frames : -1;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		
+		/**
+		 * @return times of frames of text batch, null if parameter is missing, malformed or has other number of frames
+		 */
+		private long[] parseBatchTimes(final String batchTimes, int frames) {
+			if (batchTimes == null) {
+				return null;
+			}
+			String[] times = batchTimes.split(",");
+			if (times.length != frames) {
+				return null;
+			}
+			long[] frameTimes = new long[frames];
+			try {
+				for (int i = 0; i < frames; i++) {
+					frameTimes[i] = Long.parseLong(times[i]);
+				}
+			} catch (NumberFormatException e) {
+				return null;
 			}
+			return frameTimes;
 		}
 		
 		protected void handleFailure(ACLMessage failure) {
@@ -0,0 +1,47 @@
+/**
+ * GuiMBean
+ *
+ * Management interface of GUI agent, registered as
+ * "agentControlSystem:type=Gui,name=<agent name>". Time from receiving
+ * values to showing them is registered with the same name and additional
+ * key "histogram=updateLatency", times of traced frames (see LatencyTrace)
+ * from reading by connector to receiving and to showing them with keys
+ * "histogram=deliveryLatency" and "histogram=endToEndLatency".
+ */
+
+package agentControlSystem;
+
+public interface GuiMBean {
+
+	/**
+	 * @return number of plants shown
+	 */
+	int getPlants();
+
+	/**
+	 * @return number of received messages with values
+	 */
+	long getReceivedUpdates();
+
+	/**
+	 * @return number of values shown in table, values replaced before refresh are not counted
+	 */
+	long getShownValues();
+
+	/**
+	 * @return number of traced frames not received, rate-limited and delta subscriptions skip frames by design
+	 */
+	long getSkippedFrames();
+
+	/**
+	 * @return budget of 99th percentile of end-to-end latency (ms), 0 if alarm is disabled
+	 */
+	long getLatencyBudget();
+
+	/**
+	 * @return 99th percentile of end-to-end latency in the last checked interval (ms)
+	 */
+	double getLatencyBudgetP99();
+
+	boolean isLatencyBudgetExceeded();
+}
@@ -0,0 +1,82 @@
+/**
+ * LatencyBudgetAlarm
+ *
+ * Watches 99th percentile of times recorded in histogram since previous
+ * check. Warning is logged when percentile exceeds budget and again when
+ * it is back within budget, so alarm does not repeat every check.
+ *
+ * Checked periodically by one thread (agent's behaviour), state may be
+ * read by any thread.
+ */
+
+package agentControlSystem;
+
+import java.util.logging.Logger;
+
+public class LatencyBudgetAlarm {
+	private static final Logger LOGGER = Logger.getLogger(LatencyBudgetAlarm.class.getName());
+
+	private final String name;
+	private final LatencyHistogram histogram;
+	private final long budget;
+	private long[] previousCounts;
+	private long[] counts;
+	private volatile long lastPercentile;
+	private volatile boolean exceeded;
+
+	/**
+	 * @param name - name of watched times shown in log
+	 * @param histogram - histogram of watched times
+	 * @param budget - maximum 99th percentile (ns)
+	 */
+	public LatencyBudgetAlarm(final String name, LatencyHistogram histogram, long budget) {
+		this.name = name;
+		this.histogram = histogram;
+		this.budget = budget;
+		previousCounts = histogram.getCounts(null);
+	}
+
+	/**
+	 * Compares 99th percentile of times recorded since previous check with budget,
+	 * intervals without recorded times do not change alarm.
+	 * @return true if budget is exceeded
+	 */
+	public boolean check() {
+		counts = histogram.getCounts(counts);
+		long percentile = LatencyHistogram.getPercentile(counts, previousCounts, 99);
+		long[] swap = previousCounts;
+		previousCounts = counts;
+		counts = swap;
+		if (percentile < 0) {
+			return exceeded;
+		}
+		lastPercentile = percentile;
+		if (percentile > budget && !exceeded) {
+			exceeded = true;
+			LOGGER.warning("Latency budget exceeded, p99 of " + name + " is " + percentile / 1000000.0
+					+ " ms, budget is " + budget / 1000000.0 + " ms");
+		} else if (percentile <= budget && exceeded) {
+			exceeded = false;
+			LOGGER.info("Latency of " + name + " is back within budget, p99 is " + percentile / 1000000.0 + " ms");
+		}
+		return exceeded;
+	}
+
+	public boolean isExceeded() {
+		return exceeded;
+	}
+
+	/**
+	 * @return 99th percentile of the last checked interval with recorded times (ns)
+	 */
+	public long getLastPercentile() {
+		return lastPercentile;
+	}
+
+	/**
+	 * @return maximum 99th percentile (ns)
+	 */
+	public long getBudget() {
+		return budget;
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * LatencyHistogram
+ *
+ * Distribution of measured times (e.g. parsing of one frame) recorded by
+ * any number of threads without locks. Times are counted in log-linear
+ * buckets: every power of two is split into 16 buckets, so percentiles
+ * are at most about 6% higher than real times and recording costs one
+ * atomic increment regardless of number of recorded times.
+ *
+ * Times longer than about 18 minutes are counted in the last bucket.
+ */
+
+package agentControlSystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram implements LatencyHistogramMBean {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records one measured time, negative times are recorded as 0.
+	 * @param nanos - time in nanoseconds
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(nanos));
+		count.increment();
+		sum.add(nanos);
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos));
+	}
+
+	private static int indexOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the highest time counted in bucket
+	 */
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	/**
+	 * Percentile is computed from buckets, times recorded meanwhile may or may not be counted.
+	 * @param percentile - percentile from 0 to 100
+	 * @return time (ns) not exceeded by given percent of recorded times, 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long time = getPercentile(getCounts(null), null, percentile);
+		return time < 0 ? 0 : Math.min(time, max.get());
+	}
+
+	/**
+	 * Copies counts of buckets, so that percentiles of interval can be computed later.
+	 * @param counts - array for counts, new one is created if it is null
+	 * @return counts of buckets
+	 */
+	public long[] getCounts(long[] counts) {
+		if (counts == null) {
+			counts = new long[BUCKETS];
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.counts.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Computes percentile of times recorded between two copies of counts.
+	 * @param counts - counts copied by getCounts()
+	 * @param previousCounts - counts copied earlier, null to use all recorded times
+	 * @param percentile - percentile from 0 to 100
+	 * @return time (ns) not exceeded by given percent of times, -1 if no time was recorded
+	 */
+	public static long getPercentile(long[] counts, long[] previousCounts, double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts[i] - (previousCounts != null ? previousCounts[i] : 0);
+		}
+		if (total <= 0) {
+			return -1;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long counted = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counted += counts[i] - (previousCounts != null ? previousCounts[i] : 0);
+			if (counted >= rank) {
+				return upperBoundOf(i);
+			}
+		}
+		return upperBoundOf(BUCKETS - 1);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMean() {
+		long recorded = count.sum();
+		return recorded > 0 ? sum.sum() / 1000.0 / recorded : 0;
+	}
+
+	public double getP50() {
+		return getPercentile(50) / 1000.0;
+	}
+
+	public double getP90() {
+		return getPercentile(90) / 1000.0;
+	}
+
+	public double getP99() {
+		return getPercentile(99) / 1000.0;
+	}
+
+	public double getP999() {
+		return getPercentile(99.9) / 1000.0;
+	}
+
+	public double getMax() {
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * Times recorded while histogram is reset may be partially kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * LatencyHistogramMBean
+ *
+ * Management interface of LatencyHistogram, times are in microseconds.
+ */
+
+package agentControlSystem;
+
+public interface LatencyHistogramMBean {
+
+	long getCount();
+
+	double getMean();
+
+	double getP50();
+
+	double getP90();
+
+	double getP99();
+
+	double getP999();
+
+	double getMax();
+
+	/**
+	 * Forgets all recorded times.
+	 */
+	void reset();
+}
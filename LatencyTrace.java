@@ -0,0 +1,87 @@
+/**
+ * LatencyTrace
+ *
+ * Trace of frame carried in user defined parameters of INFORM, so that
+ * subscriber can measure time since frame was read from plant:
+ * "trace-sequence" - number of frame in plant session, gaps are frames
+ *   dropped, conflated or not sent in delta mode,
+ * "trace-ingest" - System.nanoTime() when connector started reading frame,
+ * "trace-clock" - System.currentTimeMillis() at the same moment,
+ * "trace-origin" - identity of connector's JVM.
+ *
+ * nanoTime is comparable only within one JVM, subscriber in other JVM
+ * (e.g. container on other host) measures by wall clock, which is only
+ * as precise as synchronization of clocks of both hosts.
+ */
+
+package agentControlSystem;
+
+import jade.lang.acl.ACLMessage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+
+public class LatencyTrace {
+	public static final String SEQUENCE = "trace-sequence";
+	public static final String INGEST = "trace-ingest";
+	public static final String CLOCK = "trace-clock";
+	public static final String ORIGIN = "trace-origin";
+
+	private static final String LOCAL_ORIGIN = createOrigin();
+
+	private static String createOrigin() {
+		RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+		return runtime.getName() + "/" + runtime.getStartTime();
+	}
+
+	/**
+	 * Adds trace of frame to message.
+	 * @param sequence - number of frame
+	 * @param ingestTime - System.nanoTime() when frame was read
+	 * @param ingestClock - System.currentTimeMillis() when frame was read
+	 */
+	public static void stamp(ACLMessage message, long sequence, long ingestTime, long ingestClock) {
+		message.addUserDefinedParameter(SEQUENCE, String.valueOf(sequence));
+		message.addUserDefinedParameter(INGEST, String.valueOf(ingestTime));
+		message.addUserDefinedParameter(CLOCK, String.valueOf(ingestClock));
+		message.addUserDefinedParameter(ORIGIN, LOCAL_ORIGIN);
+	}
+
+	/**
+	 * @return number of traced frame, -1 if message is not traced
+	 */
+	public static long getSequence(ACLMessage message) {
+		return parse(message.getUserDefinedParameter(SEQUENCE));
+	}
+
+	/**
+	 * @return time of traced frame (System.currentTimeMillis() of connector), -1 if message is not traced
+	 */
+	public static long getClock(ACLMessage message) {
+		return parse(message.getUserDefinedParameter(CLOCK));
+	}
+
+	/**
+	 * @param now - current System.nanoTime()
+	 * @return time since traced frame was read (ns), -1 if message is not traced
+	 */
+	public static long getElapsed(ACLMessage message, long now) {
+		if (LOCAL_ORIGIN.equals(message.getUserDefinedParameter(ORIGIN))) {
+			long ingestTime = parse(message.getUserDefinedParameter(INGEST));
+			return ingestTime != -1 ? Math.max(0, now - ingestTime) : -1;
+		}
+		long ingestClock = parse(message.getUserDefinedParameter(CLOCK));
+		return ingestClock != -1 ? Math.max(0, System.currentTimeMillis() - ingestClock) * 1000000 : -1;
+	}
+
+	private static long parse(final String parameter) {
+		if (parameter == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(parameter);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
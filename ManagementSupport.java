@@ -0,0 +1,53 @@
+/**
+ * ManagementSupport
+ *
+ * Registers MBeans of agents in platform MBean server, so they can be read
+ * by JConsole or any other JMX client. Monitoring must never stop agent,
+ * problems with registration are only logged.
+ */
+
+package agentControlSystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+public class ManagementSupport {
+	private static final Logger LOGGER = Logger.getLogger(ManagementSupport.class.getName());
+
+	public static final String DOMAIN = "agentControlSystem";
+
+	/**
+	 * @param properties - key properties of name, e.g. "type=Connector,name=" + ObjectName.quote(agentName)
+	 * @param mbean - object implementing mbeanInterface
+	 * @param mbeanInterface - interface exposed by MBean
+	 * @return name of registered MBean, null if it was not registered
+	 */
+	public static <T> ObjectName register(final String properties, T mbean, Class<T> mbeanInterface) {
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(mbean, mbeanInterface), name);
+			return name;
+		} catch (JMException e) {
+			LOGGER.log(Level.WARNING, "Cannot register MBean " + properties, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param name - name returned by register(), null is ignored
+	 */
+	public static void unregister(ObjectName name) {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			LOGGER.log(Level.WARNING, "Cannot unregister MBean " + name, e);
+		}
+	}
+}
@@ -22,5 +22,22 @@ public class PlantAddress {
 	public boolean isSameAddress(PlantAddress address) {
 		return isSameAddress(address.getIP(), address.getPort());
 	}
+	
+	// Address is used as a key in maps of plant connections.
+	public boolean equals(Object other) {
+		if (other instanceof PlantAddress) {
+			return isSameAddress((PlantAddress) other);
+		} else {
+			return false;
+		}
+	}
+	
+	public int hashCode() {
+		return 31 * IPAddress.hashCode() + port;
+	}
+	
+	public String toString() {
+		return IPAddress + ":" + port;
+	}
 
 }
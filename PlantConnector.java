@@ -0,0 +1,484 @@
+/**
+ * PlantConnector
+ *
+ * Non-blocking connector engine which multiplexes many plant connections
+ * on a small, fixed number of I/O threads. Every I/O thread owns one
+ * Selector and one direct buffer reused for all reads. Received bytes are
+ * split into frames (<Cluster> elements) per channel and complete frames
+ * are handed to the listener registered for plant, on I/O thread.
+ *
+ * One connector is shared by all agents living in the same JVM, so thread
+ * count stays flat as plant count grows. Channels are identified by PlantAddress.
+ *
+ * Connections are opened by connect(), which waits given delay, resolves
+ * plant address on separate resolver thread and connects without blocking
+ * on I/O thread, so connecting and reconnecting many plants needs only one
+ * extra thread and never blocks the caller.
+ * Returned PlantChannel identifies connection when it is unregistered, so
+ * caller never closes channel opened by other caller for the same plant.
+ */
+
+package agentControlSystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+public class PlantConnector {
+	private static final Logger LOGGER = Logger.getLogger(PlantConnector.class.getName());
+
+	/**
+	 * Receives frames and connection events of one plant. All methods are called on I/O thread
+	 * so they should return quickly.
+	 */
+	public interface PlantListener extends ClusterFrameParser.FrameHandler {
+		/**
+		 * Called when frame could not be parsed or exceeded maximum size, channel is already closed.
+		 * @param e - parsing exception
+		 */
+		void onMalformedFrame(XMLStreamException e);
+
+		/**
+		 * Called when connection with plant was lost, channel is already closed.
+		 * @param e - exception that caused disconnection, null when plant closed connection
+		 */
+		void onDisconnected(IOException e);
+
+		/**
+		 * Called when connection opened by connect() was established, before its first frame.
+		 * @param channel - channel connected to plant
+		 */
+		void onConnected(SocketChannel channel);
+
+		/**
+		 * Called for every block of bytes read from plant, before frames it completes are parsed.
+		 * @param count - number of bytes
+		 */
+		void onBytesRead(int count);
+	}
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_FRAME_BUFFER_SIZE = 8 * 1024;
+
+	private static final byte[] CLUSTER_START = "<Cluster".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CLUSTER_END = "</Cluster>".getBytes(StandardCharsets.US_ASCII);
+
+	private static PlantConnector sharedConnector;
+
+	private final IOThread[] ioThreads;
+	private final Map<PlantAddress, PlantChannel> channels;
+	// Resolves plant host names, so slow lookup never stalls I/O threads.
+	private final ExecutorService resolver;
+
+	/**
+	 * Returns connector shared in JVM, it is created by the first call.
+	 * @param ioThreadsCount - number of I/O threads, used only when connector is created
+	 * @return shared connector
+	 * @throws IOException when selectors cannot be opened
+	 */
+	public static synchronized PlantConnector getShared(int ioThreadsCount) throws IOException {
+		if (sharedConnector == null) {
+			sharedConnector = new PlantConnector(ioThreadsCount);
+		}
+		return sharedConnector;
+	}
+
+	public PlantConnector(int ioThreadsCount) throws IOException {
+		channels = new ConcurrentHashMap<PlantAddress, PlantChannel>();
+		ioThreads = new IOThread[Math.max(1, ioThreadsCount)];
+		for (int i = 0; i < ioThreads.length; i++) {
+			ioThreads[i] = new IOThread("PlantConnector-io-" + i);
+			ioThreads[i].start();
+		}
+		resolver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "PlantConnector-resolver");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Connects to plant after delay and starts receiving frames from it. Connecting does
+	 * not block, result is reported to listener: onConnected() when plant accepted connection,
+	 * onDisconnected() when it failed or did not finish within connectTimeout.
+	 * @param address - plant address, key of the channel
+	 * @param delay - time to wait before connecting (ms)
+	 * @param connectTimeout - maximum time of connecting (ms)
+	 * @param maxFrameSize - maximum number of bytes single frame may take
+	 * @param listener - listener receiving frames and connection events
+	 * @return channel of plant, used to unregister it
+	 * @throws IOException when plant is already registered or channel cannot be opened
+	 */
+	public PlantChannel connect(final PlantAddress address, long delay, final long connectTimeout, int maxFrameSize,
+			PlantListener listener) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		final IOThread owner = selectOwner();
+		final PlantChannel plantChannel = new PlantChannel(address, channel, maxFrameSize, listener, owner);
+		// Channel is registered already, so it can be unregistered while waiting for connection.
+		if (channels.putIfAbsent(address, plantChannel) != null) {
+			channel.close();
+			throw new IOException("Plant " + address + " is already registered");
+		}
+		owner.channelsCount.incrementAndGet();
+		owner.executeLater(new Runnable() {
+			public void run() {
+				if (channels.get(address) != plantChannel) {
+					return;
+				}
+				// Looking up plant may take long, so it is done by resolver and I/O thread only connects.
+				resolver.execute(new Runnable() {
+					public void run() {
+						final InetSocketAddress socketAddress = new InetSocketAddress(address.getIP(), address.getPort());
+						owner.execute(new Runnable() {
+							public void run() {
+								owner.startConnect(plantChannel, socketAddress, connectTimeout);
+							}
+						});
+					}
+				});
+			}
+		}, delay);
+		return plantChannel;
+	}
+
+	/**
+	 * Stops receiving frames from plant and closes its channel. Listener is not notified.
+	 * Channel which was closed already (or replaced by the next connect()) is left as it is.
+	 * @param plantChannel - channel returned by connect()
+	 */
+	public void unregister(final PlantChannel plantChannel) {
+		plantChannel.owner.execute(new Runnable() {
+			public void run() {
+				plantChannel.owner.closeChannel(plantChannel);
+			}
+		});
+	}
+
+	/**
+	 * Closes channel as if connection with plant was lost, listener is notified by onDisconnected().
+	 * Channel which was closed already is left as it is.
+	 * @param plantChannel - channel returned by connect()
+	 * @param e - cause of disconnection passed to listener
+	 */
+	public void disconnect(final PlantChannel plantChannel, final IOException e) {
+		plantChannel.owner.execute(new Runnable() {
+			public void run() {
+				if (channels.get(plantChannel.address) == plantChannel) {
+					plantChannel.owner.closeChannel(plantChannel);
+					plantChannel.listener.onDisconnected(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return I/O thread serving the fewest channels
+	 */
+	private IOThread selectOwner() {
+		IOThread owner = ioThreads[0];
+		for (IOThread ioThread : ioThreads) {
+			if (ioThread.channelsCount.get() < owner.channelsCount.get()) {
+				owner = ioThread;
+			}
+		}
+		return owner;
+	}
+
+	/**
+	 * @return number of registered plant channels
+	 */
+	public int getChannelsCount() {
+		return channels.size();
+	}
+
+	/**
+	 * State of one plant connection, accessed only by owning I/O thread.
+	 * Outside connector it is only a handle of connection.
+	 */
+	public static class PlantChannel {
+		final PlantAddress address;
+		final SocketChannel channel;
+		final int maxFrameSize;
+		final PlantListener listener;
+		final IOThread owner;
+		SelectionKey key;
+
+		byte[] frameBuffer;
+		int length;      // number of valid bytes in frameBuffer
+		int scanPos;     // position from which bytes were not scanned yet
+		int frameStart;  // position of opening <Cluster> of current frame
+		int clusterDepth;
+
+		PlantChannel(PlantAddress address, SocketChannel channel, int maxFrameSize, PlantListener listener, IOThread owner) {
+			this.address = address;
+			this.channel = channel;
+			this.maxFrameSize = maxFrameSize;
+			this.listener = listener;
+			this.owner = owner;
+			frameBuffer = new byte[Math.min(INITIAL_FRAME_BUFFER_SIZE, maxFrameSize)];
+		}
+	}
+
+	private class IOThread extends Thread {
+		final Selector selector;
+		final ByteBuffer readBuffer;
+		final XMLInputFactory xmlReaderFactory;
+		final ConcurrentLinkedQueue<Runnable> tasks;
+		final AtomicInteger channelsCount;
+		// Tasks waiting for their time, accessed only by this thread.
+		final PriorityQueue<TimedTask> timedTasks;
+
+		IOThread(final String name) throws IOException {
+			super(name);
+			setDaemon(true);
+			selector = Selector.open();
+			readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+			xmlReaderFactory = ClusterFrameParser.createReaderFactory();
+			tasks = new ConcurrentLinkedQueue<Runnable>();
+			channelsCount = new AtomicInteger();
+			timedTasks = new PriorityQueue<TimedTask>();
+		}
+
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		void executeLater(final Runnable task, long delay) {
+			final long runTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			execute(new Runnable() {
+				public void run() {
+					timedTasks.add(new TimedTask(runTime, task));
+				}
+			});
+		}
+
+		/**
+		 * @return time until the next timed task (ms), 0 if there is none
+		 */
+		private long selectTimeout() {
+			TimedTask next = timedTasks.peek();
+			if (next == null) {
+				return 0;
+			}
+			return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.runTime - System.nanoTime() + 999999));
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					selector.select(selectTimeout());
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+					long now = System.nanoTime();
+					while (!timedTasks.isEmpty() && timedTasks.peek().runTime - now <= 0) {
+						timedTasks.poll().task.run();
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (key.isValid() && key.isConnectable()) {
+							finishConnect((PlantChannel) key.attachment());
+						} else if (key.isValid() && key.isReadable()) {
+							readChannel((PlantChannel) key.attachment());
+						}
+					}
+				} catch (IOException e) {
+					LOGGER.log(Level.SEVERE, getName() + " - selector failure", e);
+				} catch (RuntimeException e) {
+					// Faulty listener must not stop thread serving other plants.
+					LOGGER.log(Level.WARNING, getName() + " - unexpected exception in plant listener", e);
+				}
+			}
+		}
+
+		private void finishConnect(PlantChannel plantChannel) {
+			try {
+				if (plantChannel.channel.finishConnect()) {
+					plantChannel.key.interestOps(SelectionKey.OP_READ);
+					plantChannel.listener.onConnected(plantChannel.channel);
+				}
+			} catch (IOException e) {
+				closeChannel(plantChannel);
+				plantChannel.listener.onDisconnected(e);
+			}
+		}
+
+		private void readChannel(PlantChannel plantChannel) {
+			try {
+				int readCount;
+				while ((readCount = plantChannel.channel.read(readBuffer)) > 0) {
+					plantChannel.listener.onBytesRead(readCount);
+					readBuffer.flip();
+					appendToFrame(plantChannel);
+					readBuffer.clear();
+					processFrames(plantChannel);
+				}
+				if (readCount < 0) {
+					closeChannel(plantChannel);
+					plantChannel.listener.onDisconnected(null);
+				}
+			} catch (IOException e) {
+				closeChannel(plantChannel);
+				plantChannel.listener.onDisconnected(e);
+			} catch (XMLStreamException e) {
+				closeChannel(plantChannel);
+				plantChannel.listener.onMalformedFrame(e);
+			}
+		}
+
+		private void appendToFrame(PlantChannel plantChannel) {
+			int required = plantChannel.length + readBuffer.remaining();
+			if (required > plantChannel.frameBuffer.length) {
+				// Buffer is compacted after every read so it never exceeds maxFrameSize + one read.
+				int newSize = Math.max(required, plantChannel.frameBuffer.length * 2);
+				byte[] newBuffer = new byte[newSize];
+				System.arraycopy(plantChannel.frameBuffer, 0, newBuffer, 0, plantChannel.length);
+				plantChannel.frameBuffer = newBuffer;
+			}
+			int count = readBuffer.remaining();
+			readBuffer.get(plantChannel.frameBuffer, plantChannel.length, count);
+			plantChannel.length += count;
+		}
+
+		/**
+		 * Finds complete frames in received bytes and hands them to listener.
+		 */
+		private void processFrames(PlantChannel plantChannel) throws XMLStreamException {
+			byte[] buffer = plantChannel.frameBuffer;
+			int pos = plantChannel.scanPos;
+			while (pos < plantChannel.length) {
+				if (buffer[pos] != '<') {
+					pos++;
+				} else if (plantChannel.length - pos < CLUSTER_END.length) {
+					// Tag may be split between reads, wait for more data.
+					break;
+				} else if (startsWith(buffer, pos, CLUSTER_START) && isTagEnd(buffer[pos + CLUSTER_START.length])) {
+					if (plantChannel.clusterDepth == 0) {
+						plantChannel.frameStart = pos;
+					}
+					plantChannel.clusterDepth++;
+					pos += CLUSTER_START.length;
+				} else if (startsWith(buffer, pos, CLUSTER_END) && plantChannel.clusterDepth > 0) {
+					pos += CLUSTER_END.length;
+					plantChannel.clusterDepth--;
+					if (plantChannel.clusterDepth == 0) {
+						ClusterFrameParser.parseFrame(xmlReaderFactory, buffer, plantChannel.frameStart,
+								pos - plantChannel.frameStart, plantChannel.listener);
+					}
+				} else {
+					pos++;
+				}
+			}
+			// Dropping bytes which are no longer needed.
+			int keepFrom = plantChannel.clusterDepth > 0 ? plantChannel.frameStart : pos;
+			if (keepFrom > 0) {
+				System.arraycopy(buffer, keepFrom, buffer, 0, plantChannel.length - keepFrom);
+				plantChannel.length -= keepFrom;
+				pos -= keepFrom;
+				plantChannel.frameStart = 0;
+			}
+			plantChannel.scanPos = pos;
+			if (plantChannel.length > plantChannel.maxFrameSize) {
+				throw new XMLStreamException("Frame exceeded maximum size of " + plantChannel.maxFrameSize + " bytes");
+			}
+		}
+
+		/**
+		 * Connects channel to resolved plant address, result is reported to listener.
+		 */
+		void startConnect(final PlantChannel plantChannel, InetSocketAddress socketAddress, long connectTimeout) {
+			if (channels.get(plantChannel.address) != plantChannel) {
+				return;
+			}
+			try {
+				if (socketAddress.isUnresolved()) {
+					throw new UnknownHostException("Plant " + plantChannel.address + " cannot be resolved");
+				}
+				if (plantChannel.channel.connect(socketAddress)) {
+					plantChannel.key = plantChannel.channel.register(selector, SelectionKey.OP_READ, plantChannel);
+					plantChannel.listener.onConnected(plantChannel.channel);
+				} else {
+					plantChannel.key = plantChannel.channel.register(selector, SelectionKey.OP_CONNECT, plantChannel);
+					executeLater(new Runnable() {
+						public void run() {
+							if (channels.get(plantChannel.address) == plantChannel && !plantChannel.channel.isConnected()) {
+								closeChannel(plantChannel);
+								plantChannel.listener.onDisconnected(new SocketTimeoutException("Connecting to "
+										+ plantChannel.address + " timed out"));
+							}
+						}
+					}, connectTimeout);
+				}
+			} catch (IOException e) {
+				closeChannel(plantChannel);
+				plantChannel.listener.onDisconnected(e);
+			}
+		}
+
+		void closeChannel(PlantChannel plantChannel) {
+			if (channels.remove(plantChannel.address, plantChannel)) {
+				channelsCount.decrementAndGet();
+			}
+			if (plantChannel.key != null) {
+				plantChannel.key.cancel();
+			}
+			try {
+				plantChannel.channel.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private static class TimedTask implements Comparable<TimedTask> {
+		final long runTime; // System.nanoTime()
+		final Runnable task;
+
+		TimedTask(long runTime, Runnable task) {
+			this.runTime = runTime;
+			this.task = task;
+		}
+
+		public int compareTo(TimedTask other) {
+			return Long.signum(runTime - other.runTime);
+		}
+	}
+
+	private static boolean startsWith(byte[] buffer, int pos, byte[] token) {
+		for (int i = 0; i < token.length; i++) {
+			if (buffer[pos + i] != token[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isTagEnd(byte b) {
+		return b == '>' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+}
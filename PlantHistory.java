@@ -0,0 +1,172 @@
+/**
+ * PlantHistory
+ *
+ * Recent history of plant variables. Every variable has fixed-capacity
+ * ring of samples (timestamp and value) kept in primitive arrays allocated
+ * once, so recording does not allocate and memory is bounded by
+ * varCount * capacity samples. Samples older than retention time are
+ * not returned even if they are still in ring.
+ *
+ * History has single writer (thread reading plant data). Readers do not
+ * lock: they copy samples and then skip those the writer could overwrite
+ * in the meantime.
+ */
+
+package agentControlSystem;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class PlantHistory {
+
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	private final int capacity;
+	private final long retention;
+	private final long[] timestamps;
+	private final double[] values;
+	// Number of samples ever written for every variable, sample n is stored at n % capacity.
+	private final AtomicLongArray written;
+	private final long[] lastTimestamps;
+
+	/**
+	 * Samples selected by query, ordered by time.
+	 */
+	public static class Samples {
+		private final long[] timestamps;
+		private final double[] values;
+		private final int count;
+
+		Samples(long[] timestamps, double[] values, int count) {
+			this.timestamps = timestamps;
+			this.values = values;
+			this.count = count;
+		}
+
+		public int getCount() { return count; }
+		public long getTimestamp(int i) { return timestamps[i]; }
+		public double getValue(int i) { return values[i]; }
+	}
+
+	/**
+	 * @param varCount - number of variables
+	 * @param capacity - number of samples kept for every variable
+	 * @param retention - time for which samples are kept (ms), 0 if limited by capacity only
+	 */
+	public PlantHistory(int varCount, int capacity, long retention) {
+		// One sample more, it is the one writer may be overwriting while reader copies ring.
+		this.capacity = capacity + 1;
+		this.retention = retention;
+		timestamps = new long[varCount * this.capacity];
+		values = new double[varCount * this.capacity];
+		written = new AtomicLongArray(varCount);
+		lastTimestamps = new long[varCount];
+	}
+
+	/**
+	 * Records values received in last frame, called by writer only. Variable is
+	 * recorded only if plant sent it since it was recorded last time.
+	 * @param frameValues - values ordered by slot
+	 * @param frameTimestamps - times when values were received, ordered by slot
+	 */
+	public void record(double[] frameValues, long[] frameTimestamps) {
+		for (int slot = 0; slot < lastTimestamps.length; slot++) {
+			long timestamp = frameTimestamps[slot];
+			if (timestamp != lastTimestamps[slot]) {
+				lastTimestamps[slot] = timestamp;
+				long count = written.get(slot);
+				int position = slot * capacity + (int) (count % capacity);
+				timestamps[position] = timestamp;
+				values[position] = frameValues[slot];
+				// Release store, sample is visible before the new count.
+				written.lazySet(slot, count + 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns samples of variable from time range, can be called from any thread.
+	 * @param slot - slot of variable
+	 * @param from - beginning of range (ms, inclusive)
+	 * @param to - end of range (ms, inclusive)
+	 * @param maxPoints - maximum number of returned samples, 0 for all samples. Larger ranges
+	 * are downsampled to minimum and maximum of equal groups of samples, so peaks are not lost.
+	 * @return samples ordered by time
+	 */
+	public Samples query(int slot, long from, long to, int maxPoints) {
+		if (retention > 0) {
+			from = Math.max(from, System.currentTimeMillis() - retention);
+		}
+		long end = written.get(slot);
+		long start = Math.max(0, end - capacity);
+		int size = (int) (end - start);
+		long[] rangeTimestamps = new long[size];
+		double[] rangeValues = new double[size];
+		for (int i = 0; i < size; i++) {
+			int position = slot * capacity + (int) ((start + i) % capacity);
+			rangeTimestamps[i] = timestamps[position];
+			rangeValues[i] = values[position];
+		}
+		VarHandle.loadLoadFence();
+		// Writer may have overwritten oldest samples (and may be writing next one) while they were copied.
+		long firstValid = Math.max(start, written.get(slot) + 1 - capacity);
+
+		int count = 0;
+		for (int i = (int) (firstValid - start); i < size; i++) {
+			if (rangeTimestamps[i] >= from && rangeTimestamps[i] <= to) {
+				rangeTimestamps[count] = rangeTimestamps[i];
+				rangeValues[count] = rangeValues[i];
+				count++;
+			}
+		}
+		if (maxPoints > 0 && count > maxPoints) {
+			count = downsample(rangeTimestamps, rangeValues, count, maxPoints);
+		}
+		return new Samples(rangeTimestamps, rangeValues, count);
+	}
+
+	/**
+	 * Replaces every group of samples with its minimum and maximum (in order of time), in place.
+	 * @return number of samples left, not more than maxPoints
+	 */
+	private static int downsample(long[] sampleTimestamps, double[] sampleValues, int count, int maxPoints) {
+		int groups = Math.max(1, maxPoints / 2);
+		int result = 0;
+		for (int group = 0; group < groups; group++) {
+			int groupStart = (int) ((long) count * group / groups);
+			int groupEnd = (int) ((long) count * (group + 1) / groups);
+			int minIndex = groupStart;
+			int maxIndex = groupStart;
+			for (int i = groupStart + 1; i < groupEnd; i++) {
+				if (sampleValues[i] < sampleValues[minIndex]) {
+					minIndex = i;
+				}
+				if (sampleValues[i] > sampleValues[maxIndex]) {
+					maxIndex = i;
+				}
+			}
+			int first = Math.min(minIndex, maxIndex);
+			int second = Math.max(minIndex, maxIndex);
+			// Group lies after already written samples, so it can be written in place.
+			long secondTimestamp = sampleTimestamps[second];
+			double secondValue = sampleValues[second];
+			sampleTimestamps[result] = sampleTimestamps[first];
+			sampleValues[result] = sampleValues[first];
+			result++;
+			if (second != first && result < maxPoints) {
+				sampleTimestamps[result] = secondTimestamp;
+				sampleValues[result] = secondValue;
+				result++;
+			}
+		}
+		return result;
+	}
+
+	public int getCapacity() {
+		return capacity - 1;
+	}
+
+	public long getRetention() {
+		return retention;
+	}
+}
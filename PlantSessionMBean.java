@@ -0,0 +1,42 @@
+/**
+ * PlantSessionMBean
+ *
+ * Management interface of plant served by connector agent, registered as
+ * "agentControlSystem:type=Plant,connector=<agent name>,name=<plant key>"
+ * while connector serves the plant. Times of parsing frames, of waiting for
+ * dispatcher and of sending them to subscribers are registered with the
+ * same name and additional key "histogram=parseTime", "histogram=queueTime"
+ * and "histogram=fanOutTime".
+ */
+
+package agentControlSystem;
+
+public interface PlantSessionMBean {
+
+	/**
+	 * @return "IP:port" of plant or reference of replayed recording
+	 */
+	String getPlant();
+
+	String getConnectionState();
+
+	int getSubscribers();
+
+	long getReceivedFrames();
+
+	long getReceivedBytes();
+
+	double getFramesPerSecond();
+
+	double getBytesPerSecond();
+
+	/**
+	 * @return frames waiting for dispatcher
+	 */
+	int getDispatchQueueDepth();
+
+	/**
+	 * @return frames dropped because dispatcher could not keep up
+	 */
+	long getDroppedFrames();
+}
@@ -0,0 +1,316 @@
+/**
+ * PlantSimulator
+ *
+ * Stand-alone TCP server imitating LabView plants, for load testing of
+ * connector agents without real plant. Every simulated plant listens on
+ * its own port and sends to every connected client "Flatten to XML"
+ * frames (<Cluster> with <Name>/<Val> pairs), as ReadFromPlant expects.
+ *
+ * Usage:
+ *   java agentControlSystem.PlantSimulator [key=value ...]
+ * Arguments:
+ *   plants=1              - number of simulated plants
+ *   basePort=6000         - port of first plant, next plants use next ports
+ *   bindAddress=127.0.0.1 - address plants listen on
+ *   vars=10               - number of variables of every plant
+ *   rate=10               - frames per second sent to every client
+ *   dynamics=sine         - values: sine, walk (random walk), ramp or constant
+ *   noise=0               - amplitude of noise added to values
+ *   burst=1               - frames sent together, pauses between bursts keep the rate
+ *   split=0               - when above 0 frames are written in random chunks
+ *                           of at most that many bytes (partial reads on client side)
+ *   disconnectAfter=0     - mean time (s) after which client is disconnected
+ *                           in the middle of frame, 0 never
+ *   threads=2             - threads writing frames
+ *   seed=1                - seed of random generators, same seed gives same data
+ *
+ * Plants hosted by one process share acceptor thread and writer threads,
+ * so hundreds of plants can be simulated on one machine. Writes never
+ * block: frames are not generated for client that does not read until
+ * previous frames are sent.
+ */
+
+package agentControlSystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PlantSimulator {
+	public static final String DYNAMICS_SINE = "sine";
+	public static final String DYNAMICS_WALK = "walk";
+	public static final String DYNAMICS_RAMP = "ramp";
+	public static final String DYNAMICS_CONSTANT = "constant";
+
+	private static final int STATISTICS_PERIOD = 10; // s
+
+	private final int plantsCount;
+	private final int basePort;
+	private final String bindAddress;
+	private final int varCount;
+	private final double rate;
+	private final String dynamics;
+	private final double noise;
+	private final int burst;
+	private final int split;
+	private final double disconnectAfter;
+	private final long seed;
+
+	private final Selector acceptSelector;
+	private final ScheduledExecutorService writers;
+
+	private final AtomicInteger clientsCount = new AtomicInteger();
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong stalledTicks = new AtomicLong();
+	private final AtomicLong disconnectsInjected = new AtomicLong();
+
+	public PlantSimulator(AgentArguments arguments) throws IOException {
+		plantsCount = arguments.getInt("plants", 1);
+		basePort = arguments.getInt("basePort", 6000);
+		bindAddress = arguments.getString("bindAddress", "127.0.0.1");
+		varCount = arguments.getInt("vars", 10);
+		rate = arguments.getDouble("rate", 10);
+		dynamics = arguments.getString("dynamics", DYNAMICS_SINE);
+		noise = arguments.getDouble("noise", 0);
+		burst = Math.max(1, arguments.getInt("burst", 1));
+		split = arguments.getInt("split", 0);
+		disconnectAfter = arguments.getDouble("disconnectAfter", 0);
+		seed = arguments.getLong("seed", 1);
+		acceptSelector = Selector.open();
+		writers = Executors.newScheduledThreadPool(Math.max(1, arguments.getInt("threads", 2)));
+	}
+
+	public static void main(String[] args) throws IOException {
+		new PlantSimulator(new AgentArguments(args)).run();
+	}
+
+	/**
+	 * Opens ports of all plants and accepts clients until process is killed.
+	 */
+	public void run() throws IOException {
+		for (int i = 0; i < plantsCount; i++) {
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(bindAddress, basePort + i));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT, basePort + i);
+		}
+		System.out.println("Simulating " + plantsCount + " plants on " + bindAddress + ":" + basePort + "-"
+				+ (basePort + plantsCount - 1) + ", " + varCount + " variables, " + rate + " frames/s");
+		writers.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				System.out.println("Clients: " + clientsCount.get() + ", frames sent: " + framesSent.get()
+						+ ", bytes sent: " + bytesSent.get() + ", stalled ticks: " + stalledTicks.get()
+						+ ", injected disconnects: " + disconnectsInjected.get());
+			}
+		}, STATISTICS_PERIOD, STATISTICS_PERIOD, TimeUnit.SECONDS);
+
+		while (true) {
+			acceptSelector.select();
+			for (SelectionKey key : acceptSelector.selectedKeys()) {
+				SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+				if (channel != null) {
+					startClient(channel, (Integer) key.attachment());
+				}
+			}
+			acceptSelector.selectedKeys().clear();
+		}
+	}
+
+	private void startClient(SocketChannel channel, int port) {
+		try {
+			channel.configureBlocking(false);
+			if (split > 0) {
+				// Otherwise chunks would be joined into one segment anyway.
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			}
+			ClientConnection connection = new ClientConnection(channel, port);
+			long period = Math.max(1, Math.round(burst * 1000000.0 / rate));
+			connection.future = writers.scheduleAtFixedRate(connection, period, period, TimeUnit.MICROSECONDS);
+			clientsCount.incrementAndGet();
+			System.out.println("Plant " + port + " - client connected from " + channel.getRemoteAddress());
+		} catch (IOException e) {
+			System.out.println("Plant " + port + " - cannot start client, " + e.getMessage());
+			closeQuietly(channel);
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Appends frame in LabView "Flatten to XML" form of cluster of DBL values.
+	 * @param frame - builder to append to
+	 * @param names - names of variables
+	 * @param values - values of variables
+	 */
+	public static void appendFrame(StringBuilder frame, String[] names, double[] values) {
+		frame.append("<Cluster>\r\n<Name>Plant</Name>\r\n<NumElts>").append(names.length).append("</NumElts>\r\n");
+		for (int i = 0; i < names.length; i++) {
+			frame.append("<DBL>\r\n<Name>").append(names[i]).append("</Name>\r\n<Val>");
+			PlantValueStore.appendFormatted(frame, values[i], 5);
+			frame.append("</Val>\r\n</DBL>\r\n");
+		}
+		frame.append("</Cluster>\r\n");
+	}
+
+	/**
+	 * Creates names of simulated variables, e.g. "Var0001".
+	 */
+	public static String[] createNames(int varCount) {
+		String[] names = new String[varCount];
+		for (int i = 0; i < varCount; i++) {
+			names[i] = String.format("Var%04d", i + 1);
+		}
+		return names;
+	}
+
+	/**
+	 * Single client of simulated plant. Every client gets its own values, generated
+	 * from seed and plant port, so they do not depend on number of clients.
+	 */
+	private class ClientConnection implements Runnable {
+		private final SocketChannel channel;
+		private final int port;
+		private final Random random;
+		private final String[] names;
+		private final double[] values;
+		private final double[] periods;
+		private final double[] phases;
+		private final StringBuilder frame;
+		private ByteBuffer pending;
+		private final long startTime;
+		private long disconnectTime;
+		private long frameNumber;
+		ScheduledFuture<?> future;
+
+		ClientConnection(SocketChannel channel, int port) {
+			this.channel = channel;
+			this.port = port;
+			random = new Random(seed * 31 + port);
+			names = createNames(varCount);
+			values = new double[varCount];
+			periods = new double[varCount];
+			phases = new double[varCount];
+			for (int i = 0; i < varCount; i++) {
+				values[i] = random.nextDouble() * 100.0;
+				periods[i] = 1.0 + random.nextDouble() * 59.0;
+				phases[i] = random.nextDouble() * 2 * Math.PI;
+			}
+			frame = new StringBuilder();
+			pending = ByteBuffer.allocate(0);
+			startTime = System.nanoTime();
+			if (disconnectAfter > 0) {
+				// Uniformly spread around mean, so clients do not disconnect all at once.
+				disconnectTime = startTime + (long) ((0.5 + random.nextDouble()) * disconnectAfter * 1e9);
+			}
+		}
+
+		public void run() {
+			try {
+				if (pending.hasRemaining()) {
+					writePending();
+					if (pending.hasRemaining()) {
+						// Client does not keep up, new frames are not generated until it reads old ones.
+						stalledTicks.incrementAndGet();
+						return;
+					}
+				}
+				long now = System.nanoTime();
+				if (disconnectTime != 0 && now >= disconnectTime) {
+					injectDisconnect(now);
+					return;
+				}
+				frame.setLength(0);
+				for (int i = 0; i < burst; i++) {
+					updateValues((now - startTime) / 1e9);
+					appendFrame(frame, names, values);
+				}
+				fillPending();
+				writePending();
+				framesSent.addAndGet(burst);
+			} catch (IOException e) {
+				close("client disconnected");
+			}
+		}
+
+		private void updateValues(double time) {
+			frameNumber++;
+			for (int i = 0; i < varCount; i++) {
+				if (dynamics.equals(DYNAMICS_SINE)) {
+					values[i] = 50.0 + 50.0 * Math.sin(2 * Math.PI * time / periods[i] + phases[i]);
+				} else if (dynamics.equals(DYNAMICS_WALK)) {
+					values[i] += random.nextGaussian();
+				} else if (dynamics.equals(DYNAMICS_RAMP)) {
+					values[i] = 100.0 * ((time / periods[i] + phases[i]) % 1.0);
+				}
+				if (noise > 0) {
+					values[i] += noise * (2 * random.nextDouble() - 1);
+				}
+			}
+		}
+
+		private void fillPending() {
+			if (pending.capacity() < frame.length()) {
+				pending = ByteBuffer.allocate(frame.length() * 2);
+			}
+			pending.clear();
+			// Frames contain ASCII characters only.
+			for (int i = 0; i < frame.length(); i++) {
+				pending.put((byte) frame.charAt(i));
+			}
+			pending.flip();
+		}
+
+		private void writePending() throws IOException {
+			while (pending.hasRemaining()) {
+				int limit = pending.limit();
+				if (split > 0) {
+					pending.limit(Math.min(limit, pending.position() + 1 + random.nextInt(split)));
+				}
+				int written = channel.write(pending);
+				pending.limit(limit);
+				bytesSent.addAndGet(written);
+				if (written == 0) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Sends part of frame and closes connection, as plant crashing while sending data.
+		 */
+		private void injectDisconnect(long now) throws IOException {
+			frame.setLength(0);
+			updateValues((now - startTime) / 1e9);
+			appendFrame(frame, names, values);
+			frame.setLength(random.nextInt(frame.length()));
+			fillPending();
+			channel.write(pending);
+			disconnectsInjected.incrementAndGet();
+			close("disconnect injected after " + frameNumber + " frames");
+		}
+
+		private void close(final String reason) {
+			future.cancel(false);
+			closeQuietly(channel);
+			clientsCount.decrementAndGet();
+			System.out.println("Plant " + port + " - " + reason);
+		}
+	}
+}
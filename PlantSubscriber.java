@@ -0,0 +1,150 @@
+/**
+ * PlantSubscriber
+ *
+ * Subscription to plant data together with preferences declared
+ * by subscriber in SUBSCRIBE message.
+ */
+
+package agentControlSystem;
+
+import jade.core.behaviours.Behaviour;
+import jade.lang.acl.ACLMessage;
+import jade.proto.SubscriptionResponder;
+
+public class PlantSubscriber {
+	public static final String MAX_RATE = "maxRate";
+
+	private final SubscriptionResponder.Subscription subscription;
+	private final VariableSelection selection;
+	private final int[] slots;
+	
+	/**
+	 * True if subscriber negotiated binary content (see BinaryPayloadEncoder).
+	 */
+	private boolean binaryEncoding;
+	
+	/**
+	 * Rate-limited delivery, buffer is null when every frame is delivered immediately.
+	 */
+	private ConflatingBuffer conflatingBuffer;
+	private Behaviour publisher;
+	
+	/**
+	 * Frames collected for batched delivery, null when every frame is sent in its own message.
+	 */
+	private FrameBatch frameBatch;
+	
+	/**
+	 * True until dispatcher sent keyframe requested by requestKeyframe().
+	 */
+	private volatile boolean keyframeRequested;
+
+	/**
+	 * @param subscription - subscription created by responder
+	 * @param selection - variables requested by subscriber
+	 * @param varNames - names of plant variables ordered by slot
+	 */
+	public PlantSubscriber(SubscriptionResponder.Subscription subscription, VariableSelection selection,
+			String[] varNames) {
+		this.subscription = subscription;
+		this.selection = selection;
+		this.slots = selection.selectsAll() ? null : selection.compile(varNames);
+	}
+
+	public boolean selectsAll() {
+		return slots == null;
+	}
+
+	/**
+	 * @return ascending slots of selected variables, null when all variables are selected
+	 */
+	public int[] getSlots() {
+		return slots;
+	}
+
+	/**
+	 * Makes delivery rate-limited, frames are collected in returned buffer instead of being sent.
+	 * @param varCount - number of plant variables
+	 * @param withMinMax - true if minimum and maximum over interval should be delivered
+	 * @return buffer collecting frames
+	 */
+	public ConflatingBuffer enableConflation(int varCount, boolean withMinMax) {
+		conflatingBuffer = new ConflatingBuffer(slots, varCount, withMinMax);
+		return conflatingBuffer;
+	}
+
+	/**
+	 * @return buffer collecting frames, null if delivery is not rate-limited
+	 */
+	public ConflatingBuffer getConflatingBuffer() {
+		return conflatingBuffer;
+	}
+
+	public void setPublisher(Behaviour publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * @return behaviour delivering conflated frames, null if delivery is not rate-limited
+	 */
+	public Behaviour getPublisher() {
+		return publisher;
+	}
+
+	/**
+	 * Makes frames be sent in batches, encoding of subscriber should be already set.
+	 * @param maxFrames - maximum number of frames in batch
+	 * @param linger - time (ms) the first frame of batch may wait for more frames
+	 * @return batch collecting frames
+	 */
+	public FrameBatch enableBatching(int maxFrames, long linger) {
+		frameBatch = new FrameBatch(maxFrames, linger, binaryEncoding);
+		return frameBatch;
+	}
+
+	/**
+	 * @return batch collecting frames, null if frames are not batched
+	 */
+	public FrameBatch getFrameBatch() {
+		return frameBatch;
+	}
+
+	public void setBinaryEncoding(boolean binaryEncoding) {
+		this.binaryEncoding = binaryEncoding;
+	}
+
+	public boolean isBinaryEncoding() {
+		return binaryEncoding;
+	}
+
+	/**
+	 * Makes dispatcher send all selected values with the next frame, called before subscriber is added.
+	 */
+	public void requestKeyframe() {
+		keyframeRequested = true;
+	}
+
+	/**
+	 * Clears keyframe request, called by dispatcher thread only.
+	 * @return true if keyframe was requested
+	 */
+	public boolean takeKeyframeRequest() {
+		if (!keyframeRequested) {
+			return false;
+		}
+		keyframeRequested = false;
+		return true;
+	}
+
+	public VariableSelection getSelection() {
+		return selection;
+	}
+
+	public void notify(ACLMessage message) {
+		subscription.notify(message);
+	}
+
+	public void close() {
+		subscription.close();
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * PlantTableModel
+ *
+ * Table of values of all monitored plants, one row per variable. Rows of
+ * plant are kept together, so plant is added and removed as one block and
+ * changed value repaints only its own cell. Table renders only visible
+ * rows, so number of variables does not slow down GUI.
+ *
+ * Used only by Swing event dispatch thread.
+ */
+
+package agentControlSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+public class PlantTableModel extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+
+	public static final int PLANT_COLUMN = 0;
+	public static final int NAME_COLUMN = 1;
+	public static final int VALUE_COLUMN = 2;
+
+	private static final String[] COLUMN_NAMES = {"Plant", "Variable", "Value"};
+
+	/**
+	 * Rows of one plant.
+	 */
+	public static class Plant {
+		private final String connectionID;
+		private final String showID;
+		private final String[] names;
+		private final String[] values;
+		private boolean stale;
+		private int firstRow;
+
+		private Plant(final String connectionID, final String showID, String[] names) {
+			this.connectionID = connectionID;
+			this.showID = showID;
+			this.names = names;
+			values = new String[names.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = "none";
+			}
+		}
+
+		public String getConnectionID() { return connectionID; }
+		public String getShowID() { return showID; }
+		public boolean isStale() { return stale; }
+		public int getFirstRow() { return firstRow; }
+
+		/**
+		 * @return name of variable in given slot
+		 */
+		public String getName(int slot) { return names[slot]; }
+		public int size() { return names.length; }
+	}
+
+	private final List<Plant> plants;
+	private int rowCount;
+
+	public PlantTableModel() {
+		plants = new ArrayList<Plant>();
+	}
+
+	/**
+	 * Adds rows of plant at the end of table.
+	 * @param connectionID - ID of connection
+	 * @param showID - ID shown in table
+	 * @param names - names of variables ordered by slot
+	 */
+	public Plant addPlant(final String connectionID, final String showID, String[] names) {
+		Plant plant = new Plant(connectionID, showID, names);
+		plant.firstRow = rowCount;
+		plants.add(plant);
+		rowCount += names.length;
+		if (names.length > 0) {
+			fireTableRowsInserted(plant.firstRow, rowCount - 1);
+		}
+		return plant;
+	}
+
+	/**
+	 * Removes rows of plant, only rows of following plants are moved.
+	 */
+	public void removePlant(Plant plant) {
+		int index = plants.indexOf(plant);
+		if (index < 0) {
+			return;
+		}
+		plants.remove(index);
+		for (int i = index; i < plants.size(); i++) {
+			plants.get(i).firstRow -= plant.size();
+		}
+		rowCount -= plant.size();
+		if (plant.size() > 0) {
+			fireTableRowsDeleted(plant.firstRow, plant.firstRow + plant.size() - 1);
+		}
+	}
+
+	public void setValue(Plant plant, int slot, final String value) {
+		plant.values[slot] = value;
+		fireTableCellUpdated(plant.firstRow + slot, VALUE_COLUMN);
+	}
+
+	public void setStale(Plant plant, boolean stale) {
+		if (plant.stale != stale && plant.size() > 0) {
+			plant.stale = stale;
+			fireTableRowsUpdated(plant.firstRow, plant.firstRow + plant.size() - 1);
+		}
+	}
+
+	/**
+	 * @return plant which row is given row, null if there is no such row
+	 */
+	public Plant getPlantAt(int row) {
+		int low = 0;
+		int high = plants.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Plant plant = plants.get(middle);
+			if (row < plant.firstRow) {
+				high = middle - 1;
+			} else if (row >= plant.firstRow + plant.size()) {
+				low = middle + 1;
+			} else {
+				return plant;
+			}
+		}
+		return null;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return COLUMN_NAMES.length;
+	}
+
+	public String getColumnName(int column) {
+		return COLUMN_NAMES[column];
+	}
+
+	public Object getValueAt(int row, int column) {
+		Plant plant = getPlantAt(row);
+		if (plant == null) {
+			return null;
+		}
+		int slot = row - plant.firstRow;
+		if (column == PLANT_COLUMN) {
+			return plant.showID;
+		} else if (column == NAME_COLUMN) {
+			return plant.names[slot];
+		} else {
+			return plant.values[slot];
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * PlantUpdateDecoder
+ *
+ * Decodes content of INFORM sent by connector agent ("name1:value1;name2:value2")
+ * and passes every received variable to sink by its slot. Aggregated values
+ * sent as "last,min,max" are shown as "last [min .. max]".
+ */
+
+package agentControlSystem;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class PlantUpdateDecoder {
+
+	/**
+	 * Receives decoded values, e.g. GUI presenting them.
+	 */
+	public interface SlotSink {
+		/**
+		 * Resolves name of variable to slot, e.g. by NameSlots.
+		 * @param content - content of message
+		 * @param start - start of name in content
+		 * @param end - end of name in content (exclusive)
+		 * @param position - position of variable in content
+		 * @return slot of variable, -1 if variable is unknown
+		 */
+		int resolveSlot(final String content, int start, int end, int position);
+
+		/**
+		 * @param slot - slot of updated variable
+		 * @param varVal - new value
+		 */
+		void updateValue(int slot, final String varVal);
+	}
+
+	/**
+	 * Resolves names of variables to slots. Connector sends variables in the same order in every
+	 * frame, so slot is remembered by position of variable in content and name is only compared
+	 * in place, name not seen at its position is looked up once. Used by one thread only.
+	 */
+	public static class NameSlots {
+		private final Map<String, Integer> slots;
+		private String[] names;
+		private int[] nameSlots;
+
+		/**
+		 * @param slots - slots of variables by name
+		 */
+		public NameSlots(Map<String, Integer> slots) {
+			this.slots = slots;
+			names = new String[16];
+			nameSlots = new int[16];
+		}
+
+		public int resolve(final String content, int start, int end, int position) {
+			if (position >= names.length) {
+				int capacity = Math.max(names.length * 2, position + 1);
+				names = Arrays.copyOf(names, capacity);
+				nameSlots = Arrays.copyOf(nameSlots, capacity);
+			}
+			String name = names[position];
+			if (name != null && name.length() == end - start && content.startsWith(name, start)) {
+				return nameSlots[position];
+			}
+			name = content.substring(start, end);
+			Integer slot = slots.get(name);
+			names[position] = name;
+			nameSlots[position] = slot != null ? slot : -1;
+			return nameSlots[position];
+		}
+	}
+
+	/**
+	 * Decodes update message content.
+	 * @param messageContent - content of INFORM message
+	 * @param withMinMax - true if values are aggregated as "last,min,max"
+	 * @param sink - receiver of decoded values
+	 */
+	public static void decode(String messageContent, boolean withMinMax, SlotSink sink) {
+		messageContent = messageContent.trim();
+		// Connector in delta mode sends only variables that changed (frame-type "delta"),
+		// so only received variables are updated and the rest keep their last values.
+		int position = 0;
+		int pairStart = 0;
+		while (pairStart < messageContent.length()) {
+			int pairEnd = messageContent.indexOf(';', pairStart);
+			if (pairEnd < 0) {
+				pairEnd = messageContent.length();
+			}
+			int separator = messageContent.indexOf(':', pairStart);
+			if (separator >= 0 && separator < pairEnd - 1) {
+				int slot = sink.resolveSlot(messageContent, pairStart, separator, position);
+				if (slot >= 0) {
+					String varVal = messageContent.substring(separator + 1, pairEnd);
+					if (withMinMax) {
+						// Aggregated value is sent as "last,min,max"
+						String aggregated[] = varVal.split(",");
+						if (aggregated.length == 3) {
+							varVal = aggregated[0] + " [" + aggregated[1] + " .. " + aggregated[2] + "]";
+						}
+					}
+					sink.updateValue(slot, varVal);
+				}
+			}
+			position++;
+			pairStart = pairEnd + 1;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * PlantValueStore
+ *
+ * Stores current values of plant variables as primitive doubles. Every
+ * variable name is interned to dense slot index when the first frame is
+ * received, afterwards the set of variables is fixed and values are kept
+ * in double[] with per-slot timestamps.
+ *
+ * Store has single writer (thread reading plant data). Writer fills working
+ * arrays and publishes them on commitFrame() into one of two buffers, readers
+ * take snapshots without locks and retry only if writer overwrote the buffer
+ * they were reading.
+ */
+
+package agentControlSystem;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PlantValueStore {
+
+	public static final int DEFAULT_PRECISION = 2;
+
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L};
+
+	// Schema, modified only by writer before it is frozen.
+	private final Map<String, Integer> slotMap;
+	private final List<String> pendingNames;
+	private volatile String[] names;
+	private int expectedSlot;
+
+	// Writer's working arrays.
+	private double[] workValues;
+	private long[] workTimestamps;
+
+	// Published buffers, readers use the one referenced by frontBuffer.
+	private Buffer bufferA;
+	private Buffer bufferB;
+	private volatile Buffer frontBuffer;
+
+	public PlantValueStore() {
+		slotMap = new HashMap<String, Integer>();
+		pendingNames = new ArrayList<String>();
+		workValues = new double[16];
+		workTimestamps = new long[16];
+	}
+
+	/**
+	 * Sets value of variable, called by writer only. Before schema is frozen unknown
+	 * names are interned, later they are ignored.
+	 * @param varName - variable name
+	 * @param varVal - variable value
+	 * @param timestamp - time when value was received (ms)
+	 * @return slot of variable or -1 if variable is unknown
+	 */
+	public int update(final String varName, double varVal, long timestamp) {
+		int slot = findWriterSlot(varName);
+		if (slot < 0 && names == null) {
+			slot = pendingNames.size();
+			slotMap.put(varName, slot);
+			pendingNames.add(varName);
+			if (slot == workValues.length) {
+				workValues = Arrays.copyOf(workValues, slot * 2);
+				workTimestamps = Arrays.copyOf(workTimestamps, slot * 2);
+			}
+		}
+		if (slot >= 0) {
+			workValues[slot] = varVal;
+			workTimestamps[slot] = timestamp;
+			expectedSlot = slot + 1;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns slot of variable for writer, expectedSlot is owned by writer so other threads use findSlot().
+	 */
+	private int findWriterSlot(final String varName) {
+		// Plant sends variables always in the same order, so usually next slot is the one.
+		String[] currentNames = names;
+		if (currentNames != null && expectedSlot < currentNames.length && currentNames[expectedSlot].equals(varName)) {
+			return expectedSlot;
+		}
+		return findSlot(varName);
+	}
+
+	/**
+	 * Returns slot of variable, -1 if it is unknown. Before schema is ready it can be
+	 * called by writer only, later from any thread.
+	 */
+	public int findSlot(final String varName) {
+		Integer slot = slotMap.get(varName);
+		return slot != null ? slot : -1;
+	}
+
+	/**
+	 * Publishes values written since last commit, called by writer after every frame.
+	 * The first commit freezes the set of variables.
+	 */
+	public void commitFrame() {
+		if (names == null) {
+			int size = pendingNames.size();
+			workValues = Arrays.copyOf(workValues, size);
+			workTimestamps = Arrays.copyOf(workTimestamps, size);
+			bufferA = new Buffer(size);
+			bufferB = new Buffer(size);
+			names = pendingNames.toArray(new String[size]);
+		}
+		expectedSlot = 0;
+		Buffer backBuffer = (frontBuffer == bufferA) ? bufferB : bufferA;
+		backBuffer.sequence++; // odd sequence - buffer is being written
+		VarHandle.storeStoreFence();
+		System.arraycopy(workValues, 0, backBuffer.values, 0, workValues.length);
+		System.arraycopy(workTimestamps, 0, backBuffer.timestamps, 0, workTimestamps.length);
+		backBuffer.sequence++;
+		frontBuffer = backBuffer;
+	}
+
+	/**
+	 * @return true after the first frame was committed
+	 */
+	public boolean isSchemaReady() {
+		return names != null;
+	}
+
+	/**
+	 * @return number of variables, 0 before schema is ready
+	 */
+	public int size() {
+		String[] currentNames = names;
+		return currentNames != null ? currentNames.length : 0;
+	}
+
+	/**
+	 * @return names of variables ordered by slot, null before schema is ready
+	 */
+	public String[] getNames() {
+		String[] currentNames = names;
+		return currentNames != null ? currentNames.clone() : null;
+	}
+
+	/**
+	 * Returns name of variable in slot.
+	 */
+	public String getName(int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * Copies last committed values, can be called from any thread.
+	 * @param values - array of at least size() elements
+	 * @param timestamps - array of at least size() elements or null
+	 * @return false if nothing was committed yet
+	 */
+	public boolean readSnapshot(double[] values, long[] timestamps) {
+		while (true) {
+			Buffer buffer = frontBuffer;
+			if (buffer == null) {
+				return false;
+			}
+			long sequence = buffer.sequence;
+			if ((sequence & 1) == 0) {
+				System.arraycopy(buffer.values, 0, values, 0, buffer.values.length);
+				if (timestamps != null) {
+					System.arraycopy(buffer.timestamps, 0, timestamps, 0, buffer.timestamps.length);
+				}
+				VarHandle.loadLoadFence();
+				if (buffer.sequence == sequence) {
+					return true;
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Appends value formatted with given number of decimal places. Decimal separator
+	 * is always '.', so text does not depend on agent's locale.
+	 * @param sb - builder to append to
+	 * @param value - formatted value
+	 * @param precision - number of decimal places (0-9)
+	 */
+	public static void appendFormatted(StringBuilder sb, double value, int precision) {
+		long scale = POWERS_OF_TEN[precision];
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e18 / scale) {
+			sb.append(value);
+			return;
+		}
+		long scaled = Math.round(Math.abs(value) * scale);
+		if (value < 0 && scaled != 0) {
+			sb.append('-');
+		}
+		sb.append(scaled / scale);
+		if (precision > 0) {
+			sb.append('.');
+			long fraction = scaled % scale;
+			for (long digit = scale / 10; digit > fraction && digit > 1; digit /= 10) {
+				sb.append('0');
+			}
+			sb.append(fraction);
+		}
+	}
+
+	/**
+	 * Formats value with given number of decimal places.
+	 */
+	public static String format(double value, int precision) {
+		StringBuilder sb = new StringBuilder(24);
+		appendFormatted(sb, value, precision);
+		return sb.toString();
+	}
+
+	private static class Buffer {
+		final double[] values;
+		final long[] timestamps;
+		volatile long sequence;
+
+		Buffer(int size) {
+			values = new double[size];
+			timestamps = new long[size];
+		}
+	}
+}
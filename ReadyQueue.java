@@ -0,0 +1,102 @@
+/**
+ * ReadyQueue
+ *
+ * Queue of items which have work waiting for single consumer thread, e.g.
+ * plant sessions with frames waiting for dispatcher. Item is queued at most
+ * once until consumer takes it, so one thread serves thousands of items
+ * without scanning them and producers never lock or wait.
+ *
+ * Every item is queued through its own Entry, which remembers whether the
+ * item is queued already.
+ */
+
+package agentControlSystem;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+public class ReadyQueue<T> {
+
+	/**
+	 * Item together with its queued flag, created once per item.
+	 */
+	public static class Entry<T> {
+		private final T item;
+		private final AtomicBoolean queued;
+
+		public Entry(T item) {
+			this.item = item;
+			queued = new AtomicBoolean();
+		}
+
+		public T getItem() {
+			return item;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Entry<T>> entries;
+	private volatile Thread waitingConsumer;
+
+	public ReadyQueue() {
+		entries = new ConcurrentLinkedQueue<Entry<T>>();
+	}
+
+	/**
+	 * Queues item unless it is queued already, called by producers after they added work.
+	 */
+	public void add(Entry<T> entry) {
+		if (entry.queued.compareAndSet(false, true)) {
+			entries.add(entry);
+			Thread consumer = waitingConsumer;
+			if (consumer != null) {
+				LockSupport.unpark(consumer);
+			}
+		}
+	}
+
+	/**
+	 * Takes next item without waiting, called by consumer. Item may be queued again as soon
+	 * as it is taken, so work added while consumer processes it is not missed.
+	 * @return next item, null if there is none
+	 */
+	public T poll() {
+		Entry<T> entry = entries.poll();
+		if (entry == null) {
+			return null;
+		}
+		entry.queued.set(false);
+		return entry.item;
+	}
+
+	/**
+	 * Waits for next item, called by consumer.
+	 * @param timeout - maximum time to wait (ms)
+	 * @return next item, null if none was queued in time
+	 */
+	public T take(long timeout) {
+		T item = poll();
+		if (item == null) {
+			waitingConsumer = Thread.currentThread();
+			// Checking again after announcing, so add() between checks is not missed.
+			item = poll();
+			if (item == null) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeout));
+				item = poll();
+			}
+			waitingConsumer = null;
+		}
+		return item;
+	}
+
+	/**
+	 * Wakes consumer waiting in take(), e.g. when it should stop.
+	 */
+	public void wakeConsumer() {
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+}
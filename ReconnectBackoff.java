@@ -0,0 +1,67 @@
+/**
+ * ReconnectBackoff
+ *
+ * Delays between attempts to reconnect lost plant connection. Delay doubles
+ * with every attempt, from minDelay up to maxDelay, and is randomly chosen
+ * from its upper half, so connectors which lost their plants at the same
+ * moment (e.g. network failure) do not reconnect all at once.
+ *
+ * Used only by thread handling the connection, so it is not synchronized.
+ */
+
+package agentControlSystem;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ReconnectBackoff {
+
+	public static final long DEFAULT_MIN_DELAY = 500; // ms
+	public static final long DEFAULT_MAX_DELAY = 30000; // ms
+
+	private final long minDelay;
+	private final long maxDelay;
+	private final int maxAttempts;
+	private int attempts;
+
+	/**
+	 * @param minDelay - delay of the first attempt (ms)
+	 * @param maxDelay - maximum delay (ms)
+	 * @param maxAttempts - number of attempts after which connection is given up, 0 for unlimited
+	 */
+	public ReconnectBackoff(long minDelay, long maxDelay, int maxAttempts) {
+		this.minDelay = Math.max(1, minDelay);
+		this.maxDelay = Math.max(this.minDelay, maxDelay);
+		this.maxAttempts = Math.max(0, maxAttempts);
+	}
+
+	/**
+	 * Counts next attempt and returns its delay.
+	 * @return time to wait before attempt (ms)
+	 */
+	public long nextDelay() {
+		attempts++;
+		long delay = minDelay << Math.min(attempts - 1, 30);
+		if (delay > maxDelay || delay <= 0) {
+			delay = maxDelay;
+		}
+		return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * @return true if all allowed attempts were made
+	 */
+	public boolean isExhausted() {
+		return maxAttempts > 0 && attempts >= maxAttempts;
+	}
+
+	/**
+	 * Starts counting from the first attempt, called when connection is established again.
+	 */
+	public void reset() {
+		attempts = 0;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * RecordingReplay
+ *
+ * Reads frames recorded by FrameRecorder, in order of recording, and
+ * paces them to be replayed in real time, faster or as fast as possible.
+ * Replay is described by reference in form:
+ *   replay:<directory>/<recording name>[@speed]
+ * where speed is "1" (real time, default), "<N>" or "<N>x" (N times faster)
+ * or "max" (without pauses), e.g. "replay:/data/recordings/connector1@10x".
+ */
+
+package agentControlSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class RecordingReplay {
+
+	public static final String PREFIX = "replay:";
+	public static final String MAX_SPEED = "max";
+
+	private final String reference;
+	private final double speed;
+	private final List<FrameRecorder.Segment> segments;
+
+	// Position of replay.
+	private int segmentIndex = -1;
+	private MappedByteBuffer segmentBuffer;
+	private long recordIndex;
+	private String[] names;
+	private double[] values;
+	private long timestamp;
+	private long framesCount;
+
+	// Time of the first frame and of start of replay, frames are scheduled relative to them.
+	private long firstTimestamp;
+	private long startTime;
+
+	/**
+	 * @return true if content of accept proposal is replay reference and not plant address
+	 */
+	public static boolean isReplayReference(final String content) {
+		return content != null && content.startsWith(PREFIX);
+	}
+
+	/**
+	 * Parses reference and indexes segments of recording.
+	 * @param reference - replay reference, see class comment
+	 * @throws IllegalArgumentException when reference or speed is incorrect
+	 * @throws IOException when recording has no segments
+	 */
+	public RecordingReplay(final String reference) throws IOException {
+		this.reference = reference;
+		String path = reference.substring(PREFIX.length()).trim();
+		String speedText = "1";
+		int speedStart = path.lastIndexOf('@');
+		if (speedStart >= 0) {
+			speedText = path.substring(speedStart + 1).trim();
+			path = path.substring(0, speedStart);
+		}
+		if (speedText.equals(MAX_SPEED)) {
+			speed = 0;
+		} else {
+			if (speedText.endsWith("x")) {
+				speedText = speedText.substring(0, speedText.length() - 1);
+			}
+			try {
+				speed = Double.parseDouble(speedText);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Incorrect replay speed " + speedText);
+			}
+			if (!(speed > 0)) {
+				throw new IllegalArgumentException("Incorrect replay speed " + speedText);
+			}
+		}
+		File recording = new File(path);
+		File directory = recording.getAbsoluteFile().getParentFile();
+		segments = FrameRecorder.indexSegments(directory, recording.getName());
+		if (segments.isEmpty()) {
+			throw new IOException("No recording " + recording.getName() + " in " + directory);
+		}
+	}
+
+	/**
+	 * Moves to next recorded frame.
+	 * @return false if there are no more frames
+	 * @throws IOException when segment cannot be read
+	 */
+	public boolean nextFrame() throws IOException {
+		while (segmentBuffer == null || recordIndex == segments.get(segmentIndex).getRecordCount()) {
+			if (segmentIndex + 1 == segments.size()) {
+				return false;
+			}
+			openSegment(++segmentIndex);
+		}
+		FrameRecorder.Segment segment = segments.get(segmentIndex);
+		int position = segment.getHeaderSize() + (int) (recordIndex * segment.getRecordSize());
+		timestamp = segmentBuffer.getLong(position);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = segmentBuffer.getDouble(position + 8 * (i + 1));
+		}
+		recordIndex++;
+		if (framesCount == 0) {
+			firstTimestamp = timestamp;
+			startTime = System.nanoTime();
+		}
+		framesCount++;
+		return true;
+	}
+
+	private void openSegment(int index) throws IOException {
+		FrameRecorder.Segment segment = segments.get(index);
+		try (FileChannel channel = FileChannel.open(segment.getFile().toPath(), StandardOpenOption.READ)) {
+			segmentBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		names = segment.getNames();
+		if (values == null || values.length != names.length) {
+			values = new double[names.length];
+		}
+		recordIndex = 0;
+	}
+
+	/**
+	 * Waits until current frame should be replayed according to replay speed.
+	 */
+	public void awaitFrameTime() {
+		if (speed == 0) {
+			return;
+		}
+		long frameTime = startTime + (long) ((timestamp - firstTimestamp) * 1000000.0 / speed);
+		long delay;
+		while ((delay = frameTime - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, delay);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return names of variables of current frame
+	 */
+	public String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * @return values of current frame ordered as names, array is reused for next frames
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return time when current frame was recorded (ms)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return number of frames read so far
+	 */
+	public long getFramesCount() {
+		return framesCount;
+	}
+
+	/**
+	 * @return time since first frame was read (ms)
+	 */
+	public long getElapsedTime() {
+		return framesCount > 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) : 0;
+	}
+
+	/**
+	 * @return replay speed, 0 for as fast as possible
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+
+	public String getReference() {
+		return reference;
+	}
+}
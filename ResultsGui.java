@@ -3,6 +3,24 @@
  * 
  * Gui in swing that presents data from plants.
  * 
+ * Methods are called by agent's thread, Swing components are changed only
+ * by event dispatch thread. Received values are stored in DirtyValueBuffer
+ * of plant and shown by timer refreshRate times per second, so repaints
+ * of all values changed meanwhile are done at once.
+ * 
+ * Values are shown in one table (see PlantTableModel), only visible rows
+ * are rendered and changed value repaints only its cell. Values received
+ * in binary content are stored as numbers and formatted only when shown.
+ * 
+ * Trend of selected variable is shown below the table (see TrendPanel).
+ * Samples of variable are collected since it was selected for the first
+ * time, up to trendHistory samples are kept for zooming.
+ * 
+ * Time from receiving values of plant to showing them is recorded in
+ * updateLatency histogram, it includes waiting for refresh timer. Values
+ * traced by connector (see LatencyTrace) are also recorded from reading
+ * of frame to receiving (deliveryLatency) and to showing (endToEndLatency).
+ * 
  * author - Jakub Pośpiech
  */
 
@@ -11,78 +29,227 @@ package agentControlSystem;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.DefaultTableCellRenderer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class ResultsGui extends JFrame {
+	private static final Logger LOGGER = Logger.getLogger(ResultsGui.class.getName());
+	
 	private GUIAgent myAgent;
 	
-	private JPanel mainPanel;
-	GroupLayout layout;
-	GroupLayout.ParallelGroup parallelGroup;
-	GroupLayout.SequentialGroup sequentialGroup;
+	private JTable valueTable;
+	private PlantTableModel tableModel;
+	private TrendPanel trendPanel;
+	private int trendHistory;
+	
+	/**
+	 * Values of plants by connection ID, created by agent's thread, table rows are created by event dispatch thread.
+	 */
+	private Map<String, PlantValues> plants;
+	private Timer refreshTimer;
+	
+	private final LatencyHistogram updateLatency;
+	private final LatencyHistogram deliveryLatency;
+	private final LatencyHistogram endToEndLatency;
+	private final LongAdder receivedUpdates;
+	private final LongAdder shownValues;
 	
-	private HashMap<String, JLabel> varMap;
-	private HashMap<String, JPanel> panelMap;
+	// Formatting numeric values, used by event dispatch thread only
+	private final StringBuilder formattedValue;
 	
-	ResultsGui(GUIAgent agent) {
+	private static class PlantValues {
+		private final String[] names;
+		private final HashMap<String, Integer> slots;
+		private final DirtyValueBuffer values;
+		private PlantTableModel.Plant rows;
+		
+		/**
+		 * Number of decimal places of numeric values, set by binary subscription.
+		 */
+		private volatile int precision = PlantValueStore.DEFAULT_PRECISION;
+		
+		/**
+		 * Trends of variables by slot, created by event dispatch thread when variable is selected.
+		 */
+		private final AtomicReferenceArray<TrendBuffer> trends;
+		
+		/**
+		 * Time (System.nanoTime()) of the oldest received update not shown yet, 0 if all were shown.
+		 */
+		private final AtomicLong receivedSince;
+		
+		/**
+		 * Time (System.nanoTime() of this JVM) when the oldest traced frame not shown yet was read, 0 if none.
+		 */
+		private final AtomicLong ingestedSince;
+		
+		/**
+		 * Time of trend samples of frame being received, 0 to sample at current time, and difference
+		 * between clock of this JVM and clock of connector for frames of batch. Used by agent thread only.
+		 */
+		private long trendTime;
+		private long batchClockOffset;
+		
+		PlantValues(String[] varTable) {
+			// Variable sent twice is shown once.
+			slots = new HashMap<String, Integer>();
+			List<String> uniqueNames = new ArrayList<String>();
+			for (String varName : varTable) {
+				if (slots.putIfAbsent(varName.trim(), uniqueNames.size()) == null) {
+					uniqueNames.add(varName.trim());
+				}
+			}
+			names = uniqueNames.toArray(new String[uniqueNames.size()]);
+			values = new DirtyValueBuffer(names.length);
+			trends = new AtomicReferenceArray<TrendBuffer>(names.length);
+			receivedSince = new AtomicLong();
+			ingestedSince = new AtomicLong();
+		}
+	}
+	
+	/**
+	 * @param refreshRate - maximum number of value refreshes per second
+	 * @param trendHistory - number of samples kept in trend of every selected variable
+	 */
+	ResultsGui(GUIAgent agent, int refreshRate, int trendHistory) {
 		super(agent.getLocalName());
 		
 		myAgent = agent;
+		this.trendHistory = trendHistory;
+		plants = new ConcurrentHashMap<String, PlantValues>();
+		updateLatency = new LatencyHistogram();
+		deliveryLatency = new LatencyHistogram();
+		endToEndLatency = new LatencyHistogram();
+		receivedUpdates = new LongAdder();
+		shownValues = new LongAdder();
+		formattedValue = new StringBuilder();
 		
-		mainPanel = new JPanel();
-		varMap = new HashMap<String, JLabel>();
-		panelMap = new HashMap<String, JPanel>();
+		tableModel = new PlantTableModel();
+		valueTable = new JTable(tableModel);
+		valueTable.setFillsViewportHeight(true);
+		valueTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		valueTable.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+			public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+					boolean hasFocus, int row, int column) {
+				super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+				// Values of plant whose connection was lost are greyed out.
+				PlantTableModel.Plant plant = tableModel.getPlantAt(row);
+				setEnabled(plant == null || !plant.isStale());
+				return this;
+			}
+		});
+		JScrollPane tablePane = new JScrollPane(valueTable);
+		tablePane.setPreferredSize(new Dimension(500, 400));
 		
-        layout = new GroupLayout(mainPanel);
-        layout.setAutoCreateGaps(true);
-        layout.setAutoCreateContainerGaps(true);
-        mainPanel.setLayout(layout);
-        parallelGroup = layout.createParallelGroup(GroupLayout.Alignment.LEADING);
-        sequentialGroup = layout.createSequentialGroup();
-        
-        layout.setHorizontalGroup(sequentialGroup);
-        layout.setVerticalGroup(parallelGroup);
-        
-        JLabel channelIDInfo = new JLabel("Channel ID:");
-        JLabel variableValuesInfo = new JLabel("Variable values:");
-        
-        parallelGroup.addGroup(layout.createSequentialGroup()
-        		.addComponent(channelIDInfo)
-        		.addComponent(variableValuesInfo));
-        sequentialGroup.addGroup(layout.createParallelGroup(GroupLayout.Alignment.TRAILING)
-        		.addComponent(channelIDInfo)
-        		.addComponent(variableValuesInfo));
-        
-        getContentPane().add(mainPanel);
-	}
-	
-	/**
-	 * Creates label to view every provided variable
-	 * @param connectionID - ID of connection, must be unique
-	 * @param varName - variable local name
-	 * @param panelParallel - parallel layout of panel
-	 * @param panelSequentail - sequential layout of panel
-	 * @param panelLayout - panel layout
-	 * 
-	 * @return 1 if label was created successfully, 0 if label already existed
-	 */
-	private void addLabel(final String connectionID, final String varName, GroupLayout.ParallelGroup panelParallel,
-			GroupLayout.SequentialGroup panelSequential, GroupLayout panelLayout) {
-		// Labels for all variables
-		JLabel varLabel = new JLabel("none");
-		JLabel varNameLabel = new JLabel(varName + ": ");
-		String fullVarName = connectionID + "_" + varName;
+		trendPanel = new TrendPanel();
+		valueTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+			public void valueChanged(ListSelectionEvent e) {
+				if (!e.getValueIsAdjusting()) {
+					showTrend(valueTable.getSelectedRow());
+				}
+			}
+		});
 		
-		if (!varMap.containsKey(fullVarName.trim())) {
-			varMap.put(fullVarName.trim(), varLabel);
-			panelParallel.addGroup(panelLayout.createSequentialGroup()
-					.addComponent(varNameLabel)
-					.addComponent(varLabel));
-			panelSequential.addGroup(panelLayout.createParallelGroup(GroupLayout.Alignment.TRAILING)
-					.addComponent(varNameLabel)
-					.addComponent(varLabel));
+		// Stop button stops monitoring plant of selected row
+		JButton stopButton = new JButton("STOP");
+		stopButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				int row = valueTable.getSelectedRow();
+				PlantTableModel.Plant plant = row >= 0 ? tableModel.getPlantAt(row) : null;
+				if (plant != null) {
+					myAgent.handleStopCommand(plant.getConnectionID());
+				}
+			}
+		});
+		JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		buttonPanel.add(new JLabel("Selected plant:"));
+		buttonPanel.add(stopButton);
+		
+		JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, tablePane, trendPanel);
+		splitPane.setResizeWeight(0.7);
+		getContentPane().add(splitPane, BorderLayout.CENTER);
+		getContentPane().add(buttonPanel, BorderLayout.SOUTH);
+		scaleGui();
+		
+		refreshTimer = new Timer(1000 / Math.max(1, refreshRate), new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				showChangedValues();
+			}
+		});
+		refreshTimer.start();
+	}
+	
+	/**
+	 * Shows values received since previous refresh, called by timer on event dispatch thread.
+	 */
+	private void showChangedValues() {
+		for (final PlantValues plant : plants.values()) {
+			final PlantTableModel.Plant rows = plant.rows;
+			if (rows != null) {
+				int shown = plant.values.drain(new DirtyValueBuffer.Consumer() {
+					public void apply(int slot, final String value) {
+						tableModel.setValue(rows, slot, value);
+					}
+					
+					public void apply(int slot, double last, double min, double max) {
+						formattedValue.setLength(0);
+						PlantValueStore.appendFormatted(formattedValue, last, plant.precision);
+						if (!Double.isNaN(min)) {
+							formattedValue.append(" [");
+							PlantValueStore.appendFormatted(formattedValue, min, plant.precision);
+							formattedValue.append(" .. ");
+							PlantValueStore.appendFormatted(formattedValue, max, plant.precision);
+							formattedValue.append(']');
+						}
+						tableModel.setValue(rows, slot, formattedValue.toString());
+					}
+				});
+				if (shown > 0) {
+					shownValues.add(shown);
+					long receivedTime = plant.receivedSince.getAndSet(0);
+					long ingestTime = plant.ingestedSince.getAndSet(0);
+					long now = System.nanoTime();
+					if (receivedTime != 0) {
+						updateLatency.record(now - receivedTime);
+					}
+					if (ingestTime != 0) {
+						endToEndLatency.record(now - ingestTime);
+					}
+				}
+			}
 		}
+		trendPanel.refresh();
+	}
+	
+	/**
+	 * Shows trend of variable in given row, trend is created when variable is selected for the first time.
+	 */
+	private void showTrend(int row) {
+		PlantTableModel.Plant rows = row >= 0 ? tableModel.getPlantAt(row) : null;
+		PlantValues plant = rows != null ? plants.get(rows.getConnectionID()) : null;
+		if (plant == null) {
+			trendPanel.setTrend(null, "Select variable to show its trend");
+			return;
+		}
+		int slot = row - rows.getFirstRow();
+		TrendBuffer trend = plant.trends.get(slot);
+		if (trend == null) {
+			trend = new TrendBuffer(trendHistory, TrendPanel.DEFAULT_SPAN, Math.max(1, trendPanel.getWidth()));
+			plant.trends.set(slot, trend);
+		}
+		trendPanel.setTrend(trend, rows.getShowID() + " " + rows.getName(slot));
 	}
 	
 	/**
@@ -109,89 +276,216 @@ public class ResultsGui extends JFrame {
 	}
 	
 	/**
-	 * Creates label to show variables values from plant
+	 * Creates table rows to show variables values from plant
 	 * @param connectionID - ID of connection, must be unique
 	 * @param showID - ID to show on GUI, may or may not be the same as connectionID
 	 * @param varTable - table with names of all variables needed
 	 */
-	public void createPlantLabels(final String connectionID, final String showID, String[] varTable) {
-		
-		JPanel plantPanel = new JPanel();
-        GroupLayout panelLayout = new GroupLayout(plantPanel);
-        panelLayout.setAutoCreateGaps(true);
-        panelLayout.setAutoCreateContainerGaps(true);
-        plantPanel.setLayout(panelLayout);
-        GroupLayout.ParallelGroup panelParallel = panelLayout.createParallelGroup(GroupLayout.Alignment.TRAILING);
-        GroupLayout.SequentialGroup panelSequential = panelLayout.createSequentialGroup();
-        
-        panelLayout.setHorizontalGroup(panelParallel);
-        panelLayout.setVerticalGroup(panelSequential);
-        
-        if (!panelMap.containsKey(connectionID.trim())) {
-        	panelMap.put(connectionID.trim(), plantPanel);
-        }
-        
-        JLabel conIDLabel = new JLabel(showID);
-		panelParallel.addComponent(conIDLabel);
-		panelSequential.addComponent(conIDLabel);
-        
-		for (int i = 0; i < varTable.length; i++) {
-			addLabel(connectionID, varTable[i], panelParallel, panelSequential, panelLayout);
-		}
+	public void createPlantLabels(final String connectionID, final String showID, final String[] varTable) {
+		// Values may arrive before rows are created, they are shown by the first refresh after that.
+		final PlantValues plant = new PlantValues(varTable);
+		// Plant connected again (e.g. after connector restart) replaces rows it had before.
+		final PlantValues previous = plants.put(connectionID.trim(), plant);
 		
-		// Stop button 
-		JButton stopButton = new JButton("STOP");
-		stopButton.addActionListener(new ActionListener() {
-			public void actionPerformed(ActionEvent ev) {
-				myAgent.handleStopCommand(connectionID);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				// Rows of previous plant were created by earlier task, so they exist already.
+				if (previous != null && previous.rows != null) {
+					tableModel.removePlant(previous.rows);
+				}
+				plant.rows = tableModel.addPlant(connectionID.trim(), showID, plant.names);
 			}
 		});
-		
-		panelParallel.addComponent(stopButton);
-		panelSequential.addComponent(stopButton);
-		
-		parallelGroup.addComponent(plantPanel);
-		sequentialGroup.addComponent(plantPanel);
-		mainPanel.validate();
-		scaleGui();		
 	}
 			
 	/**
-	 * Updates variable values on Gui
+	 * Marks time of received update of plant values, called before its values are passed to sink.
+	 * @param connectionID - ID of connection
+	 * @param receivedTime - time of receiving update (System.nanoTime())
+	 * @param sinceIngest - time since frame of update was read by connector (ns), -1 if update is not traced
+	 */
+	public void updateReceived(final String connectionID, long receivedTime, long sinceIngest) {
+		PlantValues plant = plants.get(connectionID);
+		if (plant != null) {
+			receivedUpdates.increment();
+			// The oldest update waiting for refresh is measured.
+			plant.receivedSince.compareAndSet(0, receivedTime);
+			if (sinceIngest >= 0) {
+				deliveryLatency.record(sinceIngest);
+				plant.ingestedSince.compareAndSet(0, receivedTime - sinceIngest);
+			}
+		}
+	}
+	
+	/**
+	 * Marks start of batch of frames, called before values of its frames are passed.
+	 * Frames of batch keep their spacing in trend and the newest one is sampled at current time.
+	 * @param connectionID - ID of connection
+	 * @param newestFrameTime - time of the newest frame of batch by clock of connector (ms), -1 if unknown
+	 */
+	public void startBatch(final String connectionID, long newestFrameTime) {
+		PlantValues plant = plants.get(connectionID);
+		if (plant != null) {
+			plant.batchClockOffset = newestFrameTime >= 0 ? System.currentTimeMillis() - newestFrameTime : 0;
+		}
+	}
+	
+	/**
+	 * Marks start of frame, values passed afterwards are sampled in trend at time of frame.
+	 * @param connectionID - ID of connection
+	 * @param frameTime - time of frame by clock of connector (ms), 0 to sample values at current time
+	 */
+	public void startFrame(final String connectionID, long frameTime) {
+		PlantValues plant = plants.get(connectionID);
+		if (plant != null) {
+			startFrame(plant, frameTime);
+		}
+	}
+	
+	private static void startFrame(PlantValues plant, long frameTime) {
+		plant.trendTime = frameTime > 0 ? frameTime + plant.batchClockOffset : 0;
+	}
+	
+	private static long getTrendTime(PlantValues plant) {
+		return plant.trendTime > 0 ? plant.trendTime : System.currentTimeMillis();
+	}
+	
+	/**
+	 * Creates sink for values of text subscription, values are passed by slot of their variable.
+	 * Name of variable is looked up once and then only compared in place (see PlantUpdateDecoder.NameSlots).
+	 * Updated value is shown by next refresh.
+	 * @param connectionID - ID of connection
+	 * @return sink, null if there are no labels of connection
+	 */
+	public PlantUpdateDecoder.SlotSink createTextSink(final String connectionID) {
+		final PlantValues plant = plants.get(connectionID);
+		if (plant == null) {
+			return null;
+		}
+		final PlantUpdateDecoder.NameSlots nameSlots = new PlantUpdateDecoder.NameSlots(plant.slots);
+		return new PlantUpdateDecoder.SlotSink() {
+			public int resolveSlot(final String content, int start, int end, int position) {
+				int slot = nameSlots.resolve(content, start, end, position);
+				if (slot < 0 && LOGGER.isLoggable(Level.FINE)) {
+					LOGGER.fine("Error updating variable values, variable name was not found");
+				}
+				return slot;
+			}
+			
+			public void updateValue(int slot, final String varVal) {
+				plant.values.put(slot, varVal);
+				TrendBuffer trend = plant.trends.get(slot);
+				if (trend != null) {
+					addTrendSample(trend, getTrendTime(plant), varVal);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Creates sink for values of binary subscription, values are passed by their index in dictionary.
+	 * Sink does not create any objects for received values.
 	 * @param connectionID - ID of connection
-	 * @param varName - name of updated variable
-	 * @param varVal - new value
-	 */
-	public void updateValue(final String connectionID, final String varName, final String varVal) {
-		final String varKey = connectionID + "_" + varName;
-		JLabel varLabel = varMap.get(varKey.trim());
-		if (varLabel != null) {
-			varLabel.setText(varVal);
-		} else {
-			System.out.println("Error updating variable values, variable name was not found");
+	 * @param dictionary - names of variables ordered by index
+	 * @param precision - number of decimal places values are shown with
+	 * @return sink, null if there are no labels of connection
+	 */
+	public BinaryPayloadDecoder.ValueSink createBinarySink(final String connectionID, String[] dictionary, int precision) {
+		final PlantValues plant = plants.get(connectionID);
+		if (plant == null) {
+			return null;
 		}
+		plant.precision = precision;
+		final int[] indexSlots = new int[dictionary.length];
+		for (int i = 0; i < dictionary.length; i++) {
+			Integer slot = plant.slots.get(dictionary[i].trim());
+			indexSlots[i] = slot != null ? slot : -1;
+		}
+		return new BinaryPayloadDecoder.ValueSink() {
+			public void startFrame(long frameTime) {
+				ResultsGui.startFrame(plant, frameTime);
+			}
+			
+			public void updateValue(int index, double value) {
+				int slot = index >= 0 && index < indexSlots.length ? indexSlots[index] : -1;
+				if (slot >= 0) {
+					plant.values.put(slot, value, Double.NaN, Double.NaN);
+					TrendBuffer trend = plant.trends.get(slot);
+					if (trend != null) {
+						trend.add(getTrendTime(plant), value, value, value);
+					}
+				}
+			}
+			
+			public void updateAggregate(int index, double last, double min, double max) {
+				int slot = index >= 0 && index < indexSlots.length ? indexSlots[index] : -1;
+				if (slot >= 0) {
+					plant.values.put(slot, last, min, max);
+					TrendBuffer trend = plant.trends.get(slot);
+					if (trend != null) {
+						trend.add(getTrendTime(plant), last, min, max);
+					}
+				}
+			}
+		};
 	}
 	
 	/**
-	 * Method that closes labels showing variable values for plant
+	 * Adds value to trend, aggregated value "last [min .. max]" adds also minimum and maximum.
+	 */
+	private static void addTrendSample(TrendBuffer trend, long time, final String varVal) {
+		try {
+			int rangeStart = varVal.indexOf('[');
+			if (rangeStart < 0) {
+				double value = Double.parseDouble(varVal);
+				trend.add(time, value, value, value);
+			} else {
+				String range[] = varVal.substring(rangeStart + 1, varVal.length() - 1).split("\\.\\.");
+				trend.add(time, Double.parseDouble(varVal.substring(0, rangeStart)),
+						Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+			}
+		} catch (RuntimeException e) {
+			// Value which is not a number is not shown in trend.
+		}
+	}
+	
+	/**
+	 * Greys out values of plant whose connection was lost, they are shown normally again when plant is back.
+	 * @param connectionID - ID of connection
+	 * @param stale - true if values are not updated now
+	 */
+	public void setPlantStale(final String connectionID, final boolean stale) {
+		final PlantValues plant = plants.get(connectionID.trim());
+		if (plant == null) {
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (plant.rows != null) {
+					tableModel.setStale(plant.rows, stale);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Method that closes table rows showing variable values for plant
 	 * specified by connectionID.
-	 * @param connectionID - connectionID specifying which labels to close
+	 * @param connectionID - connectionID specifying which rows to close
 	 */
 	public void closePlantLabels(final String connectionID) {
-		
-		if (panelMap.containsKey(connectionID.trim())) {
-			JPanel panelToClose = panelMap.get(connectionID.trim());
-			if (panelToClose != null) {
-				panelToClose.removeAll();
-				mainPanel.remove(panelToClose);
-			}
-			panelMap.remove(connectionID.trim());
-		} else {
-			System.out.println("Error deleting plant labels, no panel found.");
+		final PlantValues plant = plants.remove(connectionID.trim());
+		if (plant == null) {
+			LOGGER.warning("Error deleting plant labels, no plant found.");
+			return;
 		}
-		varMap.entrySet().removeIf(entry -> entry.getKey().contains(connectionID.trim()));
-		mainPanel.validate();
-		scaleGui();	
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (plant.rows != null) {
+					tableModel.removePlant(plant.rows);
+				}
+			}
+		});
 	}
 	
 	/**
@@ -199,7 +493,11 @@ public class ResultsGui extends JFrame {
 	 * @param infoText - text that user should see
 	 */
 	public void showInfoDialog(final String infoText) {
-		JOptionPane.showMessageDialog(null, infoText);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(null, infoText);
+			}
+		});
 	}
 	
 	/**
@@ -207,18 +505,68 @@ public class ResultsGui extends JFrame {
 	 * @param connectionID - Id of disconnected plant
 	 */
 	public void showDisconnectionDialog(final String connectionID) {
-		JOptionPane.showMessageDialog(null, "Plant " + connectionID + " disconnected.", "Plant disconnected"
-				,JOptionPane.WARNING_MESSAGE);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(null, "Plant " + connectionID + " disconnected.", "Plant disconnected"
+						,JOptionPane.WARNING_MESSAGE);
+			}
+		});
 	}
 	
 	// Shows Gui
 	public void showGui() {
-		endConfig();
-		super.setVisible(true);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				endConfig();
+				ResultsGui.super.setVisible(true);
+			}
+		});
 	}
 	
 	// Hides Gui (Gui is still usable, it is not deleted!)
 	public void hideGui() {
-		super.setVisible(false);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				ResultsGui.super.setVisible(false);
+			}
+		});
+	}
+	
+	public int getPlantsCount() {
+		return plants.size();
+	}
+	
+	public long getReceivedUpdates() {
+		return receivedUpdates.sum();
+	}
+	
+	public long getShownValues() {
+		return shownValues.sum();
+	}
+	
+	/**
+	 * @return time from receiving values to showing them
+	 */
+	public LatencyHistogram getUpdateLatency() {
+		return updateLatency;
+	}
+	
+	/**
+	 * @return time from reading traced frame by connector to receiving its values
+	 */
+	public LatencyHistogram getDeliveryLatency() {
+		return deliveryLatency;
+	}
+	
+	/**
+	 * @return time from reading traced frame by connector to showing its values
+	 */
+	public LatencyHistogram getEndToEndLatency() {
+		return endToEndLatency;
+	}
+	
+	public void dispose() {
+		refreshTimer.stop();
+		super.dispose();
 	}
 }
@@ -0,0 +1,186 @@
+/**
+ * SetpointWriter
+ *
+ * Collects setpoints requested by agents and writes them to plant. Writes
+ * arriving within one flush window are merged per variable (the last
+ * written value wins) and sent as one LabView "Flatten to XML" cluster of
+ * DBL values. Clusters are written one after another without waiting for
+ * plant's reaction, so writing never stalls requesters.
+ *
+ * Requests are submitted by agent's thread, clusters are written by
+ * separate flushing thread calling flush() in loop.
+ */
+
+package agentControlSystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SetpointWriter {
+
+	public static final long DEFAULT_FLUSH_WINDOW = 5; // ms
+
+	/**
+	 * Connection to plant that clusters are written to.
+	 */
+	public interface Output {
+		void write(CharSequence cluster) throws IOException;
+	}
+
+	/**
+	 * Receives result of every submitted batch.
+	 */
+	public interface Completion {
+		/**
+		 * @param request - request object given to submit()
+		 * @param latency - time from submit() until batch was written (ns)
+		 */
+		void written(Object request, long latency);
+
+		void failed(Object request, IOException e);
+	}
+
+	private final String[] varNames;
+	private final long flushWindow;
+	private final Output output;
+
+	// Pending writes, guarded by this.
+	private final double[] pendingValues;
+	private final boolean[] pendingSlots;
+	private int pendingCount;
+	private List<Object> pendingRequests;
+	private List<Long> pendingSubmitTimes;
+	private boolean stopped;
+
+	// Used by flushing thread only.
+	private final double[] flushValues;
+	private final int[] flushSlots;
+	private final StringBuilder cluster;
+
+	/**
+	 * @param varNames - names of variables ordered by slot
+	 * @param flushWindow - time for which writes are collected before they are sent (ms)
+	 * @param output - connection to plant
+	 */
+	public SetpointWriter(String[] varNames, long flushWindow, Output output) {
+		this.varNames = varNames;
+		this.flushWindow = flushWindow;
+		this.output = output;
+		pendingValues = new double[varNames.length];
+		pendingSlots = new boolean[varNames.length];
+		pendingRequests = new ArrayList<Object>();
+		pendingSubmitTimes = new ArrayList<Long>();
+		flushValues = new double[varNames.length];
+		flushSlots = new int[varNames.length];
+		cluster = new StringBuilder();
+	}
+
+	/**
+	 * Queues batch of writes.
+	 * @param slots - slots of written variables
+	 * @param values - written values, in order of slots
+	 * @param request - object identifying batch, passed back to Completion
+	 */
+	public synchronized void submit(int[] slots, double[] values, Object request) {
+		for (int i = 0; i < slots.length; i++) {
+			if (!pendingSlots[slots[i]]) {
+				pendingSlots[slots[i]] = true;
+				pendingCount++;
+			}
+			pendingValues[slots[i]] = values[i];
+		}
+		pendingRequests.add(request);
+		pendingSubmitTimes.add(System.nanoTime());
+		notifyAll();
+	}
+
+	/**
+	 * Waits for writes, collects them for flush window and writes them to plant.
+	 * @param completion - receiver of results of written batches
+	 * @return false if writer was stopped
+	 * @throws InterruptedException when flushing thread was interrupted
+	 */
+	public boolean flush(Completion completion) throws InterruptedException {
+		List<Object> requests;
+		List<Long> submitTimes;
+		int count = 0;
+		synchronized (this) {
+			while (pendingRequests.isEmpty() && !stopped) {
+				wait();
+			}
+			if (stopped) {
+				return false;
+			}
+			// Writes arriving meanwhile are merged into the same cluster.
+			long windowEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushWindow);
+			long remaining;
+			while ((remaining = windowEnd - System.nanoTime()) > 0 && !stopped) {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			for (int slot = 0; slot < pendingSlots.length && count < pendingCount; slot++) {
+				if (pendingSlots[slot]) {
+					pendingSlots[slot] = false;
+					flushSlots[count] = slot;
+					flushValues[count] = pendingValues[slot];
+					count++;
+				}
+			}
+			pendingCount = 0;
+			requests = pendingRequests;
+			submitTimes = pendingSubmitTimes;
+			pendingRequests = new ArrayList<Object>();
+			pendingSubmitTimes = new ArrayList<Long>();
+		}
+
+		appendCluster(count);
+		try {
+			output.write(cluster);
+		} catch (IOException e) {
+			for (Object request : requests) {
+				completion.failed(request, e);
+			}
+			return true;
+		}
+		long writeTime = System.nanoTime();
+		for (int i = 0; i < requests.size(); i++) {
+			completion.written(requests.get(i), writeTime - submitTimes.get(i));
+		}
+		return true;
+	}
+
+	private void appendCluster(int count) {
+		cluster.setLength(0);
+		cluster.append("<Cluster>\r\n<Name>Setpoints</Name>\r\n<NumElts>").append(count).append("</NumElts>\r\n");
+		for (int i = 0; i < count; i++) {
+			cluster.append("<DBL>\r\n<Name>");
+			appendEscaped(cluster, varNames[flushSlots[i]]);
+			cluster.append("</Name>\r\n<Val>").append(flushValues[i]).append("</Val>\r\n</DBL>\r\n");
+		}
+		cluster.append("</Cluster>\r\n");
+	}
+
+	private static void appendEscaped(StringBuilder sb, final String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '<') {
+				sb.append("&lt;");
+			} else if (c == '>') {
+				sb.append("&gt;");
+			} else if (c == '&') {
+				sb.append("&amp;");
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Stops flushing thread, writes not flushed yet are dropped.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		notifyAll();
+	}
+}
@@ -5,8 +5,65 @@
  * asked to connect. After that it receives data from plant
  * in XML format and forwards them to subscribed agents.
  * 
- * One client agent is connected to only one plant through its
- * entire lifespan but can send data to multiple agents.
+ * Agent serves up to maxSessions plants (one by default) and can send
+ * data of every plant to multiple agents. Every plant has its own
+ * session with connection state, values and subscribers. Subscriptions,
+ * history and write requests name their plant with parameter
+ * plant=<IP:port> (or replay reference), it may be omitted when agent
+ * serves only one plant.
+ * 
+ * Accepted proposal is answered with variable names when plant sends its
+ * first frame (or with FAILURE after reply-by time), agent keeps handling
+ * other messages meanwhile.
+ * 
+ * Proposals carry current load of agent (sessions, subscribers, frames per
+ * second, dispatch queue depth and CPU load, see ConnectorLoad), so that
+ * agent calling for proposals can choose the least loaded connector.
+ * 
+ * By default every session reads plant data in its own thread using
+ * blocking socket. With argument ioMode=nio plant connections are
+ * served by PlantConnector shared by all agents in JVM, which
+ * multiplexes many plants on ioThreads threads.
+ * 
+ * With argument publishMode=delta subscribers receive only variables
+ * which moved past deadband (deadband=0.1 or deadband=1% for all
+ * variables, deadband.<name>=... for particular ones) and full
+ * keyframe every keyframePeriod milliseconds.
+ * 
+ * Subscriber may limit delivery rate with maxRate=<Hz> parameter of
+ * SUBSCRIBE message. Frames are then conflated and only latest values
+ * (with aggregate=minmaxlast also minimum and maximum) are sent on timer.
+ * Subscriber without rate limit may instead ask for batch=<frames> (and
+ * linger=<ms>), consecutive frames are then sent together in one INFORM
+ * when they come faster than they can be sent one by one (see FrameBatch),
+ * no frame is lost.
+ * 
+ * Thread reading plant data only stores values and queues frame snapshot,
+ * encoding and sending messages to subscribers is done by dispatcher thread
+ * shared by all sessions of agent. When dispatcher falls behind by more than
+ * dispatchQueueSize frames of a plant, its new frames are dropped instead of
+ * blocking plant reading.
+ * 
+ * Last historySize samples of every variable (not older than historyRetention
+ * milliseconds, if set) are kept in memory and returned on REQUEST with
+ * protocol "plant history", e.g. "vars=Tank1,Tank2;last=60000;points=200".
+ * 
+ * With argument recordDir=<directory> every frame is also recorded to
+ * memory-mapped segment files (see FrameRecorder) by separate thread.
+ * Instead of plant address, accept proposal may contain reference to such
+ * recording ("replay:<directory>/<name>@<speed>", see RecordingReplay),
+ * recorded frames are then sent to subscribers as if plant sent them.
+ * 
+ * Setpoints are written to plant on REQUEST with protocol "plant write" and
+ * content "name1=value1;name2=value2". Writes are merged for writeFlushWindow
+ * milliseconds, requester gets AGREE and then INFORM with write latency.
+ * 
+ * When established connection is lost, agent keeps its subscriptions and
+ * variable names and reconnects to the same plant, waiting reconnectDelay
+ * milliseconds, doubled after every failed attempt up to reconnectMaxDelay
+ * (reconnectAttempts limits number of attempts, 0 for unlimited). Subscribers
+ * get INFORM with "plant-stale" parameter meanwhile and values simply
+ * continue when plant sends data again.
  * 
  * Author: Jakub Pośpiech.
  */
@@ -23,22 +80,33 @@ import jade.domain.FIPAAgentManagement.FailureException;
 import jade.domain.FIPAAgentManagement.NotUnderstoodException;
 import jade.domain.FIPAAgentManagement.RefuseException;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.proto.AchieveREResponder;
 import jade.proto.SubscriptionResponder;
 import jade.proto.SSContractNetResponder;
 
 import java.net.*;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.io.*;
-import javax.xml.stream.XMLEventReader; 
-import javax.xml.stream.XMLInputFactory; 
-import javax.xml.stream.XMLStreamException; 
-import javax.xml.stream.events.*; 
+import javax.xml.stream.XMLStreamException;
+import javax.management.ObjectName;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class TCPClientAgent extends Agent {
+	private static final Logger LOGGER = Logger.getLogger(TCPClientAgent.class.getName());
 	
 	/**
 	 * Factory for threaded behaviour
@@ -46,29 +114,118 @@ public class TCPClientAgent extends Agent {
 	private ThreadedBehaviourFactory tbf;
 	
 	/**
-	 * Variables used to establish and process TCP connection
+	 * Non-blocking mode, connections are served by shared connector instead of sessions' own threads.
 	 */
-	private Socket plantSocket;
-	private BufferedReader plantReader;
-	private PrintWriter plantWriter; // for now agent only reads data so plantWriter stays unused
+	private boolean nonBlockingIO;
+	private PlantConnector plantConnector;
 	
 	/**
-	 * Connection state and declared possible states.
+	 * Declared possible states of plant session.
 	 */
-	private volatile String connectionState;
-	
-	private static final String WAITING_FOR_CONNECTION = "Waiting for conenction";
 	private static final String ESTABLISHING_CONNECTION = "Establishing_connection";
 	private static final String CONNECTION_ESTABLISHED = "Connection_established";
 	private static final String ERROR_OCCURED = "Error occured";
 	private static final String PLANT_DISCONNECTED = "Plant_disconnected";
+	private static final String RECONNECTING = "Reconnecting";
+	
+	/**
+	 * Protocol of requests for history of variables.
+	 */
+	public static final String HISTORY_PROTOCOL = "plant history";
+	
+	/**
+	 * Protocol of requests writing setpoints to plant.
+	 */
+	public static final String WRITE_PROTOCOL = "plant write";
+	
+	/**
+	 * Parameter of INFORM telling subscribers that plant connection was lost and
+	 * values are stale until agent reconnects.
+	 */
+	public static final String PLANT_STALE = "plant-stale";
+	
+	/**
+	 * Parameter of subscription, history and write requests naming plant they are addressed to.
+	 */
+	public static final String PLANT = "plant";
+	
+	private static final int CONNECT_TIMEOUT = 5000; // ms
+	private static final int WRITE_TIMEOUT = 5000; // ms
+	
+	/**
+	 * Plant sessions by plant key ("IP:port" or replay reference).
+	 */
+	private Map<String, PlantSession> sessions;
+	private int maxSessions;
+	
+	/**
+	 * Sessions with frames waiting for dispatcher and for recorder, each queue is served by one thread.
+	 */
+	private ReadyQueue<PlantSession> dispatchQueue;
+	private ReadyQueue<PlantSession> recordQueue;
+	private volatile boolean dispatchStopped;
+	
+	/**
+	 * Sessions closed by other threads, their subscriptions are released by agent's thread.
+	 */
+	private ConcurrentLinkedQueue<PlantSession> closedSessions;
+	
+	/**
+	 * Frames and bytes received from all plants and their rates measured by MeasureLoad behaviour.
+	 */
+	private LongAdder receivedFrames;
+	private LongAdder receivedBytes;
+	private volatile double framesPerSecond;
+	private volatile double bytesPerSecond;
+	
+	/**
+	 * Name of agent's MBean, null if it was not registered.
+	 */
+	private ObjectName connectorName;
+	
+	/**
+	 * Number of decimal places of values sent to subscribers.
+	 */
+	private int valuePrecision;
+	
+	/**
+	 * Delta publishing configuration.
+	 */
+	private boolean deltaPublishing;
+	private String defaultDeadband;
+	private Map<String, String> varDeadbands;
+	private long keyframePeriod;
+	
+	/**
+	 * Maximum number of frames of one plant waiting for dispatcher.
+	 */
+	private int dispatchQueueSize;
 	
 	/**
-	 * Maps storing values gathered from plant and information about
-	 * current subscriptions.
+	 * Configuration of history of variables, disabled when historySize is 0.
 	 */
-	private Map<String, SubscriptionResponder.Subscription> subsMap;
-	private Map<String, String> valMap;
+	private int historySize;
+	private long historyRetention;
+	
+	/**
+	 * Configuration of recording, recordDir is null if recording is disabled.
+	 */
+	private File recordDir;
+	private int recordSegmentSize;
+	private int recordSegments;
+	private int recordQueueSize;
+	
+	/**
+	 * Time for which setpoint writes are merged (ms).
+	 */
+	private long writeFlushWindow;
+	
+	/**
+	 * Reconnecting lost plant connections.
+	 */
+	private long reconnectDelay;
+	private long reconnectMaxDelay;
+	private int reconnectAttempts;
 	
 	/**
 	 * Description for yellow page agent.
@@ -81,16 +238,51 @@ public class TCPClientAgent extends Agent {
 	private MessageTemplate cfpTemplate;
 	
 	/**
-	 * Address of plant that agent is connected to.
+	 * Maximum size of single frame received from plant (in bytes).
 	 */
-	private PlantAddress plantAddress;
+	private int maxFrameSize;
 	
 	protected void setup() {
 		
-		connectionState = WAITING_FOR_CONNECTION;
+		AgentArguments arguments = new AgentArguments(getArguments());
+		maxSessions = Math.max(1, arguments.getInt("maxSessions", 1));
+		maxFrameSize = arguments.getInt("maxFrameSize", ClusterFrameParser.DEFAULT_MAX_FRAME_SIZE);
+		valuePrecision = Math.max(0, Math.min(9, arguments.getInt("valuePrecision", PlantValueStore.DEFAULT_PRECISION)));
+		deltaPublishing = arguments.getString("publishMode", "full").equals("delta");
+		defaultDeadband = arguments.getString("deadband", "0");
+		varDeadbands = arguments.getWithPrefix("deadband.");
+		keyframePeriod = arguments.getLong("keyframePeriod", 5000);
+		dispatchQueueSize = arguments.getInt("dispatchQueueSize", FrameRing.DEFAULT_CAPACITY);
+		historySize = arguments.getInt("historySize", PlantHistory.DEFAULT_CAPACITY);
+		historyRetention = arguments.getLong("historyRetention", 0);
+		writeFlushWindow = arguments.getLong("writeFlushWindow", SetpointWriter.DEFAULT_FLUSH_WINDOW);
+		reconnectDelay = arguments.getLong("reconnectDelay", ReconnectBackoff.DEFAULT_MIN_DELAY);
+		reconnectMaxDelay = arguments.getLong("reconnectMaxDelay", ReconnectBackoff.DEFAULT_MAX_DELAY);
+		reconnectAttempts = arguments.getInt("reconnectAttempts", 0);
+		if (arguments.contains("recordDir")) {
+			recordDir = new File(arguments.getString("recordDir", ""));
+			recordSegmentSize = arguments.getInt("recordSegmentSize", FrameRecorder.DEFAULT_SEGMENT_SIZE);
+			recordSegments = arguments.getInt("recordSegments", FrameRecorder.DEFAULT_MAX_SEGMENTS);
+			recordQueueSize = arguments.getInt("recordQueueSize", FrameRing.DEFAULT_CAPACITY);
+		}
+		nonBlockingIO = arguments.getString("ioMode", "blocking").equals("nio");
+		if (nonBlockingIO) {
+			try {
+				plantConnector = PlantConnector.getShared(arguments.getInt("ioThreads", 1));
+			} catch (IOException e) {
+				LOGGER.warning(getAID().getName() + " - cannot start non-blocking connector, using blocking mode");
+				nonBlockingIO = false;
+			}
+		}
+		
 		// Initializing maps
-		subsMap = Collections.synchronizedMap(new HashMap<String, SubscriptionResponder.Subscription>());
-		valMap = Collections.synchronizedMap(new HashMap<String, String>());
+		// Sessions are read by threads of sessions and changed by agent's thread, none of them should wait.
+		sessions = new ConcurrentHashMap<String, PlantSession>();
+		dispatchQueue = new ReadyQueue<PlantSession>();
+		recordQueue = new ReadyQueue<PlantSession>();
+		closedSessions = new ConcurrentLinkedQueue<PlantSession>();
+		receivedFrames = new LongAdder();
+		receivedBytes = new LongAdder();
 		
 		// Registering to DF agent (yellow pages)
 		dfd = new DFAgentDescription();
@@ -102,54 +294,93 @@ public class TCPClientAgent extends Agent {
 		try {
 			DFService.register(this, dfd);
 		} catch (FIPAException fe) {
-			fe.printStackTrace();
+			LOGGER.log(Level.WARNING, getAID().getName() + " - cannot register in DF", fe);
 		}
 		// Declaring call for proposals message template
 		cfpTemplate = MessageTemplate.MatchPerformative(ACLMessage.CFP);
 		
-		// Behaviour used for reading data from plant works in separate thread.
+		// Sending data to subscribers and recording work in separate threads shared by all sessions,
+		// threads reading plants are started when sessions are opened.
 		tbf = new ThreadedBehaviourFactory();
-		addBehaviour(tbf.wrap(new ReadFromPlant(this)));
+		addBehaviour(tbf.wrap(new DispatchFrames(this)));
+		if (recordDir != null) {
+			addBehaviour(tbf.wrap(new RecordFrames(this)));
+		}
 		// Starting primary behaviours
 		addBehaviour(new HandleContracts(this));
 		addBehaviour(new RegisterSubscriptions(this, MessageTemplate.MatchProtocol("subscription to plant")));
+		addBehaviour(new AnswerHistoryRequests(this, MessageTemplate.and(
+				MessageTemplate.MatchProtocol(HISTORY_PROTOCOL), MessageTemplate.MatchPerformative(ACLMessage.REQUEST))));
+		addBehaviour(new HandleWriteRequests(this));
+		addBehaviour(new ReleaseClosedSessions(this, 1000));
+		addBehaviour(new MeasureLoad(this, 1000));
+		connectorName = ManagementSupport.register("type=Connector,name=" + ObjectName.quote(getAID().getName()),
+				new ConnectorStatistics(), ConnectorMBean.class);
 	}
 	
 	// Put agent clean-up operations here
 	protected void takeDown() {
-		System.out.println(getAID().getName() + " closing...");
-		// Connection is open, behaviour is running in separate thread, need to clean up.
-		if (connectionState != WAITING_FOR_CONNECTION) {
-			if (connectionState == ESTABLISHING_CONNECTION || connectionState == CONNECTION_ESTABLISHED) {
-				System.out.println(getAID().getName() + " closing connections...");
-				if (connectionState == CONNECTION_ESTABLISHED) {
-					// Closing established connection by sending FAILURE message to subscribed agents
-					ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.FAILURE);
-					synchronized(subsMap) {
-						for (Map.Entry<String, SubscriptionResponder.Subscription> subsEntry : subsMap.entrySet()) {
-							subsEntry.getValue().notify(subscriptionMessage);
-						}
-					}
-				}	
-			}
-			
-			try {
-				plantSocket.shutdownInput();
-			} catch (IOException e) {
-				System.out.println(getAID().getName() + " unexpected IOException occured, while closing input stream.");
+		LOGGER.info(getAID().getName() + " closing...");
+		if (!sessions.isEmpty()) {
+			LOGGER.info(getAID().getName() + " closing connections...");
+		}
+		for (PlantSession session : sessions.values()) {
+			if (session.connectionState == CONNECTION_ESTABLISHED || session.connectionState == RECONNECTING) {
+				// Closing established connection by sending FAILURE message to subscribed agents
+				session.notifySubscribers(new ACLMessage(ACLMessage.FAILURE));
 			}
-			// Wait 5s for threaded behavior to end (input stream is closed so it should end), then force interrupt them.
-			if (!tbf.waitUntilEmpty(5000)) {
-				tbf.interrupt();
-				System.out.println(getAID().getName() + " timeout exceeded, threaded behaviours were forced interrupted.");
+			session.close();
+		}
+		
+		dispatchStopped = true;
+		dispatchQueue.wakeConsumer();
+		recordQueue.wakeConsumer();
+		// Wait 5s for threaded behavior to end (connections are closed so they should end), then force interrupt them.
+		if (!tbf.waitUntilEmpty(5000)) {
+			tbf.interrupt();
+			LOGGER.warning(getAID().getName() + " timeout exceeded, threaded behaviours were forced interrupted.");
+		}
+		ManagementSupport.unregister(connectorName);
+		LOGGER.info(getAID().getName() + " agent closed.");
+	}
+	
+	/**
+	 * @return key of plant session for "IP:port" or replay reference, null if connection parameters are incorrect
+	 */
+	private static String createPlantKey(final String connectionParams) {
+		if (connectionParams == null) {
+			return null;
+		}
+		if (RecordingReplay.isReplayReference(connectionParams)) {
+			return connectionParams.trim();
+		}
+		String IPAndPort[] = connectionParams.split(":", 2);
+		if (IPAndPort.length != 2) {
+			return null;
+		}
+		try {
+			return new PlantAddress(IPAndPort[0].trim(), Integer.parseInt(IPAndPort[1].trim())).toString();
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Finds session that request is addressed to by its "plant" parameter.
+	 * @return session, null if there is no such session
+	 */
+	private PlantSession findSession(AgentArguments params) {
+		if (params.contains(PLANT)) {
+			String plantKey = createPlantKey(params.getString(PLANT, ""));
+			return plantKey != null ? sessions.get(plantKey) : null;
+		}
+		// Requester does not name plant, it is clear only when agent serves one plant.
+		if (sessions.size() == 1) {
+			for (PlantSession session : sessions.values()) {
+				return session;
 			}
-			try {
-				plantSocket.close();
-			} catch (IOException e) {
-				System.out.println(getAID().getName() + " unexpected IOException occured, while closing socket.");
-			}			
 		}
-		System.out.println(getAID().getName() + " agent closed.");
+		return null;
 	}
 	
 	private class HandleContracts extends CyclicBehaviour {
@@ -182,35 +413,25 @@ public class TCPClientAgent extends Agent {
 		
 		protected ACLMessage handleCfp(ACLMessage cfp) throws RefuseException, FailureException, NotUnderstoodException {
 			ACLMessage reply = cfp.createReply();
-			if (connectionState == WAITING_FOR_CONNECTION) {
-				// Agent waits to connect to plant so sends message as proposal that it is ready to connect
-				reply.setPerformative(ACLMessage.PROPOSE);
-				reply.setContent("ready");
-			} else if (connectionState == ESTABLISHING_CONNECTION || connectionState == CONNECTION_ESTABLISHED) {
-				String connectionParams = cfp.getContent();
-				String IPAndPort[] = new String[2];
-				IPAndPort = connectionParams.split(":", 2);
-				String IP = IPAndPort[0];
-				int port = 0;
-				try {
-					if (IPAndPort[1] != "null") {
-						port = Integer.parseInt(IPAndPort[1]);
-						if (plantAddress.isSameAddress(IP, port)) {
-							// Agent is connected to the same plant as required in
-							// call for proposals so sends message that it is already connected to that plant.
-							reply.setPerformative(ACLMessage.PROPOSE);
-							reply.setContent("connected");
-						} else {
-							// Agent is connected to other plant than that required in
-							// call for proposals so sends message refusing proposal.
-							reply.setPerformative(ACLMessage.REFUSE);
-						}
-					}
-				} catch (NumberFormatException e) {
+			String plantKey = createPlantKey(cfp.getContent());
+			PlantSession session = plantKey != null ? sessions.get(plantKey) : null;
+			if (session != null) {
+				if (session.connectionState == ESTABLISHING_CONNECTION || session.connectionState == CONNECTION_ESTABLISHED
+						|| session.connectionState == RECONNECTING) {
+					// Agent is connected to the same plant as required in
+					// call for proposals so sends message that it is already connected to that plant.
+					reply.setPerformative(ACLMessage.PROPOSE);
+					reply.setContent(createLoad(ConnectorLoad.CONNECTED).toContent());
+				} else {
+					// Connection with that plant is being closed after error, refusing proposal.
 					reply.setPerformative(ACLMessage.REFUSE);
 				}
+			} else if (sessions.size() < maxSessions) {
+				// Agent can serve one more plant so sends message as proposal that it is ready to connect
+				reply.setPerformative(ACLMessage.PROPOSE);
+				reply.setContent(createLoad(ConnectorLoad.READY).toContent());
 			} else {
-				// Connection is closed or error occurred, refusing all proposals
+				// All sessions serve other plants than that required in call for proposals, refusing proposal.
 				reply.setPerformative(ACLMessage.REFUSE);
 			}
 			return reply;
@@ -218,103 +439,63 @@ public class TCPClientAgent extends Agent {
 		
 		protected ACLMessage handleAcceptProposal(ACLMessage cfp, ACLMessage propose, ACLMessage accept) throws FailureException {
 			// Proposal to connect was accepted.
-			ACLMessage reply = accept.createReply();
-			StringBuilder valNamesList = new StringBuilder();
-			if (connectionState == CONNECTION_ESTABLISHED) {
-				// Connection has been already established so just send values names.
-				synchronized(valMap){
-					for(String valName : valMap.keySet()) {
-						valNamesList.append(valName);
-						valNamesList.append(";");
-					}
+			String plantKey = createPlantKey(accept.getContent());
+			PlantSession session = plantKey != null ? sessions.get(plantKey) : null;
+			if (session == null && plantKey != null && sessions.size() < maxSessions) {
+				// Nothing has been done yet for that plant so it is time to establish connection.
+				session = new PlantSession(plantKey);
+				sessions.put(plantKey, session);
+				session.open();
+			}
+			if (session == null) {
+				// Agent cannot serve that plant any more, notify requesting agent about the failure.
+				ACLMessage reply = accept.createReply();
+				reply.setPerformative(ACLMessage.FAILURE);
+				if (LOGGER.isLoggable(Level.FINE)) {
+					LOGGER.fine(myAgent.getAID().getName() + " - handling accept ended");
 				}
-			} else if (connectionState == ESTABLISHING_CONNECTION) {
-				// Establishing connection has been started but it is not finished yet
-				// waiting a moment to let it be done.
-				synchronized(valMap) {
-					long timeToWait = accept.getReplyByDate().getTime() - System.currentTimeMillis() - 100;
-					if (timeToWait > 0) {
-						try {
-							valMap.wait(timeToWait);
-						} catch (InterruptedException e) {}
-					}
-					// If connection state has changed Inform message can be sent
-					if (connectionState == CONNECTION_ESTABLISHED) {
-						for(String valName : valMap.keySet()) {
-							valNamesList.append(valName);
-							valNamesList.append(";");
-						}
-					}
+				return reply;
+			}
+			// Names of variables are sent as soon as the first frame is read, agent's thread does not wait for it.
+			if (session.answerWhenConnected(accept)) {
+				long timeToWait = 0;
+				if (accept.getReplyByDate() == null) {
+					timeToWait = 10000;
+				} else {
+					timeToWait = accept.getReplyByDate().getTime() - System.currentTimeMillis() - 500;
 				}
-			} else if (connectionState == WAITING_FOR_CONNECTION) {
-				// Nothing has been done yet so it is time to establish connection.
-				String connectionParams = accept.getContent();
-				String IPAndPort[] = new String[2];
-				IPAndPort = connectionParams.split(":", 2);
-				String IP = IPAndPort[0];
-				int port = 0;
-				try {
-					InetAddress IPaddr = InetAddress.getByName(IP);
-					if (IPAndPort[1] != "null") {
-						port = Integer.parseInt(IPAndPort[1]);
-						// Initializing all variables needed to keep connection with plant
-						plantAddress = new PlantAddress(IP, port);
-						plantSocket = new Socket(IPaddr, port);
-						plantWriter = new PrintWriter(plantSocket.getOutputStream(), true); //not used yet writing is W.I.P.
-						plantReader = new BufferedReader(new InputStreamReader(plantSocket.getInputStream()));
-						System.out.println(myAgent.getAID().getName() + " - establishing connection");
-						
-						synchronized(valMap) {
-							// Variables initialized, notifying TCP connection thread (behaviour) to start read data.
-							connectionState = ESTABLISHING_CONNECTION;
-							valMap.notifyAll();
-						}						
-						
-						long timeToWait = 0;
-						if (accept.getReplyByDate() == null) {
-							timeToWait = 10000;
-						} else {
-							timeToWait = accept.getReplyByDate().getTime() - System.currentTimeMillis() - 500;
-						}
-						System.out.println(myAgent.getAID().getName() + " - waiting for " + timeToWait + " miliseconds");
-						synchronized(valMap) {
-							// Now give another thread some time to read all the values that plant sent.
-							if (timeToWait > 0) {
-								try {
-									valMap.wait(timeToWait);
-								} catch (InterruptedException e) {
-									System.out.println(myAgent.getAID().getName() + " - waiting interrupted");
-								}
-							}
-							
-							if (connectionState == CONNECTION_ESTABLISHED) {
-								// Other thread established connection succesfully, now get values names.
-								for(String valName : valMap.keySet()) {
-									valNamesList.append(valName);
-									valNamesList.append(";");
-								}
-							}
-						}
-					}
-				} catch (Exception e) {
-					System.out.println(myAgent.getAID().getName() + " - exception occured");
-					e.printStackTrace();
+				if (LOGGER.isLoggable(Level.FINE)) {
+					LOGGER.fine(myAgent.getAID().getName() + " - waiting for " + timeToWait + " miliseconds");
 				}
+				myAgent.addBehaviour(new ConnectionTimeout(myAgent, session, accept, Math.max(1, timeToWait)));
 			}
-			
-			if (valNamesList.length() > 0) {
-				// list of values names is filled, all went well send it to requesting agent.
-				reply.setPerformative(ACLMessage.INFORM);
-				valNamesList.setLength(valNamesList.length() - 1);
-				reply.setContent(valNamesList.toString());
-			} else {
-				// Values names is not filled, something went wrong in the process, notify requesting agent about the failure.
+			// Reply is sent by session.
+			return null;
+		}
+	
+	}
+	
+	/**
+	 * Answers accept proposal with FAILURE, if plant did not send the first frame in time.
+	 */
+	private class ConnectionTimeout extends WakerBehaviour {
+		private final PlantSession session;
+		private final ACLMessage accept;
+		
+		ConnectionTimeout(Agent a, PlantSession session, ACLMessage accept, long timeout) {
+			super(a, timeout);
+			this.session = session;
+			this.accept = accept;
+		}
+		
+		protected void onWake() {
+			if (session.removePendingAccept(accept)) {
+				LOGGER.info(myAgent.getAID().getName() + " - plant " + session.plantKey + " did not send data in time");
+				ACLMessage reply = accept.createReply();
 				reply.setPerformative(ACLMessage.FAILURE);
+				myAgent.send(reply);
 			}
-			System.out.println(myAgent.getAID().getName() + " - handling accept ended");
-			return reply;
 		}
-		
 	}
 	
 	
@@ -328,14 +509,67 @@ public class TCPClientAgent extends Agent {
                 throws NotUnderstoodException,
                        RefuseException {
 			// Subscription request received staring to process.
-			if (connectionState == CONNECTION_ESTABLISHED) {
+			AgentArguments subsParams = new AgentArguments(subscription.getContent() != null
+					? subscription.getContent().split(";") : null);
+			PlantSession session = findSession(subsParams);
+			if (session != null && (session.connectionState == CONNECTION_ESTABLISHED
+					|| session.connectionState == RECONNECTING)) {
 				// Subscription is only accepted when connection is already established
 				// (otherwise requesting agent will subscribe to nothing which has no sense).
-				SubscriptionResponder.Subscription subs = createSubscription(subscription);
+				// While reconnecting variable names are known, subscriber gets values when plant is back.
+				// Subscriber may choose variables it wants to receive, selection is compiled once here.
+				VariableSelection selection;
+				try {
+					selection = VariableSelection.fromSubscription(subscription.getContent());
+				} catch (IllegalArgumentException e) {
+					throw new NotUnderstoodException(e.getMessage());
+				}
+				String[] varNames = session.valueStore.getNames();
+				if (!selection.selectsAll() && selection.compile(varNames).length == 0) {
+					throw new RefuseException("No variable matches " + selection);
+				}
+				PlantSubscriber subscriber = new PlantSubscriber(createSubscription(subscription), selection, varNames);
+				if (subsParams.getString(BinaryPayloadEncoder.ENCODING, BinaryPayloadEncoder.ENCODING_TEXT)
+						.equals(BinaryPayloadEncoder.ENCODING_BINARY)) {
+					// Names are sent once, updates carry only their indexes. AGREE is sent before the first
+					// update can be, so subscriber always has dictionary first.
+					subscriber.setBinaryEncoding(true);
+					ACLMessage agree = subscription.createReply();
+					agree.setPerformative(ACLMessage.AGREE);
+					agree.setContent(BinaryPayloadEncoder.createDictionary(varNames, subscriber.getSlots()));
+					agree.addUserDefinedParameter(BinaryPayloadEncoder.ENCODING, BinaryPayloadEncoder.ENCODING_BINARY);
+					agree.addUserDefinedParameter(BinaryPayloadEncoder.PRECISION, String.valueOf(valuePrecision));
+					myAgent.send(agree);
+				}
+				double maxRate = subsParams.getDouble(PlantSubscriber.MAX_RATE, 0);
+				if (maxRate > 0) {
+					// Frames are collected by reading thread and delivered by separate timer-driven publisher.
+					boolean withMinMax = subsParams.getString(ConflatingBuffer.AGGREGATE, ConflatingBuffer.AGGREGATE_LAST)
+							.equals(ConflatingBuffer.AGGREGATE_MIN_MAX_LAST);
+					subscriber.enableConflation(varNames.length, withMinMax);
+					ConflatedPublisher publisher = new ConflatedPublisher(myAgent, subscriber, varNames, withMinMax,
+							Math.max(1, Math.round(1000 / maxRate)));
+					subscriber.setPublisher(publisher);
+					myAgent.addBehaviour(publisher);
+				} else if (subsParams.getInt(FrameBatch.BATCH, 1) > 1) {
+					// Frames are collected and sent by dispatcher thread.
+					subscriber.enableBatching(subsParams.getInt(FrameBatch.BATCH, 1),
+							subsParams.getLong(FrameBatch.LINGER, 0));
+				}
+				if (deltaPublishing) {
+					// In delta mode new subscriber would wait for the next keyframe, so dispatcher sends it one
+					// right away. Keyframe follows deltas of frames dispatched before, so it is never older.
+					subscriber.requestKeyframe();
+				}
 				String subsID = subscription.getConversationId();
-				synchronized(subsMap) {
-					subsMap.put(subsID, subs);
-				}				
+				session.subsMap.put(subsID, subscriber);
+				if (deltaPublishing) {
+					session.keyframesRequested = true;
+					dispatchQueue.add(session.dispatchEntry);
+				}
+				if (session.connectionState == RECONNECTING) {
+					subscriber.notify(createStaleNotice());
+				}
 				return null;
 			} else {
 				// Connection has been not established yet, refusing subscription.
@@ -348,189 +582,1380 @@ public class TCPClientAgent extends Agent {
 		protected ACLMessage handleCancel(ACLMessage cancel)
                 throws FailureException {
 			// Cancel subscription request received, processing it.
-			System.out.println(myAgent.getAID().getName() + " - received cancel message");
-			synchronized(subsMap) {
-				SubscriptionResponder.Subscription subToRemove = subsMap.remove(cancel.getConversationId());
-				if (subToRemove == null) {
-					// Agent that requests cancel was not subscribed previously.
-					System.out.println(myAgent.getAID().getName() + " - cannot find mapping for cancel message " + cancel.getConversationId());
-					ACLMessage reply = cancel.createReply();
-					reply.setPerformative(ACLMessage.FAILURE);
-					return reply;
-				} else {
-					// Closing requested subscription.
-					subToRemove.close();
-					System.out.println(myAgent.getAID().getName() + " - subscription ID " + cancel.getConversationId() + " canceled");
-					return null;
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(myAgent.getAID().getName() + " - received cancel message");
+			}
+			PlantSubscriber subToRemove = null;
+			for (PlantSession session : sessions.values()) {
+				subToRemove = session.subsMap.remove(cancel.getConversationId());
+				if (subToRemove != null) {
+					break;
 				}
 			}
+			if (subToRemove == null) {
+				// Agent that requests cancel was not subscribed previously.
+				LOGGER.warning(myAgent.getAID().getName() + " - cannot find mapping for cancel message " + cancel.getConversationId());
+				ACLMessage reply = cancel.createReply();
+				reply.setPerformative(ACLMessage.FAILURE);
+				return reply;
+			} else {
+				// Closing requested subscription.
+				if (subToRemove.getPublisher() != null) {
+					myAgent.removeBehaviour(subToRemove.getPublisher());
+				}
+				subToRemove.close();
+				if (LOGGER.isLoggable(Level.FINE)) {
+					LOGGER.fine(myAgent.getAID().getName() + " - subscription ID " + cancel.getConversationId() + " canceled");
+				}
+				return null;
+			}
 		}
 	}
 	
 	/**
-	 * Behavior, executed in parallel which reads process values from plant's server
-	 * @author jpospiech
-	 *
+	 * Answers requests for history of variables. Request content is list of parameters
+	 * separated by ';': variable selection (as in subscription), from=<ms> and to=<ms>
+	 * (time since epoch) or last=<ms> (time before now), points=<n> to downsample
+	 * every variable to at most n samples. Result content is
+	 * "name1:time=value,time=value;name2:...".
 	 */
-	private class ReadFromPlant extends OneShotBehaviour {
-		ReadFromPlant(Agent a) {
+	private class AnswerHistoryRequests extends AchieveREResponder {
+		AnswerHistoryRequests(Agent a, MessageTemplate mt) {
+			super(a, mt);
+		}
+		
+		protected ACLMessage handleRequest(ACLMessage request)
+				throws NotUnderstoodException, RefuseException {
+			AgentArguments params = new AgentArguments(request.getContent() != null
+					? request.getContent().split(";") : null);
+			PlantSession session = findSession(params);
+			PlantHistory currentHistory = session != null ? session.history : null;
+			if (currentHistory == null) {
+				throw new RefuseException(historySize > 0 ? "Connection is not established" : "History is disabled");
+			}
+			VariableSelection selection;
+			try {
+				selection = VariableSelection.fromSubscription(request.getContent());
+			} catch (IllegalArgumentException e) {
+				throw new NotUnderstoodException(e.getMessage());
+			}
+			long to = params.getLong("to", Long.MAX_VALUE);
+			long from = params.getLong("from", 0);
+			if (params.contains("last")) {
+				from = System.currentTimeMillis() - params.getLong("last", 0);
+			}
+			int points = params.getInt("points", 0);
+			
+			String[] varNames = session.valueStore.getNames();
+			int[] slots = selection.compile(varNames);
+			if (slots.length == 0) {
+				throw new RefuseException("No variable matches " + selection);
+			}
+			StringBuilder content = new StringBuilder();
+			for (int slot : slots) {
+				PlantHistory.Samples samples = currentHistory.query(slot, from, to, points);
+				content.append(varNames[slot]).append(':');
+				for (int i = 0; i < samples.getCount(); i++) {
+					if (i > 0) {
+						content.append(',');
+					}
+					content.append(samples.getTimestamp(i)).append('=');
+					PlantValueStore.appendFormatted(content, samples.getValue(i), valuePrecision);
+				}
+				content.append(';');
+			}
+			content.setLength(content.length() - 1);
+			
+			ACLMessage reply = request.createReply();
+			reply.setPerformative(ACLMessage.INFORM);
+			reply.setContent(content.toString());
+			return reply;
+		}
+	}
+	
+	/**
+	 * Receives requests writing setpoints. Request is checked and queued here,
+	 * it is written to plant by FlushSetpoints behaviour. Plant is named by
+	 * "plant" parameter, so variable of that name cannot be written.
+	 */
+	private class HandleWriteRequests extends CyclicBehaviour {
+		private final MessageTemplate writeTemplate = MessageTemplate.and(
+				MessageTemplate.MatchProtocol(WRITE_PROTOCOL), MessageTemplate.MatchPerformative(ACLMessage.REQUEST));
+		
+		HandleWriteRequests(Agent a) {
 			super(a);
 		}
 		
 		public void action() {
-			synchronized(valMap) {
-				try {
-					// Thread is put to wait, at the beginning there is nothing to connect to.
-					valMap.wait();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
-			String serverOutput;
-			String wholeXML = "";
-			String eventName = "";
-			String varName = "";
-			String varVal = "";
-			boolean varnamesWritten = false;
-			XMLInputFactory xmlReaderFactory = XMLInputFactory.newInstance();
-			// For reading we assume that XML structure is fixed which means that <Cluster> is root element.
-			// Data is received in following pattern: first is Name element with variable name and next come value element.
-			// When </Cluster> is received for the first time we know, that every variable was provided once.
-			
-			// NOTE currently program is adapted to work with LabView XML Schema, data in LabView is converted
-			// to XML using "Flatten to XML" function.
-			if (connectionState == ESTABLISHING_CONNECTION) {
-				System.out.println(myAgent.getAID().getName() + " - starting executing parallel behaviour");
+			ACLMessage request = myAgent.receive(writeTemplate);
+			if (request == null) {
+				block();
+				return;
+			}
+			ACLMessage reply = request.createReply();
+			String[] writes = request.getContent() != null ? request.getContent().split(";") : new String[0];
+			PlantSession session = findSession(new AgentArguments(writes));
+			if (session == null || session.connectionState != CONNECTION_ESTABLISHED || session.replayReference != null) {
+				reply.setPerformative(ACLMessage.REFUSE);
+				reply.setContent("Plant is not connected");
+				myAgent.send(reply);
+				return;
+			}
+			int writesCount = 0;
+			int[] slots = new int[writes.length];
+			double[] values = new double[writes.length];
+			for (int i = 0; i < writes.length; i++) {
+				String nameAndValue[] = writes[i].split("=", 2);
+				if (nameAndValue[0].trim().equals(PLANT)) {
+					continue;
+				}
 				try {
-					//System.out.println("Starting reading data.");
-					// plantReader.readLine() is blocking call
-					while ((serverOutput = plantReader.readLine()) != null) {
-						// Sadly XMLparser cannot read consecutive XML files from one input stream so end of XML needs
-						// to be detected, and whole XML saved as string, which then will be converted into new InputStream
-						// that could be read by XMLparser.
-						if (serverOutput.trim().contentEquals("</Cluster>")) {
-							//System.out.println("Found end of XML");
-							// There is explicitly added CRLF to last line so readLine() would be able to read it, it should be trimmed
-							// so XML parser would not have any problem (it is problematic enough by itself).
-							wholeXML = wholeXML + serverOutput.trim();
-							
-							InputStream inputStream = new ByteArrayInputStream(wholeXML.getBytes(Charset.forName("UTF-8")));
-							
-							XMLEventReader xmlReader = xmlReaderFactory.createXMLEventReader(inputStream);
-							
-							while(xmlReader.hasNext()) {
-								XMLEvent event = xmlReader.nextEvent();
-								
-								if (event.isStartElement()) { 
-					                StartElement element = (StartElement) event;
-					                eventName = element.getName().toString();
-					                //System.out.println("Found start event: " + eventName);
-					            }
-								
-								if (event.isCharacters()) {
-									Characters element = (Characters) event;
-									switch(eventName) {
-									case "Name":
-										varName = element.getData();
-										//System.out.println("In case name: " + varName);
-										break;
-									case "Val":
-										try {
-											double varValDBL = Double.parseDouble(element.getData());
-											varVal = String.format("%.2f", varValDBL);
-											//System.out.println("In case Val: " + varVal);
-											if (!varName.isEmpty()) {
-												if (varnamesWritten == false) {
-													valMap.put(varName, varVal);
-													System.out.println("Added label " + varName);
-												} else {
-													valMap.replace(varName, varVal);
-												}
-												varName = ""; //just to force correct pattern
-											}
-										} catch (NumberFormatException e) {
-											System.out.println("Problems occured during double conversion");
-										}
-										break;
-									default:
-										break;
-									}
-								}
-								
-								if (event.isEndElement()) {
-									EndElement element = (EndElement) event;
-									//System.out.println("Found end event: " + element.getName().toString());
-									if (element.getName().toString().equals("Cluster") && varnamesWritten == false) {
-										varnamesWritten = true;
-										connectionState = CONNECTION_ESTABLISHED;
-										synchronized(valMap) {
-											// First read finished, notify all waiting threads, that
-											// value names are available
-											valMap.notifyAll();
-										}
-									} else if (element.getName().toString().equals("Cluster") && varnamesWritten == true) {
-										StringBuilder messageContent = new StringBuilder();
-										ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.INFORM);
-										
-										// whole XML parsed, sending update to all subscribed agents
-										synchronized(valMap) {
-											for(Map.Entry<String, String> entry : valMap.entrySet()) {
-												messageContent.append(entry.getKey() + ":" + entry.getValue() + ";");
-											}
-										}
-										
-										if (messageContent.length() > 0) {
-											messageContent.setLength(messageContent.length() - 1);
-											subscriptionMessage.setContent(messageContent.toString());
-										} else {
-											// Something went wrong
-											connectionState = ERROR_OCCURED;
-											subscriptionMessage.setPerformative(ACLMessage.FAILURE);
-										}
-										
-										synchronized(subsMap) {
-											for (Map.Entry<String, SubscriptionResponder.Subscription> subsEntry : subsMap.entrySet()) {
-												subsEntry.getValue().notify(subscriptionMessage);
-											}
-										}
-									}
-								}
+					if (nameAndValue.length != 2) {
+						throw new NumberFormatException();
+					}
+					values[writesCount] = Double.parseDouble(nameAndValue[1].trim());
+				} catch (NumberFormatException e) {
+					reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
+					reply.setContent("Incorrect write " + writes[i]);
+					myAgent.send(reply);
+					return;
+				}
+				slots[writesCount] = session.valueStore.findSlot(nameAndValue[0].trim());
+				if (slots[writesCount] < 0) {
+					reply.setPerformative(ACLMessage.REFUSE);
+					reply.setContent("Unknown variable " + nameAndValue[0].trim());
+					myAgent.send(reply);
+					return;
+				}
+				writesCount++;
+			}
+			if (writesCount == 0) {
+				// Request naming only plant would send empty cluster.
+				reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
+				reply.setContent("No variables to write");
+				myAgent.send(reply);
+				return;
+			}
+			if (writesCount < writes.length) {
+				slots = Arrays.copyOf(slots, writesCount);
+				values = Arrays.copyOf(values, writesCount);
+			}
+			SetpointWriter setpointWriter = session.startSetpointWriter();
+			if (setpointWriter == null) {
+				reply.setPerformative(ACLMessage.REFUSE);
+				reply.setContent("Plant is not connected");
+				myAgent.send(reply);
+				return;
+			}
+			// Requester knows write is accepted, result is sent when it reaches plant.
+			ACLMessage agree = request.createReply();
+			agree.setPerformative(ACLMessage.AGREE);
+			myAgent.send(agree);
+			setpointWriter.submit(slots, values, reply);
+		}
+	}
+	
+	/**
+	 * Creates output writing to plant connection of session in current I/O mode.
+	 */
+	private SetpointWriter.Output createPlantOutput(final PlantSession session) {
+		if (nonBlockingIO) {
+			return new SetpointWriter.Output() {
+				public void write(CharSequence cluster) throws IOException {
+					ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(cluster));
+					// Channel is non-blocking, connector's thread reads it at the same time.
+					SocketChannel plantChannel = session.plantChannel;
+					// Plant which stopped reading must not hold flushing thread (and all later batches) forever.
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT);
+					try {
+						while (bytes.hasRemaining()) {
+							if (session.closed) {
+								throw new IOException("Plant connection closed");
 							}
-							wholeXML = ""; // Cleaning XML and waiting for a new one
-							if (connectionState == ERROR_OCCURED) {
-								myAgent.doDelete();
-								break;
+							if (plantChannel.write(bytes) == 0) {
+								if (System.nanoTime() - deadline >= 0) {
+									throw new IOException("Writing to plant timed out");
+								}
+								LockSupport.parkNanos(100000);
 							}
-						} else {
-							wholeXML = wholeXML + serverOutput; // if it is not end of XML then just append it
 						}
-					}	
-				} catch (XMLStreamException e) {
-					// error in parsing XML
-					System.out.println(getAID().getName() + " xml parsing exception occured, closing agent.");
-					connectionState = ERROR_OCCURED;
-					ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.FAILURE);
-					synchronized(subsMap) {
-						for (Map.Entry<String, SubscriptionResponder.Subscription> subsEntry : subsMap.entrySet()) {
-							subsEntry.getValue().notify(subscriptionMessage);
+					} catch (IOException e) {
+						PlantConnector.PlantChannel connectorChannel = session.connectorChannel;
+						if (bytes.position() > 0 && connectorChannel != null) {
+							// Plant got part of cluster, next cluster on this stream would be malformed,
+							// so connection is dropped and session reconnects.
+							plantConnector.disconnect(connectorChannel, e);
 						}
+						throw e;
 					}
-					myAgent.doDelete();
-				} catch (IOException e ) {
-					// agent lost connection for some reason.
-					System.out.println(getAID().getName() + " unexpected IOException occured, closing agent.");
-					connectionState = PLANT_DISCONNECTED;
-					ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.FAILURE);
-					subscriptionMessage.setContent(PLANT_DISCONNECTED);
-					synchronized(subsMap) {
-						for (Map.Entry<String, SubscriptionResponder.Subscription> subsEntry : subsMap.entrySet()) {
-							subsEntry.getValue().notify(subscriptionMessage);
-						}
+				}
+			};
+		}
+		return new SetpointWriter.Output() {
+			public void write(CharSequence cluster) throws IOException {
+				PrintWriter plantWriter = session.plantWriter;
+				plantWriter.append(cluster);
+				plantWriter.flush();
+				if (plantWriter.checkError()) {
+					// Part of cluster may be written already, so connection is dropped and reading thread reconnects.
+					Socket plantSocket = session.plantSocket;
+					if (plantSocket != null) {
+						plantSocket.close();
 					}
-					myAgent.doDelete();
+					throw new IOException("Writing to plant failed");
 				}
-			} else {
-				System.out.println(myAgent.getAID().getName() + " - connectionState was not equal to ESTABLISHING_CONNECTION while starting parallel behaviour");
+			}
+		};
+	}
+	
+	/**
+	 * Behaviour, executed in parallel which writes queued setpoints to plant and
+	 * informs requesters.
+	 */
+	private class FlushSetpoints extends OneShotBehaviour implements SetpointWriter.Completion {
+		private final SetpointWriter writer;
+		
+		FlushSetpoints(Agent a, SetpointWriter writer) {
+			super(a);
+			this.writer = writer;
+		}
+		
+		public void action() {
+			try {
+				while (writer.flush(this)) {
+				}
+			} catch (InterruptedException e) {
+				LOGGER.info(myAgent.getAID().getName() + " - writing setpoints interrupted");
+			}
+		}
+		
+		public void written(Object request, long latency) {
+			ACLMessage reply = (ACLMessage) request;
+			reply.setPerformative(ACLMessage.INFORM);
+			reply.setContent("latency=" + TimeUnit.NANOSECONDS.toMicros(latency));
+			myAgent.send(reply);
+		}
+		
+		public void failed(Object request, IOException e) {
+			ACLMessage reply = (ACLMessage) request;
+			reply.setPerformative(ACLMessage.FAILURE);
+			reply.setContent("Writing to plant failed");
+			myAgent.send(reply);
+		}
+	}
+	
+	/**
+	 * Timer-driven delivery of conflated frames to one rate-limited subscriber.
+	 */
+	private class ConflatedPublisher extends TickerBehaviour {
+		private final PlantSubscriber subscriber;
+		private final boolean withMinMax;
+		private final String[] varNames;
+		private final StringBuilder content;
+		private final BinaryPayloadEncoder binaryEncoder;
+		
+		ConflatedPublisher(Agent a, PlantSubscriber subscriber, String[] varNames, boolean withMinMax, long period) {
+			super(a, period);
+			this.subscriber = subscriber;
+			this.withMinMax = withMinMax;
+			this.varNames = varNames;
+			content = new StringBuilder();
+			binaryEncoder = new BinaryPayloadEncoder();
+		}
+		
+		protected void onTick() {
+			String frameType = subscriber.isBinaryEncoding() ? subscriber.getConflatingBuffer().drain(binaryEncoder)
+					: subscriber.getConflatingBuffer().drain(varNames, valuePrecision, content);
+			if (frameType != null) {
+				ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.INFORM);
+				if (subscriber.isBinaryEncoding()) {
+					subscriptionMessage.setByteSequenceContent(binaryEncoder.toByteArray());
+				} else {
+					subscriptionMessage.setContent(content.toString());
+				}
+				subscriptionMessage.addUserDefinedParameter(ChangeDetector.FRAME_TYPE, frameType);
+				if (withMinMax) {
+					subscriptionMessage.addUserDefinedParameter(ConflatingBuffer.AGGREGATE, ConflatingBuffer.AGGREGATE_MIN_MAX_LAST);
+				}
+				subscriber.getConflatingBuffer().addTrace(subscriptionMessage);
+				subscriber.notify(subscriptionMessage);
+			}
+		}
+	}
+	
+	/**
+	 * Releases subscriptions of sessions closed by their threads, subscriptions and
+	 * behaviours are changed only by agent's thread.
+	 */
+	private class ReleaseClosedSessions extends TickerBehaviour {
+		ReleaseClosedSessions(Agent a, long period) {
+			super(a, period);
+		}
+		
+		protected void onTick() {
+			PlantSession session;
+			while ((session = closedSessions.poll()) != null) {
+				for (PlantSubscriber subscriber : session.subsMap.values()) {
+					if (subscriber.getPublisher() != null) {
+						myAgent.removeBehaviour(subscriber.getPublisher());
+					}
+					subscriber.close();
+				}
+				session.subsMap.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Measures rates of frames and bytes received from all plants and from every plant.
+	 */
+	private class MeasureLoad extends TickerBehaviour {
+		private long lastFrames;
+		private long lastBytes;
+		private long lastTime;
+		
+		MeasureLoad(Agent a, long period) {
+			super(a, period);
+			lastTime = System.currentTimeMillis();
+		}
+		
+		protected void onTick() {
+			long frames = receivedFrames.sum();
+			long bytes = receivedBytes.sum();
+			long time = System.currentTimeMillis();
+			if (time > lastTime) {
+				framesPerSecond = (frames - lastFrames) * 1000.0 / (time - lastTime);
+				bytesPerSecond = (bytes - lastBytes) * 1000.0 / (time - lastTime);
+				for (PlantSession session : sessions.values()) {
+					session.measureRates(time - lastTime);
+				}
+			}
+			lastFrames = frames;
+			lastBytes = bytes;
+			lastTime = time;
+		}
+	}
+	
+	/**
+	 * Exposes load of agent as MBean, called by JMX threads.
+	 */
+	private class ConnectorStatistics implements ConnectorMBean {
+		public int getSessions() {
+			return getSessionsCount();
+		}
+		
+		public int getMaxSessions() {
+			return maxSessions;
+		}
+		
+		public int getSubscribers() {
+			int subscribers = 0;
+			for (PlantSession session : sessions.values()) {
+				subscribers += session.subsMap.size();
+			}
+			return subscribers;
+		}
+		
+		public double getFramesPerSecond() {
+			return framesPerSecond;
+		}
+		
+		public double getBytesPerSecond() {
+			return bytesPerSecond;
+		}
+		
+		public int getDispatchQueueDepth() {
+			return TCPClientAgent.this.getDispatchQueueDepth();
+		}
+		
+		public long getDroppedFrames() {
+			return TCPClientAgent.this.getDroppedFrames();
+		}
+	}
+	
+	/**
+	 * @return current load of agent, sent in proposals
+	 */
+	private ConnectorLoad createLoad(final String status) {
+		int subscribers = 0;
+		for (PlantSession session : sessions.values()) {
+			subscribers += session.subsMap.size();
+		}
+		return new ConnectorLoad(status, sessions.size(), maxSessions, subscribers, framesPerSecond,
+				getDispatchQueueDepth(), ConnectorLoad.currentCpuLoad(), here().getName());
+	}
+	
+	/**
+	 * Sends all current values selected by subscriber, used by dispatcher thread before the first frame was dispatched.
+	 */
+	private void sendKeyframe(PlantSession session, PlantSubscriber subscriber) {
+		int size = session.valueStore.size();
+		double[] values = new double[size];
+		if (size > 0 && session.valueStore.readSnapshot(values, null)) {
+			ACLMessage keyframeMessage = new ACLMessage(ACLMessage.INFORM);
+			if (subscriber.isBinaryEncoding()) {
+				keyframeMessage.setByteSequenceContent(new BinaryPayloadEncoder().encode(values, subscriber.getSlots(), null));
+			} else {
+				TextPayloadEncoder encoder = new TextPayloadEncoder(valuePrecision);
+				keyframeMessage.setContent(encoder.encode(session.valueStore.getNames(), values, subscriber.getSlots(), null));
+			}
+			keyframeMessage.addUserDefinedParameter(ChangeDetector.FRAME_TYPE, ChangeDetector.KEYFRAME);
+			subscriber.notify(keyframeMessage);
+		}
+	}
+	
+	private ACLMessage createStaleNotice() {
+		ACLMessage staleMessage = new ACLMessage(ACLMessage.INFORM);
+		staleMessage.setContent("");
+		staleMessage.addUserDefinedParameter(PLANT_STALE, "true");
+		return staleMessage;
+	}
+	
+	/**
+	 * @return number of plants served by agent
+	 */
+	public int getSessionsCount() {
+		return sessions.size();
+	}
+	
+	/**
+	 * @return frames received from all plants per second
+	 */
+	public double getFramesPerSecond() {
+		return framesPerSecond;
+	}
+	
+	/**
+	 * @return number of frames of all plants waiting for dispatcher
+	 */
+	public int getDispatchQueueDepth() {
+		int depth = 0;
+		for (PlantSession session : sessions.values()) {
+			depth += session.frameRing.getDepth();
+		}
+		return depth;
+	}
+	
+	/**
+	 * @return number of frames of current plants dropped because dispatcher could not keep up
+	 */
+	public long getDroppedFrames() {
+		long droppedFrames = 0;
+		for (PlantSession session : sessions.values()) {
+			droppedFrames += session.frameRing.getDroppedFrames();
+		}
+		return droppedFrames;
+	}
+	
+	/**
+	 * Connection with one plant (or replay of its recording), with its own state,
+	 * values and subscribers. Session is registered as MBean while it is open.
+	 */
+	private class PlantSession implements PlantSessionMBean {
+		/**
+		 * Key of session in sessions map, "IP:port" or replay reference.
+		 */
+		private final String plantKey;
+		
+		/**
+		 * Address of plant that session is connected to, null if recording is replayed.
+		 */
+		private final PlantAddress plantAddress;
+		
+		/**
+		 * Reference of recording replayed instead of plant data, null if session is connected to plant.
+		 */
+		private final String replayReference;
+		
+		/**
+		 * Variables used to establish and process TCP connection
+		 */
+		private volatile Socket plantSocket;
+		private volatile InputStream plantInput;
+		private volatile PrintWriter plantWriter;
+		private volatile SocketChannel plantChannel;
+		
+		/**
+		 * Connection registered in non-blocking connector, null until connect() succeeded.
+		 */
+		private volatile PlantConnector.PlantChannel connectorChannel;
+		
+		private volatile String connectionState;
+		private volatile boolean closed;
+		
+		/**
+		 * Map storing information about current subscriptions and store
+		 * of values gathered from plant.
+		 */
+		private final Map<String, PlantSubscriber> subsMap;
+		private final PlantValueStore valueStore;
+		
+		/**
+		 * Handler processing frames received from plant in both modes.
+		 */
+		private final PlantFrameHandler frameHandler;
+		
+		/**
+		 * Queue of frames waiting for dispatcher, frame dispatcher is used by dispatcher thread only.
+		 */
+		private final FrameRing frameRing;
+		private final ReadyQueue.Entry<PlantSession> dispatchEntry;
+		private FrameDispatcher dispatcher;
+		
+		/**
+		 * Set by agent's thread when subscriber requested keyframe, cleared by dispatcher thread.
+		 */
+		private volatile boolean keyframesRequested;
+		
+		/**
+		 * Recent values of variables, created when variable names are known (null if disabled).
+		 */
+		private volatile PlantHistory history;
+		
+		/**
+		 * Recording of frames, null if disabled. Frames are passed to recording thread by recordRing.
+		 */
+		private FrameRecorder recorder;
+		private volatile FrameRing recordRing;
+		private final ReadyQueue.Entry<PlantSession> recordEntry;
+		private String[] recordNames;
+		
+		/**
+		 * Writing setpoints to plant, created with the first write request, guarded by session.
+		 */
+		private volatile SetpointWriter setpointWriter;
+		
+		/**
+		 * Reconnecting lost plant connection, used only by thread handling the connection.
+		 */
+		private final ReconnectBackoff reconnectBackoff;
+		
+		/**
+		 * Accepted proposals waiting for the first frame, guarded by session.
+		 */
+		private List<ACLMessage> pendingAccepts;
+		
+		/**
+		 * Statistics of session, rates are measured by MeasureLoad behaviour.
+		 */
+		private final LongAdder sessionFrames;
+		private final LongAdder sessionBytes;
+		private volatile double sessionFramesPerSecond;
+		private volatile double sessionBytesPerSecond;
+		private long lastFrames;
+		private long lastBytes;
+		private final LatencyHistogram parseTime;
+		private final LatencyHistogram queueTime;
+		private final LatencyHistogram fanOutTime;
+		private ObjectName sessionName;
+		private ObjectName parseTimeName;
+		private ObjectName queueTimeName;
+		private ObjectName fanOutTimeName;
+		
+		PlantSession(final String plantKey) {
+			this.plantKey = plantKey;
+			if (RecordingReplay.isReplayReference(plantKey)) {
+				replayReference = plantKey;
+				plantAddress = null;
+			} else {
+				replayReference = null;
+				String IPAndPort[] = plantKey.split(":", 2);
+				plantAddress = new PlantAddress(IPAndPort[0], Integer.parseInt(IPAndPort[1]));
+			}
+			connectionState = ESTABLISHING_CONNECTION;
+			// Subscriptions are read by dispatcher thread and changed by agent's thread, none of them should wait.
+			subsMap = new ConcurrentHashMap<String, PlantSubscriber>();
+			valueStore = new PlantValueStore();
+			frameHandler = new PlantFrameHandler(this);
+			frameRing = new FrameRing(dispatchQueueSize);
+			dispatchEntry = new ReadyQueue.Entry<PlantSession>(this);
+			recordEntry = new ReadyQueue.Entry<PlantSession>(this);
+			reconnectBackoff = new ReconnectBackoff(reconnectDelay, reconnectMaxDelay, reconnectAttempts);
+			pendingAccepts = new ArrayList<ACLMessage>();
+			sessionFrames = new LongAdder();
+			sessionBytes = new LongAdder();
+			parseTime = new LatencyHistogram();
+			queueTime = new LatencyHistogram();
+			fanOutTime = new LatencyHistogram();
+			if (recordDir != null) {
+				// Agent serving one plant keeps recording name it had before sessions existed.
+				String recordingName = maxSessions == 1 ? getLocalName()
+						: getLocalName() + "-" + plantKey.replaceAll("[^A-Za-z0-9.-]", "_");
+				try {
+					recorder = new FrameRecorder(recordDir, recordingName, recordSegmentSize, recordSegments);
+					recordRing = new FrameRing(recordQueueSize);
+				} catch (IOException e) {
+					LOGGER.warning(getAID().getName() + " - cannot open recording directory, frames will not be recorded");
+					recorder = null;
+				}
+			}
+		}
+		
+		/**
+		 * Connects to plant or starts replaying recording, first frame is then awaited.
+		 * @return false if connection could not be started, session is then closed
+		 */
+		boolean open() {
+			String name = "type=Plant,connector=" + ObjectName.quote(getAID().getName()) + ",name=" + ObjectName.quote(plantKey);
+			sessionName = ManagementSupport.register(name, this, PlantSessionMBean.class);
+			parseTimeName = ManagementSupport.register(name + ",histogram=parseTime", parseTime, LatencyHistogramMBean.class);
+			queueTimeName = ManagementSupport.register(name + ",histogram=queueTime", queueTime, LatencyHistogramMBean.class);
+			fanOutTimeName = ManagementSupport.register(name + ",histogram=fanOutTime", fanOutTime, LatencyHistogramMBean.class);
+			try {
+				if (replayReference != null) {
+					RecordingReplay replay = new RecordingReplay(replayReference);
+					LOGGER.info(getAID().getName() + " - replaying " + replayReference);
+					addBehaviour(tbf.wrap(new ReplayRecording(TCPClientAgent.this, this, replay)));
+				} else {
+					// Initializing all variables needed to keep connection with plant
+					if (nonBlockingIO) {
+						LOGGER.info(getAID().getName() + " - establishing connection to " + plantAddress);
+						// Connector's thread connects without blocking and from then on handles frames,
+						// failed connection is reported to frame handler and closes session.
+						attachChannel(plantConnector.connect(plantAddress, 0, CONNECT_TIMEOUT, maxFrameSize,
+								frameHandler));
+					} else {
+						// Plant is looked up and connected by reading thread, agent's thread never waits for it.
+						LOGGER.info(getAID().getName() + " - establishing connection to " + plantAddress);
+						addBehaviour(tbf.wrap(new ReadFromPlant(TCPClientAgent.this, this)));
+					}
+				}
+				return true;
+			} catch (Exception e) {
+				LOGGER.warning(getAID().getName() + " - cannot connect to " + plantKey + ", " + e.getMessage());
+				connectionState = ERROR_OCCURED;
+				close();
+				return false;
+			}
+		}
+		
+		/**
+		 * Keeps channel registered in connector by open() or reconnection. Session closed before
+		 * channel was kept did not unregister it, so it is unregistered here.
+		 */
+		void attachChannel(PlantConnector.PlantChannel channel) {
+			connectorChannel = channel;
+			if (closed) {
+				plantConnector.unregister(channel);
+			}
+		}
+		
+		/**
+		 * Returns writer of setpoints, it is created (with its flushing thread) by the first write request.
+		 * Writer is created under session lock, so close() always sees and stops it.
+		 * @return null if session is closed
+		 */
+		synchronized SetpointWriter startSetpointWriter() {
+			if (closed) {
+				return null;
+			}
+			if (setpointWriter == null) {
+				setpointWriter = new SetpointWriter(valueStore.getNames(), writeFlushWindow, createPlantOutput(this));
+				addBehaviour(tbf.wrap(new FlushSetpoints(TCPClientAgent.this, setpointWriter)));
+			}
+			return setpointWriter;
+		}
+		
+		/**
+		 * Answers accepted proposal with names of variables, or parks it until the first frame is read.
+		 * @return true if accept was parked
+		 */
+		boolean answerWhenConnected(ACLMessage accept) {
+			synchronized(this) {
+				if (connectionState == ESTABLISHING_CONNECTION && !closed) {
+					pendingAccepts.add(accept);
+					return true;
+				}
+			}
+			answerAccept(accept);
+			return false;
+		}
+		
+		/**
+		 * @return true if accept was still waiting for answer
+		 */
+		synchronized boolean removePendingAccept(ACLMessage accept) {
+			return pendingAccepts.remove(accept);
+		}
+		
+		/**
+		 * Answers all parked accepts, called when the first frame was read or session was closed.
+		 */
+		void answerPendingAccepts() {
+			List<ACLMessage> accepts;
+			synchronized(this) {
+				if (pendingAccepts.isEmpty()) {
+					return;
+				}
+				accepts = pendingAccepts;
+				pendingAccepts = new ArrayList<ACLMessage>();
+			}
+			for (ACLMessage accept : accepts) {
+				answerAccept(accept);
+			}
+		}
+		
+		private void answerAccept(ACLMessage accept) {
+			ACLMessage reply = accept.createReply();
+			String[] valNames = valueStore.getNames();
+			if (!closed && (connectionState == CONNECTION_ESTABLISHED || connectionState == RECONNECTING)
+					&& valNames != null && valNames.length > 0) {
+				// All went well send list of values names to requesting agent.
+				StringBuilder valNamesList = new StringBuilder();
+				for (String valName : valNames) {
+					valNamesList.append(valName);
+					valNamesList.append(";");
+				}
+				valNamesList.setLength(valNamesList.length() - 1);
+				reply.setPerformative(ACLMessage.INFORM);
+				reply.setContent(valNamesList.toString());
+			} else {
+				// Something went wrong in the process, notify requesting agent about the failure.
+				reply.setPerformative(ACLMessage.FAILURE);
+			}
+			send(reply);
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(getAID().getName() + " - handling accept ended");
+			}
+		}
+		
+		void notifySubscribers(ACLMessage message) {
+			for (PlantSubscriber subscriber : subsMap.values()) {
+				subscriber.notify(message);
+			}
+		}
+		
+		/**
+		 * Notifies subscribed agents that connection failed because of malformed plant data and closes session.
+		 */
+		void handleMalformedData(XMLStreamException e) {
+			LOGGER.warning(getAID().getName() + " xml parsing exception occured, closing connection to " + plantKey + ", "
+					+ e.getMessage());
+			connectionState = ERROR_OCCURED;
+			notifySubscribers(new ACLMessage(ACLMessage.FAILURE));
+			close();
+		}
+		
+		/**
+		 * Notifies subscribed agents that plant was disconnected and closes session.
+		 */
+		void handlePlantDisconnection() {
+			LOGGER.warning(getAID().getName() + " unexpected IOException occured, closing connection to " + plantKey);
+			connectionState = PLANT_DISCONNECTED;
+			ACLMessage subscriptionMessage = new ACLMessage(ACLMessage.FAILURE);
+			subscriptionMessage.setContent(PLANT_DISCONNECTED);
+			notifySubscribers(subscriptionMessage);
+			close();
+		}
+		
+		/**
+		 * Handles lost plant connection or failed reconnection attempt. When connection was established,
+		 * subscribers are told that values are stale and session reconnects, otherwise (or when all attempts
+		 * failed) session is closed.
+		 * @return delay of next connection attempt (ms), -1 if session does not reconnect
+		 */
+		long handleConnectionLoss(IOException e) {
+			frameHandler.discardFrame();
+			if (closed) {
+				// Connection was closed by close().
+				return -1;
+			}
+			if (connectionState == CONNECTION_ESTABLISHED) {
+				LOGGER.warning(getAID().getName() + " - connection to plant " + plantAddress + " lost, reconnecting");
+				connectionState = RECONNECTING;
+				notifySubscribers(createStaleNotice());
+			} else if (connectionState != RECONNECTING) {
+				handlePlantDisconnection();
+				return -1;
+			} else if (e != null) {
+				LOGGER.info(getAID().getName() + " - reconnection attempt " + reconnectBackoff.getAttempts()
+						+ " to " + plantAddress + " failed, " + e.getMessage());
+			}
+			if (reconnectBackoff.isExhausted()) {
+				handlePlantDisconnection();
+				return -1;
+			}
+			return reconnectBackoff.nextDelay();
+		}
+		
+		/**
+		 * Sends frames queued for dispatcher, called by dispatcher thread only. At most one ring
+		 * of frames is sent at once, so busy plant does not delay others.
+		 */
+		void dispatchFrames() {
+			for (int i = 0; i < frameRing.getCapacity(); i++) {
+				FrameRing.Frame frame = frameRing.poll();
+				if (frame == null) {
+					if (keyframesRequested) {
+						// Plant sends no frames now, keyframes are not postponed until it does.
+						keyframesRequested = false;
+						sendRequestedKeyframes();
+					}
+					return;
+				}
+				try {
+					if (dispatcher == null) {
+						// Queued frames exist only after variable names are known.
+						String[] varNames = valueStore.getNames();
+						dispatcher = new FrameDispatcher(varNames, valuePrecision, deltaPublishing
+								? new ChangeDetector(varNames, defaultDeadband, varDeadbands, keyframePeriod) : null);
+					}
+					long dispatchStart = System.nanoTime();
+					queueTime.record(dispatchStart - frame.getIngestTime());
+					dispatcher.dispatch(frame.getValues(), frame.getTimestamp(), frame.getSequence(), frame.getIngestTime(),
+							subsMap.values());
+					fanOutTime.record(System.nanoTime() - dispatchStart);
+				} finally {
+					frameRing.release();
+				}
+			}
+			dispatchQueue.add(dispatchEntry);
+		}
+		
+		/**
+		 * Sends keyframes requested by new subscribers, called by dispatcher thread only.
+		 */
+		private void sendRequestedKeyframes() {
+			if (dispatcher != null && dispatcher.sendRequestedKeyframes(subsMap.values())) {
+				return;
+			}
+			// No frame was dispatched yet, so the first one is keyframe and stored values cannot be older.
+			for (PlantSubscriber subscriber : subsMap.values()) {
+				if (subscriber.takeKeyframeRequest()) {
+					sendKeyframe(this, subscriber);
+				}
+			}
+		}
+		
+		/**
+		 * Sends batches of subscribers which should not wait any longer, called by dispatcher thread only.
+		 * @param now - current System.nanoTime()
+		 * @return System.nanoTime() when the next of remaining batches should be sent, -1 if no batch is waiting
+		 */
+		long flushBatches(long now) {
+			return dispatcher != null ? dispatcher.flushBatches(subsMap.values(), now) : -1;
+		}
+		
+		/**
+		 * Appends frames queued for recorder to recording, called by recording thread only.
+		 * Recording of closed session is finished.
+		 */
+		void recordFrames() {
+			FrameRing ring = recordRing;
+			if (ring == null) {
+				return;
+			}
+			try {
+				FrameRing.Frame frame;
+				while ((frame = ring.poll()) != null) {
+					try {
+						if (recordNames == null) {
+							recordNames = valueStore.getNames();
+						}
+						recorder.append(recordNames, frame.getValues(), frame.getTimestamp());
+					} finally {
+						ring.release();
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.warning(getAID().getName() + " - recording of " + plantKey + " stopped, " + e.getMessage());
+				recordRing = null;
+			}
+			if (closed || recordRing == null) {
+				recordRing = null;
+				recorder.close();
+			}
+		}
+		
+		/**
+		 * Closes connection, threads of session end. Subscriptions are released later by agent's thread.
+		 */
+		void close() {
+			synchronized(this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+			}
+			// Session opened for the same plant later registers the same names.
+			ManagementSupport.unregister(sessionName);
+			ManagementSupport.unregister(parseTimeName);
+			ManagementSupport.unregister(queueTimeName);
+			ManagementSupport.unregister(fanOutTimeName);
+			sessions.remove(plantKey, this);
+			SetpointWriter writer = setpointWriter;
+			if (writer != null) {
+				writer.stop();
+			}
+			if (plantAddress != null) {
+				if (nonBlockingIO) {
+					// Connector closes channel, but only the one opened by this session.
+					PlantConnector.PlantChannel channel = connectorChannel;
+					if (channel != null) {
+						plantConnector.unregister(channel);
+					}
+				} else if (plantSocket != null) {
+					try {
+						plantSocket.close();
+					} catch (IOException e) {
+						LOGGER.warning(getAID().getName() + " unexpected IOException occured, while closing socket.");
+					}
+				}
+			}
+			// Agents waiting for connection get FAILURE, threads waiting for next reconnection attempt end.
+			answerPendingAccepts();
+			synchronized(valueStore) {
+				valueStore.notifyAll();
+			}
+			if (recordRing != null) {
+				recordQueue.add(recordEntry);
+			}
+			closedSessions.add(this);
+		}
+		
+		/**
+		 * Counts frame received from plant, called by thread handling the connection.
+		 */
+		void countFrame() {
+			receivedFrames.increment();
+			sessionFrames.increment();
+		}
+		
+		/**
+		 * Counts bytes received from plant, called by thread handling the connection.
+		 */
+		void countBytes(long bytes) {
+			receivedBytes.add(bytes);
+			sessionBytes.add(bytes);
+		}
+		
+		/**
+		 * Computes rates of session, called by MeasureLoad behaviour only.
+		 * @param period - time since previous measurement (ms)
+		 */
+		void measureRates(long period) {
+			long frames = sessionFrames.sum();
+			long bytes = sessionBytes.sum();
+			sessionFramesPerSecond = (frames - lastFrames) * 1000.0 / period;
+			sessionBytesPerSecond = (bytes - lastBytes) * 1000.0 / period;
+			lastFrames = frames;
+			lastBytes = bytes;
+		}
+		
+		public String getPlant() {
+			return plantKey;
+		}
+		
+		public String getConnectionState() {
+			return connectionState;
+		}
+		
+		public int getSubscribers() {
+			return subsMap.size();
+		}
+		
+		public long getReceivedFrames() {
+			return sessionFrames.sum();
+		}
+		
+		public long getReceivedBytes() {
+			return sessionBytes.sum();
+		}
+		
+		public double getFramesPerSecond() {
+			return sessionFramesPerSecond;
+		}
+		
+		public double getBytesPerSecond() {
+			return sessionBytesPerSecond;
+		}
+		
+		public int getDispatchQueueDepth() {
+			return frameRing.getDepth();
+		}
+		
+		public long getDroppedFrames() {
+			return frameRing.getDroppedFrames();
+		}
+	}
+	
+	/**
+	 * Processes frames received from plant of one session, both from ReadFromPlant
+	 * behaviour and from non-blocking connector.
+	 */
+	private class PlantFrameHandler implements PlantConnector.PlantListener {
+		private final PlantSession session;
+		private boolean varnamesWritten = false;
+		private long frameTimestamp = 0;
+		private long parseStart;
+		private double[] snapshotValues;
+		private long[] snapshotTimestamps;
+		
+		PlantFrameHandler(PlantSession session) {
+			this.session = session;
+		}
+		
+		public void onValue(final String varName, double varVal) {
+			if (frameTimestamp == 0) {
+				frameTimestamp = System.currentTimeMillis();
+				parseStart = System.nanoTime();
+			}
+			// Before first frame ends new variables are interned, later unknown variables are ignored.
+			int slot = session.valueStore.update(varName, varVal, frameTimestamp);
+			if (varnamesWritten == false && slot >= 0) {
+				if (LOGGER.isLoggable(Level.FINE)) {
+					LOGGER.fine(getAID().getName() + " - added label " + varName);
+				}
+			}
+		}
+		
+		public void onFrameEnd() {
+			PlantValueStore valueStore = session.valueStore;
+			long frameTime = frameTimestamp;
+			// Frame is traced from its first value, in blocking mode parse time includes waiting for rest of frame.
+			long ingestTime = parseStart;
+			if (frameTime != 0) {
+				session.parseTime.record(System.nanoTime() - ingestTime);
+			}
+			session.countFrame();
+			frameTimestamp = 0;
+			valueStore.commitFrame();
+			if (snapshotValues == null) {
+				snapshotValues = new double[valueStore.size()];
+				snapshotTimestamps = new long[valueStore.size()];
+				if (historySize > 0) {
+					session.history = new PlantHistory(valueStore.size(), historySize, historyRetention);
+				}
+			}
+			// Only this thread writes the store, so snapshot is read without retries.
+			valueStore.readSnapshot(snapshotValues, snapshotTimestamps);
+			if (session.history != null) {
+				session.history.record(snapshotValues, snapshotTimestamps);
+			}
+			FrameRing recordRing = session.recordRing;
+			if (recordRing != null) {
+				FrameRing.Frame recordedFrame = recordRing.claim(snapshotValues.length, frameTime);
+				if (recordedFrame != null) {
+					System.arraycopy(snapshotValues, 0, recordedFrame.getValues(), 0, snapshotValues.length);
+					recordRing.publish();
+					recordQueue.add(session.recordEntry);
+				} else if (Long.bitCount(recordRing.getDroppedFrames()) == 1) {
+					LOGGER.warning(getAID().getName() + " - recorder cannot keep up, "
+							+ recordRing.getDroppedFrames() + " frames not recorded so far");
+				}
+			}
+			if (session.connectionState == RECONNECTING) {
+				// Subscribers recognize reconnection by values arriving again.
+				LOGGER.info(getAID().getName() + " - reconnected to plant " + session.plantAddress + " after "
+						+ session.reconnectBackoff.getAttempts() + " attempts");
+				session.reconnectBackoff.reset();
+				session.connectionState = CONNECTION_ESTABLISHED;
+			}
+			if (varnamesWritten == false) {
+				varnamesWritten = true;
+				session.connectionState = CONNECTION_ESTABLISHED;
+				// First read finished, value names are available for agents waiting for connection.
+				session.answerPendingAccepts();
+			} else {
+				if (valueStore.size() == 0) {
+					// Something went wrong
+					session.connectionState = ERROR_OCCURED;
+					session.notifySubscribers(new ACLMessage(ACLMessage.FAILURE));
+					session.close();
+					return;
+				}
+				
+				// Snapshot of frame is passed to dispatcher, this thread never waits for subscribers.
+				FrameRing frameRing = session.frameRing;
+				FrameRing.Frame frame = frameRing.claim(snapshotValues.length, frameTime, ingestTime);
+				if (frame != null) {
+					System.arraycopy(snapshotValues, 0, frame.getValues(), 0, snapshotValues.length);
+					frameRing.publish();
+					dispatchQueue.add(session.dispatchEntry);
+				} else if (Long.bitCount(frameRing.getDroppedFrames()) == 1) {
+					LOGGER.warning(getAID().getName() + " - dispatcher cannot keep up, "
+							+ frameRing.getDroppedFrames() + " frames of " + session.plantKey + " dropped so far");
+				}
+			}
+		}
+		
+		public void onMalformedFrame(XMLStreamException e) {
+			session.handleMalformedData(e);
+		}
+		
+		public void onDisconnected(IOException e) {
+			long delay = session.handleConnectionLoss(e);
+			if (delay >= 0) {
+				try {
+					session.attachChannel(plantConnector.connect(session.plantAddress, delay, CONNECT_TIMEOUT,
+							maxFrameSize, this));
+				} catch (IOException ce) {
+					session.handlePlantDisconnection();
+				}
+			}
+		}
+		
+		public void onConnected(SocketChannel channel) {
+			session.plantChannel = channel;
+		}
+		
+		public void onBytesRead(int count) {
+			session.countBytes(count);
+		}
+		
+		/**
+		 * Forgets values of frame interrupted by disconnection.
+		 */
+		void discardFrame() {
+			frameTimestamp = 0;
+		}
+	}
+	
+	/**
+	 * Behaviour, executed in parallel which takes frames queued by plant reading threads
+	 * of all sessions, encodes them and sends them to subscribers. Batches of frames are
+	 * sent when session has no more queued frames, or later when their linger time is over.
+	 */
+	private class DispatchFrames extends OneShotBehaviour {
+		// Sessions with batches waiting for more frames
+		private final List<PlantSession> lingering = new ArrayList<PlantSession>();
+		private long nextDeadline;
+		
+		DispatchFrames(Agent a) {
+			super(a);
+		}
+		
+		public void action() {
+			while (!dispatchStopped) {
+				long timeout = 500;
+				if (!lingering.isEmpty()) {
+					timeout = Math.max(1, Math.min(timeout,
+							TimeUnit.NANOSECONDS.toMillis(nextDeadline - System.nanoTime() + 999999)));
+				}
+				PlantSession session = dispatchQueue.take(timeout);
+				if (session != null) {
+					session.dispatchFrames();
+					if (session.flushBatches(System.nanoTime()) != -1 && !lingering.contains(session)) {
+						lingering.add(session);
+					}
+				}
+				if (!lingering.isEmpty()) {
+					flushLingering();
+				}
+			}
+		}
+		
+		private void flushLingering() {
+			long now = System.nanoTime();
+			nextDeadline = now + TimeUnit.MILLISECONDS.toNanos(500);
+			for (int i = lingering.size() - 1; i >= 0; i--) {
+				long deadline = lingering.get(i).flushBatches(now);
+				if (deadline == -1) {
+					lingering.remove(i);
+				} else if (deadline - nextDeadline < 0) {
+					nextDeadline = deadline;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Behaviour, executed in parallel which appends frames queued by plant reading threads
+	 * to recordings of their sessions. Writing to mapped files (including creating new
+	 * segments) never delays plant reading.
+	 */
+	private class RecordFrames extends OneShotBehaviour {
+		RecordFrames(Agent a) {
+			super(a);
+		}
+		
+		public void action() {
+			while (!dispatchStopped) {
+				PlantSession session = recordQueue.take(500);
+				if (session != null) {
+					session.recordFrames();
+				}
+			}
+			// Sessions were closed by takeDown(), their recordings are finished.
+			PlantSession session;
+			while ((session = recordQueue.poll()) != null) {
+				session.recordFrames();
+			}
+		}
+	}
+	
+	/**
+	 * Behaviour, executed in parallel which passes frames of recording to the same handler as
+	 * frames read from plant. When replaying as fast as possible it waits for dispatcher instead
+	 * of dropping frames, so replay measures throughput of whole sending path.
+	 */
+	private class ReplayRecording extends OneShotBehaviour {
+		private final PlantSession session;
+		private final RecordingReplay replay;
+		
+		ReplayRecording(Agent a, PlantSession session, RecordingReplay replay) {
+			super(a);
+			this.session = session;
+			this.replay = replay;
+		}
+		
+		public void action() {
+			try {
+				while (!session.closed && replay.nextFrame()) {
+					replay.awaitFrameTime();
+					if (replay.getSpeed() == 0) {
+						awaitDispatcher(session.frameRing.getCapacity());
+					}
+					String[] names = replay.getNames();
+					double[] values = replay.getValues();
+					for (int i = 0; i < names.length; i++) {
+						session.frameHandler.onValue(names[i], values[i]);
+					}
+					session.frameHandler.onFrameEnd();
+				}
+			} catch (IOException e) {
+				LOGGER.warning(myAgent.getAID().getName() + " - reading recording failed, " + e.getMessage());
+			}
+			if (session.closed) {
+				return;
+			}
+			// Subscribers get all frames before they are told that recording ended.
+			awaitDispatcher(1);
+			long elapsed = Math.max(1, replay.getElapsedTime());
+			LOGGER.info(myAgent.getAID().getName() + " - replay ended, " + replay.getFramesCount() + " frames in "
+					+ elapsed + " ms (" + (replay.getFramesCount() * 1000 / elapsed) + " frames/s), "
+					+ session.frameRing.getDroppedFrames() + " frames dropped");
+			session.handlePlantDisconnection();
+		}
+		
+		private void awaitDispatcher(int maxDepth) {
+			while (session.frameRing.getDepth() >= maxDepth && !session.closed) {
+				LockSupport.parkNanos(100000);
+			}
+		}
+	}
+	
+	/**
+	 * Behavior, executed in parallel which reads process values from plant's server
+	 * @author jpospiech
+	 *
+	 */
+	private class ReadFromPlant extends OneShotBehaviour {
+		private final PlantSession session;
+		
+		ReadFromPlant(Agent a, PlantSession session) {
+			super(a);
+			this.session = session;
+		}
+		
+		public void action() {
+			// For reading we assume that XML structure is fixed which means that <Cluster> is root element.
+			// Data is received in following pattern: first is Name element with variable name and next come value element.
+			// When </Cluster> is received for the first time we know, that every variable was provided once.
+			
+			// NOTE currently program is adapted to work with LabView XML Schema, data in LabView is converted
+			// to XML using "Flatten to XML" function.
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(myAgent.getAID().getName() + " - starting executing parallel behaviour");
+			}
+			InputStream input;
+			try {
+				input = connect();
+			} catch (IOException e) {
+				LOGGER.warning(myAgent.getAID().getName() + " - cannot connect to " + session.plantKey + ", " + e.getMessage());
+				session.connectionState = ERROR_OCCURED;
+				session.close();
+				return;
+			}
+			while (input != null) {
+				ClusterFrameParser frameParser = null;
+				IOException disconnection = null;
+				long countedBytes = 0;
+				try {
+					// Frames are parsed directly from socket stream, readFrame() is blocking call.
+					frameParser = new ClusterFrameParser(input, maxFrameSize);
+					while (frameParser.readFrame(session.frameHandler)) {
+						session.countBytes(frameParser.getBytesRead() - countedBytes);
+						countedBytes = frameParser.getBytesRead();
+						if (session.closed) {
+							return;
+						}
+					}
+				} catch (XMLStreamException e) {
+					// error in parsing XML
+					session.handleMalformedData(e);
+					return;
+				} catch (IOException e ) {
+					// agent lost connection for some reason.
+					disconnection = e;
+				} finally {
+					if (frameParser != null) {
+						frameParser.close();
+					}
+				}
+				// Stream ended or failed, plant is connected again if possible.
+				input = reconnect(disconnection);
+			}
+		}
+		
+		/**
+		 * Waits with backoff and connects to the same plant again.
+		 * @return input stream of new connection, null if session does not reconnect
+		 */
+		private InputStream reconnect(IOException disconnection) {
+			closeSocket();
+			long delay;
+			while ((delay = session.handleConnectionLoss(disconnection)) >= 0) {
+				synchronized(session.valueStore) {
+					try {
+						session.valueStore.wait(delay);
+					} catch (InterruptedException e) {
+						return null;
+					}
+				}
+				if (session.closed) {
+					return null;
+				}
+				try {
+					return connect();
+				} catch (IOException e) {
+					disconnection = e;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Connects to plant, waiting at most CONNECT_TIMEOUT for it.
+		 * @return input stream of new connection, null if session was closed meanwhile
+		 */
+		private InputStream connect() throws IOException {
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(session.plantAddress.getIP(), session.plantAddress.getPort()),
+						CONNECT_TIMEOUT);
+				session.plantWriter = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+				session.plantInput = socket.getInputStream();
+				session.plantSocket = socket;
+			} catch (IOException e) {
+				try {
+					socket.close();
+				} catch (IOException ce) {}
+				throw e;
+			}
+			if (session.closed) {
+				// Session closed while connecting did not see this socket.
+				closeSocket();
+				return null;
+			}
+			return session.plantInput;
+		}
+		
+		private void closeSocket() {
+			try {
+				session.plantSocket.close();
+			} catch (IOException e) {
+				LOGGER.warning(myAgent.getAID().getName() + " unexpected IOException occured, while closing socket.");
 			}
 		}
 	}
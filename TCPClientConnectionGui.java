@@ -18,6 +18,7 @@ public class TCPClientConnectionGui extends JFrame {
 	private JPanel mainPanel;
 	private JTextField IPAddress;
 	private JTextField serverPort;
+	private JTextField variables;
 	
 	TCPClientConnectionGui(GUIAgent agent){
 		super(agent.getLocalName());
@@ -39,6 +40,10 @@ public class TCPClientConnectionGui extends JFrame {
 		// Port part
 		JLabel portLabel = new JLabel("Port: ");
 		serverPort = new JTextField(10);
+		// Variables part, empty field means all variables
+		JLabel variablesLabel = new JLabel("Variables: ");
+		variables = new JTextField(25);
+		variables.setToolTipText("Empty for all variables, list (a,b), glob=Tank* or prefix=Tank1_");
 		// Connection button
 		JButton connectionButton = new JButton("Connect");
 		connectionButton.addActionListener(new ActionListener() {
@@ -46,11 +51,14 @@ public class TCPClientConnectionGui extends JFrame {
 				try {
 					String IPAddr = IPAddress.getText().trim();
 					int port = Integer.parseInt(serverPort.getText().trim());
-					myAgent.monitorPlant(IPAddr, port);
+					VariableSelection selection = VariableSelection.parse(variables.getText());
+					myAgent.monitorPlant(IPAddr, port, selection);
 				} catch (NullPointerException e) {
 					printConnectionError("Empty IP and/or port field.");
 				} catch (NumberFormatException e) {
 					printConnectionError("Incorrect data type in port field.");
+				} catch (IllegalArgumentException e) {
+					printConnectionError("Incorrect variables selection.");
 				} catch (Exception e) {
 					printConnectionError("Unable to establish connection.");
 				}
@@ -66,11 +74,13 @@ public class TCPClientConnectionGui extends JFrame {
 		layout.setHorizontalGroup(layout.createParallelGroup(GroupLayout.Alignment.CENTER)
 				.addGroup(layout.createSequentialGroup().addComponent(IPLabel).addComponent(IPAddress))
 				.addGroup(layout.createSequentialGroup().addComponent(portLabel).addComponent(serverPort))
+				.addGroup(layout.createSequentialGroup().addComponent(variablesLabel).addComponent(variables))
 				.addComponent(connectionButton));
 		
 		layout.setVerticalGroup(layout.createSequentialGroup()
 				.addGroup(layout.createParallelGroup(GroupLayout.Alignment.TRAILING).addComponent(IPLabel).addComponent(IPAddress))
 				.addGroup(layout.createParallelGroup(GroupLayout.Alignment.TRAILING).addComponent(portLabel).addComponent(serverPort))
+				.addGroup(layout.createParallelGroup(GroupLayout.Alignment.TRAILING).addComponent(variablesLabel).addComponent(variables))
 				.addComponent(connectionButton));
 		
 		getContentPane().add(mainPanel);
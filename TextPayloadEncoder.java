@@ -0,0 +1,48 @@
+/**
+ * TextPayloadEncoder
+ *
+ * Builds text content of subscription messages in form
+ * "name1:value1;name2:value2". Values are formatted with fixed
+ * number of decimal places. Encoder reuses its buffer, so single
+ * instance should be used by one thread only.
+ */
+
+package agentControlSystem;
+
+public class TextPayloadEncoder {
+	private final int precision;
+	private final StringBuilder content;
+
+	/**
+	 * @param precision - number of decimal places of values
+	 */
+	public TextPayloadEncoder(int precision) {
+		this.precision = precision;
+		content = new StringBuilder();
+	}
+
+	/**
+	 * Encodes selected variables.
+	 * @param varNames - names of variables ordered by slot
+	 * @param values - values of variables ordered by slot
+	 * @param slots - ascending slots of variables to encode, null for all variables
+	 * @param changes - detector with variables changed in current frame, null to encode every selected variable
+	 * @return encoded content, empty if no variable was encoded
+	 */
+	public String encode(String[] varNames, double[] values, int[] slots, ChangeDetector changes) {
+		content.setLength(0);
+		int count = slots != null ? slots.length : varNames.length;
+		for (int i = 0; i < count; i++) {
+			int slot = slots != null ? slots[i] : i;
+			if (changes == null || changes.isChanged(slot)) {
+				content.append(varNames[slot]).append(':');
+				PlantValueStore.appendFormatted(content, values[slot], precision);
+				content.append(';');
+			}
+		}
+		if (content.length() > 0) {
+			content.setLength(content.length() - 1);
+		}
+		return content.toString();
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * TrendBuffer
+ *
+ * Samples of one variable prepared for drawing trend. Every pixel column
+ * of trend is bucket keeping minimum, maximum and last value of samples
+ * in its time range, buckets are updated with every added sample and
+ * shifted when time passes, so drawing costs the same for 10 samples and
+ * for 100000 samples per column.
+ *
+ * Last historyCapacity samples are kept too, so that buckets can be built
+ * again when trend is zoomed or resized.
+ *
+ * Samples are added by agent's thread, buckets are copied for drawing by
+ * Swing event dispatch thread.
+ */
+
+package agentControlSystem;
+
+public class TrendBuffer {
+
+	public static final int DEFAULT_HISTORY_CAPACITY = 36000;
+
+	// History of samples, ring of historyCapacity samples.
+	private final long[] times;
+	private final double[] lasts;
+	private final double[] mins;
+	private final double[] maxs;
+	private int historyStart;
+	private int historyCount;
+	private long lastTime;
+
+	// Buckets of pixel columns, the last column ends at windowEnd.
+	private long span;
+	private int columns;
+	private double bucketWidth;
+	private double windowEnd;
+	private double[] bucketMin;
+	private double[] bucketMax;
+	private double[] bucketLast;
+	private int[] bucketCount;
+	private long modCount;
+
+	/**
+	 * @param historyCapacity - number of samples kept for zooming
+	 * @param span - time shown by trend (ms)
+	 * @param columns - width of trend in pixels
+	 */
+	public TrendBuffer(int historyCapacity, long span, int columns) {
+		times = new long[Math.max(1, historyCapacity)];
+		lasts = new double[times.length];
+		mins = new double[times.length];
+		maxs = new double[times.length];
+		setView(span, columns);
+	}
+
+	/**
+	 * Adds sample of variable.
+	 * @param time - time of sample (ms), earlier times are treated as time of previous sample
+	 * @param last - value of variable
+	 * @param min - minimum since previous sample, the same as last if not aggregated
+	 * @param max - maximum since previous sample, the same as last if not aggregated
+	 */
+	public synchronized void add(long time, double last, double min, double max) {
+		time = Math.max(time, lastTime);
+		lastTime = time;
+		int index;
+		if (historyCount < times.length) {
+			index = (historyStart + historyCount) % times.length;
+			historyCount++;
+		} else {
+			index = historyStart;
+			historyStart = (historyStart + 1) % times.length;
+		}
+		times[index] = time;
+		lasts[index] = last;
+		mins[index] = min;
+		maxs[index] = max;
+
+		if (time >= windowEnd) {
+			// Time passed the last column, columns are shifted left.
+			int shift = (int) Math.min(columns, Math.floor((time - windowEnd) / bucketWidth) + 1);
+			shiftBuckets(shift);
+			windowEnd += shift * bucketWidth;
+			if (time >= windowEnd) {
+				// Sample is newer than whole window, window starts again from it.
+				windowEnd = time + bucketWidth;
+			}
+		}
+		addToBucket(time, last, min, max);
+		modCount++;
+	}
+
+	/**
+	 * Builds buckets again from history, e.g. after zooming or resizing.
+	 * @param span - time shown by trend (ms)
+	 * @param columns - width of trend in pixels
+	 */
+	public synchronized void setView(long span, int columns) {
+		this.span = Math.max(1, span);
+		this.columns = Math.max(1, columns);
+		bucketWidth = (double) this.span / this.columns;
+		bucketMin = new double[this.columns];
+		bucketMax = new double[this.columns];
+		bucketLast = new double[this.columns];
+		bucketCount = new int[this.columns];
+		windowEnd = lastTime + bucketWidth;
+		double windowStart = windowEnd - this.span;
+		// Only samples in new window are visited.
+		int low = 0;
+		int high = historyCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[(historyStart + middle) % times.length] < windowStart) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int i = low; i < historyCount; i++) {
+			int index = (historyStart + i) % times.length;
+			addToBucket(times[index], lasts[index], mins[index], maxs[index]);
+		}
+		modCount++;
+	}
+
+	private void addToBucket(long time, double last, double min, double max) {
+		int column = columns - (int) Math.ceil((windowEnd - time) / bucketWidth);
+		if (column < 0 || column >= columns) {
+			return;
+		}
+		if (bucketCount[column] == 0) {
+			bucketMin[column] = min;
+			bucketMax[column] = max;
+		} else {
+			bucketMin[column] = Math.min(bucketMin[column], min);
+			bucketMax[column] = Math.max(bucketMax[column], max);
+		}
+		bucketLast[column] = last;
+		bucketCount[column]++;
+	}
+
+	private void shiftBuckets(int shift) {
+		int kept = columns - shift;
+		System.arraycopy(bucketMin, shift, bucketMin, 0, kept);
+		System.arraycopy(bucketMax, shift, bucketMax, 0, kept);
+		System.arraycopy(bucketLast, shift, bucketLast, 0, kept);
+		System.arraycopy(bucketCount, shift, bucketCount, 0, kept);
+		for (int i = kept; i < columns; i++) {
+			bucketCount[i] = 0;
+		}
+	}
+
+	/**
+	 * Copies buckets for drawing, arrays must have at least getColumns() elements.
+	 * @param count - number of samples in bucket, 0 for empty column
+	 * @return number of columns
+	 */
+	public synchronized int copyBuckets(double[] min, double[] max, double[] last, int[] count) {
+		System.arraycopy(bucketMin, 0, min, 0, columns);
+		System.arraycopy(bucketMax, 0, max, 0, columns);
+		System.arraycopy(bucketLast, 0, last, 0, columns);
+		System.arraycopy(bucketCount, 0, count, 0, columns);
+		return columns;
+	}
+
+	public synchronized int getColumns() {
+		return columns;
+	}
+
+	public synchronized long getSpan() {
+		return span;
+	}
+
+	/**
+	 * @return time span of kept history (ms)
+	 */
+	public synchronized long getHistorySpan() {
+		return historyCount > 0 ? lastTime - times[historyStart] : 0;
+	}
+
+	/**
+	 * @return counter changed with every change of buckets, so unchanged trend is not drawn again
+	 */
+	public synchronized long getModCount() {
+		return modCount;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * TrendPanel
+ *
+ * Draws trend of one variable from buckets of TrendBuffer: vertical line
+ * from minimum to maximum and line through last values in every pixel
+ * column. Mouse wheel zooms time axis, buckets are then built again from
+ * history of buffer.
+ *
+ * Used only by Swing event dispatch thread.
+ */
+
+package agentControlSystem;
+
+import java.awt.*;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import javax.swing.JPanel;
+
+public class TrendPanel extends JPanel {
+	private static final long serialVersionUID = 1L;
+
+	public static final long DEFAULT_SPAN = 60000; // ms
+	private static final long MIN_SPAN = 1000; // ms
+
+	private TrendBuffer trend;
+	private String title;
+	private long span;
+	private long drawnModCount;
+
+	// Buckets copied from trend, reused for every drawing.
+	private double[] min;
+	private double[] max;
+	private double[] last;
+	private int[] count;
+
+	public TrendPanel() {
+		span = DEFAULT_SPAN;
+		title = "Select variable to show its trend";
+		setBackground(Color.WHITE);
+		setPreferredSize(new Dimension(500, 200));
+		min = new double[0];
+		max = new double[0];
+		last = new double[0];
+		count = new int[0];
+		addMouseWheelListener(new MouseWheelListener() {
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				// Zooming out is limited by kept history.
+				long maxSpan = trend != null ? Math.max(MIN_SPAN, trend.getHistorySpan()) : MIN_SPAN;
+				long newSpan = e.getWheelRotation() > 0 ? span * 2 : span / 2;
+				newSpan = Math.max(MIN_SPAN, Math.min(Math.max(span, maxSpan), newSpan));
+				if (newSpan != span) {
+					span = newSpan;
+					updateView();
+					repaint();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param trend - buffer of shown variable, null to show nothing
+	 * @param title - name of shown variable
+	 */
+	public void setTrend(TrendBuffer trend, final String title) {
+		this.trend = trend;
+		this.title = title;
+		updateView();
+		repaint();
+	}
+
+	/**
+	 * Redraws trend if it changed since it was drawn, called on every refresh.
+	 */
+	public void refresh() {
+		if (trend != null && trend.getModCount() != drawnModCount) {
+			repaint();
+		}
+	}
+
+	/**
+	 * Builds buckets of trend for current span and width of panel.
+	 */
+	private void updateView() {
+		if (trend != null) {
+			int columns = Math.max(1, getWidth());
+			if (trend.getSpan() != span || trend.getColumns() != columns) {
+				trend.setView(span, columns);
+			}
+		}
+	}
+
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		g.setColor(Color.DARK_GRAY);
+		g.drawString(title + (trend != null ? " (" + span / 1000 + " s)" : ""), 5, 15);
+		if (trend == null) {
+			return;
+		}
+		updateView();
+		drawnModCount = trend.getModCount();
+		int columns = trend.getColumns();
+		if (min.length < columns) {
+			min = new double[columns];
+			max = new double[columns];
+			last = new double[columns];
+			count = new int[columns];
+		}
+		columns = trend.copyBuckets(min, max, last, count);
+
+		// Vertical axis fits values in shown window.
+		double low = Double.POSITIVE_INFINITY;
+		double high = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < columns; i++) {
+			if (count[i] > 0) {
+				low = Math.min(low, min[i]);
+				high = Math.max(high, max[i]);
+			}
+		}
+		if (low > high) {
+			return;
+		}
+		if (high - low < 1e-9) {
+			low -= 0.5;
+			high += 0.5;
+		}
+		int top = 20;
+		int height = Math.max(1, getHeight() - top - 5);
+		double scale = height / (high - low);
+		g.drawString(String.valueOf(high), 5, top + 10);
+		g.drawString(String.valueOf(low), 5, top + height);
+
+		int previousX = -1;
+		int previousY = 0;
+		for (int x = 0; x < columns; x++) {
+			if (count[x] == 0) {
+				continue;
+			}
+			g.setColor(Color.LIGHT_GRAY);
+			g.drawLine(x, top + (int) ((high - max[x]) * scale), x, top + (int) ((high - min[x]) * scale));
+			int y = top + (int) ((high - last[x]) * scale);
+			g.setColor(Color.BLUE);
+			if (previousX >= 0) {
+				g.drawLine(previousX, previousY, x, y);
+			} else {
+				g.drawLine(x, y, x, y);
+			}
+			previousX = x;
+			previousY = y;
+		}
+	}
+}
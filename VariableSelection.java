@@ -0,0 +1,181 @@
+/**
+ * VariableSelection
+ *
+ * Selection of plant variables requested by subscriber. Selection is
+ * written as one of:
+ *   vars=name1,name2   - explicit list of variables
+ *   glob=Tank*,P?_in   - glob patterns ('*' any text, '?' single character)
+ *   prefix=Tank1_      - all variables starting with prefix
+ * Empty selection or "*" selects all variables, text without key is
+ * treated as explicit list.
+ *
+ * Selection is compiled once into sorted array of slots of PlantValueStore.
+ */
+
+package agentControlSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class VariableSelection {
+
+	public static final String VARS = "vars";
+	public static final String GLOB = "glob";
+	public static final String PREFIX = "prefix";
+
+	private final String[] names;
+	private final Pattern[] patterns;
+	private final String prefix;
+	private final String spec;
+
+	private VariableSelection(String[] names, Pattern[] patterns, final String prefix, final String spec) {
+		this.names = names;
+		this.patterns = patterns;
+		this.prefix = prefix;
+		this.spec = spec;
+	}
+
+	/**
+	 * Selection of all variables.
+	 */
+	public static VariableSelection all() {
+		return new VariableSelection(null, null, null, "");
+	}
+
+	/**
+	 * Parses selection written in one of forms described in class comment.
+	 * @param spec - selection text, may be null
+	 * @return parsed selection
+	 * @throws IllegalArgumentException when glob pattern or key is incorrect
+	 */
+	public static VariableSelection parse(final String spec) {
+		if (spec == null || spec.trim().isEmpty() || spec.trim().equals("*")) {
+			return all();
+		}
+		String keyAndValue[] = spec.trim().split("=", 2);
+		if (keyAndValue.length == 1) {
+			return new VariableSelection(splitList(keyAndValue[0]), null, null, VARS + "=" + spec.trim());
+		}
+		String key = keyAndValue[0].trim();
+		String value = keyAndValue[1].trim();
+		if (key.equals(VARS)) {
+			return new VariableSelection(splitList(value), null, null, spec.trim());
+		} else if (key.equals(GLOB)) {
+			String[] globs = splitList(value);
+			Pattern[] patterns = new Pattern[globs.length];
+			for (int i = 0; i < globs.length; i++) {
+				patterns[i] = globToPattern(globs[i]);
+			}
+			return new VariableSelection(null, patterns, null, spec.trim());
+		} else if (key.equals(PREFIX)) {
+			return new VariableSelection(null, null, value, spec.trim());
+		} else {
+			throw new IllegalArgumentException("Unknown variable selection " + key);
+		}
+	}
+
+	/**
+	 * Reads selection from subscription message content, which is list of
+	 * parameters "key=value" separated by ';' (e.g. "prefix=Tank1_").
+	 * @param content - content of SUBSCRIBE message, may be null
+	 * @return selection, all variables if content does not contain selection
+	 * @throws IllegalArgumentException when glob pattern is incorrect
+	 */
+	public static VariableSelection fromSubscription(final String content) {
+		if (content != null) {
+			for (String parameter : content.split(";")) {
+				String key = parameter.split("=", 2)[0].trim();
+				if (key.equals(VARS) || key.equals(GLOB) || key.equals(PREFIX)) {
+					return parse(parameter);
+				}
+			}
+		}
+		return all();
+	}
+
+	private static String[] splitList(final String list) {
+		List<String> result = new ArrayList<String>();
+		for (String item : list.split(",")) {
+			if (!item.trim().isEmpty()) {
+				result.add(item.trim());
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	private static Pattern globToPattern(final String glob) {
+		StringBuilder regex = new StringBuilder();
+		int literalStart = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > literalStart) {
+					regex.append(Pattern.quote(glob.substring(literalStart, i)));
+				}
+				regex.append(c == '*' ? ".*" : ".");
+				literalStart = i + 1;
+			}
+		}
+		if (literalStart < glob.length()) {
+			regex.append(Pattern.quote(glob.substring(literalStart)));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * @return true if selection contains every variable
+	 */
+	public boolean selectsAll() {
+		return names == null && patterns == null && prefix == null;
+	}
+
+	/**
+	 * Checks if variable belongs to selection.
+	 */
+	public boolean matches(final String varName) {
+		if (names != null) {
+			for (String name : names) {
+				if (name.equals(varName)) {
+					return true;
+				}
+			}
+			return false;
+		} else if (patterns != null) {
+			for (Pattern pattern : patterns) {
+				if (pattern.matcher(varName).matches()) {
+					return true;
+				}
+			}
+			return false;
+		} else if (prefix != null) {
+			return varName.startsWith(prefix);
+		}
+		return true;
+	}
+
+	/**
+	 * Compiles selection into slots of selected variables.
+	 * @param varNames - names of variables ordered by slot
+	 * @return ascending slots of selected variables
+	 */
+	public int[] compile(String[] varNames) {
+		int[] slots = new int[varNames.length];
+		int count = 0;
+		for (int slot = 0; slot < varNames.length; slot++) {
+			if (matches(varNames[slot])) {
+				slots[count++] = slot;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(slots, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * @return selection in form accepted by parse(), empty for all variables
+	 */
+	public String toString() {
+		return spec;
+	}
+}
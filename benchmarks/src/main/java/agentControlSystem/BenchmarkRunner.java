@@ -0,0 +1,26 @@
+/**
+ * BenchmarkRunner
+ *
+ * Runs benchmarks selected by JMH command line options (all of them by
+ * default) with GC profiler enabled, so allocation rate is reported next
+ * to throughput and average time.
+ */
+
+package agentControlSystem;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * ClusterParseBenchmark
+ *
+ * Ingest of plant frames: parsing LabView cluster and storing values in
+ * PlantValueStore, as done by TCPClientAgent for every received frame.
+ * streamFrame reads frames from continuous stream (blocking ReadFromPlant),
+ * bufferedFrame parses frame already cut out of buffer (non-blocking
+ * PlantConnector). Frame size grows with varCount and nameLength.
+ */
+
+package agentControlSystem;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClusterParseBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int varCount;
+
+	@Param({"8", "32"})
+	public int nameLength;
+
+	private byte[] frame;
+	private ClusterFrameParser streamParser;
+	private XMLInputFactory readerFactory;
+	private StoreHandler handler;
+
+	/**
+	 * Stores values like PlantFrameHandler of connector agent.
+	 */
+	private static class StoreHandler implements ClusterFrameParser.FrameHandler {
+		final PlantValueStore valueStore = new PlantValueStore();
+		long frameTimestamp;
+
+		public void onValue(final String varName, double varVal) {
+			valueStore.update(varName, varVal, frameTimestamp);
+		}
+
+		public void onFrameEnd() {
+			valueStore.commitFrame();
+			frameTimestamp++;
+		}
+	}
+
+	@Setup
+	public void setup() throws XMLStreamException, IOException {
+		frame = PlantFrames.createFrame(PlantFrames.createNames(varCount, nameLength),
+				PlantFrames.createValues(varCount));
+		streamParser = new ClusterFrameParser(new PlantFrames.RepeatingInputStream(frame), Integer.MAX_VALUE);
+		readerFactory = ClusterFrameParser.createReaderFactory();
+		handler = new StoreHandler();
+		// First frame freezes set of variables, benchmarks measure following frames.
+		streamParser.readFrame(handler);
+	}
+
+	@TearDown
+	public void tearDown() {
+		streamParser.close();
+	}
+
+	@Benchmark
+	public boolean streamFrame() throws XMLStreamException, IOException {
+		return streamParser.readFrame(handler);
+	}
+
+	@Benchmark
+	public long bufferedFrame() throws XMLStreamException {
+		ClusterFrameParser.parseFrame(readerFactory, frame, 0, frame.length, handler);
+		return handler.frameTimestamp;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * FanOutBenchmark
+ *
+ * Building "name:value;" INFORM content and notifying subscriptions, as done
+ * by connector agent's dispatcher for every frame. Subscribers either take
+ * all variables (one content shared by all of them) or every subscriber
+ * selects its own part of variables (content encoded per subscriber).
+ * With batch above 1 frames are collected in FrameBatch of every subscriber
+ * and one message is notified per batch.
+ *
+ * Subscriptions only keep notified message, cost of sending it by JADE
+ * platform is not included.
+ */
+
+package agentControlSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jade.lang.acl.ACLMessage;
+import jade.proto.SubscriptionResponder;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+
+	@Param({"1", "10", "100", "1000"})
+	public int subscriberCount;
+
+	@Param({"100"})
+	public int varCount;
+
+	@Param({"all", "selected"})
+	public String selection;
+
+	@Param({"1", "16"})
+	public int batch;
+
+	private String[] varNames;
+	private double[] values;
+	private FrameDispatcher dispatcher;
+	private List<PlantSubscriber> subscribers;
+	private long frameTime;
+
+	/**
+	 * Subscription keeping last notification instead of sending it.
+	 */
+	private static class CollectingSubscription extends SubscriptionResponder.Subscription {
+		ACLMessage lastNotification;
+		int notifications;
+
+		CollectingSubscription() {
+			super(null, new ACLMessage(ACLMessage.SUBSCRIBE));
+		}
+
+		public void notify(ACLMessage notification) {
+			lastNotification = notification;
+			notifications++;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		varNames = PlantFrames.createNames(varCount, 8);
+		values = PlantFrames.createValues(varCount);
+		dispatcher = new FrameDispatcher(varNames, PlantValueStore.DEFAULT_PRECISION, null);
+		subscribers = new ArrayList<PlantSubscriber>(subscriberCount);
+		for (int i = 0; i < subscriberCount; i++) {
+			VariableSelection variableSelection = VariableSelection.all();
+			if (selection.equals("selected")) {
+				// Every subscriber takes every tenth variable, starting from different one.
+				StringBuilder vars = new StringBuilder(VariableSelection.VARS + "=");
+				for (int slot = i % 10; slot < varCount; slot += 10) {
+					vars.append(varNames[slot]).append(',');
+				}
+				variableSelection = VariableSelection.parse(vars.toString());
+			}
+			PlantSubscriber subscriber = new PlantSubscriber(new CollectingSubscription(), variableSelection, varNames);
+			if (batch > 1) {
+				subscriber.enableBatching(batch, 0);
+			}
+			subscribers.add(subscriber);
+		}
+	}
+
+	@Benchmark
+	public long dispatchFrame() {
+		values[0] += 0.01;
+		dispatcher.dispatch(values, frameTime, subscribers);
+		return ++frameTime;
+	}
+}
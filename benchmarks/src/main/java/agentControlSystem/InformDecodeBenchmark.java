@@ -0,0 +1,102 @@
+/**
+ * InformDecodeBenchmark
+ *
+ * Handling of INFORM with plant values by GUI agent: splitting content into
+ * variables and passing them to slots of their names, or decoding the
+ * same values from binary content. Updating Swing labels needs display, so
+ * values are passed to sink consuming them.
+ */
+
+package agentControlSystem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InformDecodeBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int varCount;
+
+	@Param({ConflatingBuffer.AGGREGATE_LAST, ConflatingBuffer.AGGREGATE_MIN_MAX_LAST})
+	public String aggregate;
+
+	private String content;
+	private byte[] binaryContent;
+	private boolean withMinMax;
+	private BlackholeSink sink;
+
+	private static class BlackholeSink implements PlantUpdateDecoder.SlotSink, BinaryPayloadDecoder.ValueSink {
+		Blackhole blackhole;
+		PlantUpdateDecoder.NameSlots nameSlots;
+
+		public void startFrame(long frameTime) {
+			blackhole.consume(frameTime);
+		}
+
+		public int resolveSlot(final String content, int start, int end, int position) {
+			return nameSlots.resolve(content, start, end, position);
+		}
+
+		public void updateValue(int slot, final String varVal) {
+			blackhole.consume(slot);
+			blackhole.consume(varVal);
+		}
+
+		public void updateValue(int index, double value) {
+			blackhole.consume(index);
+			blackhole.consume(value);
+		}
+
+		public void updateAggregate(int index, double last, double min, double max) {
+			blackhole.consume(index);
+			blackhole.consume(last);
+			blackhole.consume(min);
+			blackhole.consume(max);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		withMinMax = aggregate.equals(ConflatingBuffer.AGGREGATE_MIN_MAX_LAST);
+		double[] values = PlantFrames.createValues(varCount);
+		String[] names = PlantFrames.createNames(varCount, 8);
+		content = PlantFrames.createContent(names, values, withMinMax);
+		BinaryPayloadEncoder encoder = new BinaryPayloadEncoder();
+		for (int i = 0; i < varCount; i++) {
+			if (withMinMax) {
+				encoder.add(i, values[i], values[i], values[i]);
+			} else {
+				encoder.add(i, values[i]);
+			}
+		}
+		binaryContent = encoder.toByteArray();
+		sink = new BlackholeSink();
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		for (int i = 0; i < names.length; i++) {
+			slots.put(names[i], i);
+		}
+		sink.nameSlots = new PlantUpdateDecoder.NameSlots(slots);
+	}
+
+	@Benchmark
+	public void decodeInform(Blackhole blackhole) {
+		sink.blackhole = blackhole;
+		PlantUpdateDecoder.decode(content, withMinMax, sink);
+	}
+
+	@Benchmark
+	public void decodeBinaryInform(Blackhole blackhole) {
+		sink.blackhole = blackhole;
+		BinaryPayloadDecoder.decode(binaryContent, withMinMax, sink);
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * PlantFrames
+ *
+ * Test data for benchmarks: LabView "Flatten to XML" frames in the form
+ * sent by plant and INFORM contents in the form sent by connector agent.
+ */
+
+package agentControlSystem;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class PlantFrames {
+
+	/**
+	 * Creates variable names of given length, e.g. "Var0001_xxxx".
+	 */
+	public static String[] createNames(int varCount, int nameLength) {
+		String[] names = new String[varCount];
+		for (int i = 0; i < varCount; i++) {
+			StringBuilder name = new StringBuilder(String.format("Var%04d_", i));
+			while (name.length() < nameLength) {
+				name.append('x');
+			}
+			names[i] = name.toString();
+		}
+		return names;
+	}
+
+	/**
+	 * Creates values with fixed seed, so every run uses the same data.
+	 */
+	public static double[] createValues(int varCount) {
+		Random random = new Random(42);
+		double[] values = new double[varCount];
+		for (int i = 0; i < varCount; i++) {
+			values[i] = random.nextDouble() * 200.0 - 100.0;
+		}
+		return values;
+	}
+
+	/**
+	 * Creates frame with all variables, as sent by PlantSimulator.
+	 */
+	public static byte[] createFrame(String[] names, double[] values) {
+		StringBuilder frame = new StringBuilder();
+		PlantSimulator.appendFrame(frame, names, values);
+		return frame.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates INFORM content with all variables.
+	 * @param withMinMax - true if values should be aggregated as "last,min,max"
+	 */
+	public static String createContent(String[] names, double[] values, boolean withMinMax) {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			content.append(names[i]).append(':');
+			PlantValueStore.appendFormatted(content, values[i], PlantValueStore.DEFAULT_PRECISION);
+			if (withMinMax) {
+				content.append(',');
+				PlantValueStore.appendFormatted(content, values[i] - 1.0, PlantValueStore.DEFAULT_PRECISION);
+				content.append(',');
+				PlantValueStore.appendFormatted(content, values[i] + 1.0, PlantValueStore.DEFAULT_PRECISION);
+			}
+			content.append(';');
+		}
+		content.setLength(content.length() - 1);
+		return content.toString();
+	}
+
+	/**
+	 * Endless stream repeating the same frame, it stands for plant socket.
+	 */
+	public static class RepeatingInputStream extends InputStream {
+		private final byte[] frame;
+		private int position;
+
+		public RepeatingInputStream(byte[] frame) {
+			this.frame = frame;
+		}
+
+		public int read() {
+			int b = frame[position] & 0xFF;
+			position = (position + 1) % frame.length;
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			int n = Math.min(len, frame.length - position);
+			System.arraycopy(frame, position, b, off, n);
+			position = (position + n) % frame.length;
+			return n;
+		}
+	}
+}